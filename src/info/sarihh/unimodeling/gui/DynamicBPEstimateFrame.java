@@ -9,8 +9,12 @@ import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.pdf.PdfContentByte;
 import com.itextpdf.text.pdf.PdfTemplate;
 import com.itextpdf.text.pdf.PdfWriter;
+import info.sarihh.unimodeling.utility.ActivityLog;
+import info.sarihh.unimodeling.utility.ConnectionPool;
 import info.sarihh.unimodeling.utility.DatabaseConnectionFactory;
 import info.sarihh.unimodeling.utility.ExtensionFileFilter;
+import info.sarihh.unimodeling.utility.LocationDictionary;
+import info.sarihh.unimodeling.utility.ProbabilityVector;
 import info.sarihh.unimodeling.utility.TimeDiff;
 import java.awt.Color;
 import java.awt.Graphics2D;
@@ -22,11 +26,12 @@ import java.io.OutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.StringTokenizer;
 import javax.swing.JFileChooser;
@@ -56,6 +61,7 @@ public class DynamicBPEstimateFrame extends javax.swing.JInternalFrame {
         this.unModeingGUI = uniModelingGUI;
         pdfFileFilter = new ExtensionFileFilter(new String[]{"PDF"}, "PDF files");
         initComponents();
+        activityLog.install(activityLogScrollPane);
         driversComboBox.setSelectedIndex(1);
         connectDatabaseDialog.pack();
         plottingDialog.pack();
@@ -420,7 +426,7 @@ public class DynamicBPEstimateFrame extends javax.swing.JInternalFrame {
     }// </editor-fold>//GEN-END:initComponents
 
 private void clearLogButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_clearLogButtonActionPerformed
-    activityLogTextArea.setText("");
+    activityLog.clear();
 }//GEN-LAST:event_clearLogButtonActionPerformed
 
 private void connectDatabaseButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_connectDatabaseButtonActionPerformed
@@ -434,7 +440,7 @@ private void connectDatabaseButtonActionPerformed(java.awt.event.ActionEvent evt
 }//GEN-LAST:event_connectDatabaseButtonActionPerformed
 
 private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_testButtonActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -451,7 +457,7 @@ private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
 }//GEN-LAST:event_testButtonActionPerformed
 
 private void okButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_okButton1ActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -573,22 +579,20 @@ private void saveButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
         document.close();
     }
 
-    public void appendLogText(final String text) {
-        SwingUtilities.invokeLater(new Runnable() {
-
-            public void run() {
-                if (!text.equals("")) {
-                    activityLogTextArea.append(dateFormat.format(new Date()) + " -> " + text + "\n");
-                    activityLogTextArea.setCaretPosition(activityLogTextArea.getText().length());
-                }
-            }
-        });
+    public void appendLogText(String text) {
+        activityLog.append(text);
     }
 
     public Connection getConnection() {
         return conn;
     }
 
+    /** This method returns the pool that the connection of the frame came
+     * from, for work that runs alongside the frame's own queries. */
+    public ConnectionPool getConnectionPool() {
+        return DatabaseConnectionFactory.getConnectionPool(DATABASE_STAGE);
+    }
+
     private HashMap<String, Double> normalize(HashMap<String, Double> bpMap) {
         double sum = 0.0;
         HashMap<String, Double> bpMap2 = new HashMap<>();
@@ -601,35 +605,6 @@ private void saveButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
         return bpMap2;
     }
 
-    public static double getProbability(String semanticLocation, String probSemanticLocations) {
-        StringTokenizer st = new StringTokenizer(probSemanticLocations, ",");
-        while (st.hasMoreTokens()) {
-            String token = st.nextToken();
-            if (token.contains(semanticLocation)) {
-                return Double.valueOf(token.substring(token.indexOf(":") + 1));
-            }
-        }
-        return 0.0;
-    }
-
-    private int rowCount(ResultSet resultSet, String loc) {
-        try {
-            int counter = 0;
-            while (resultSet.next()) {
-                if (resultSet.getString("INFER_LOC").contains(loc)) {
-                    counter++;
-                }
-            }
-            resultSet.beforeFirst();
-            return counter;
-        } catch (SQLException e) {
-            for (Throwable t : e) {
-                t.printStackTrace();
-            }
-            return 0;
-        }
-    }
-
     private HashMap<String, Double> dynamicBPEstimate(String startDateTime, String monitoringPerior, double eta) {
         // Set the start time of monitoring in the calendar
         Timestamp dayTS = Timestamp.valueOf(startDateTime);
@@ -659,19 +634,37 @@ private void saveButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
         HashMap<String, Double> bpMap = new HashMap<>();
 
         try {
-            // Retrieve I-REC([s_time,e_time]) from the INFER_TABLE
-            ResultSet resultSet = null;
-            String query = "SELECT * FROM INFER_TABLE WHERE S_TIME >= ? AND E_TIME <= ? ORDER BY LICENSE_PLATE, S_TIME, E_TIME";
-            PreparedStatement statement = conn.prepareStatement(query, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            String s_time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(calendar_s.getTime());
-            String e_time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(calendar_e.getTime());
-            statement.setTimestamp(1, Timestamp.valueOf(s_time));
-            statement.setTimestamp(2, Timestamp.valueOf(e_time));
-            resultSet = statement.executeQuery();
-
-            for (String loc : W_l) {
-                double bpE = rowCount(resultSet, loc);
+            // The IDs of the locations in W_l; -1 for those that no record has
+            LocationDictionary dictionary = LocationDictionary.read(conn);
+            int[] locationIds = new int[W_l.length];
+            for (int i = 0; i < W_l.length; i++) {
+                locationIds[i] = dictionary.findId(W_l[i]);
+            }
+
+            // The rows are fetched FETCH_SIZE at a time only inside a transaction
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                // Retrieve I-REC([s_time,e_time]) from the INFER_TABLE in one pass
+                ResultSet resultSet = null;
+                String query = "SELECT * FROM INFER_TABLE WHERE S_TIME >= ? AND E_TIME <= ? ORDER BY LICENSE_PLATE, S_TIME, E_TIME";
+                PreparedStatement statement = conn.prepareStatement(query);
+                String s_time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(calendar_s.getTime());
+                String e_time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(calendar_e.getTime());
+                statement.setTimestamp(1, Timestamp.valueOf(s_time));
+                statement.setTimestamp(2, Timestamp.valueOf(e_time));
+                statement.setFetchSize(FETCH_SIZE);
+                resultSet = statement.executeQuery();
+                int vectorColumn = findColumn(resultSet, "INFER_VEC");
+
+                // bpE of a location is the number of records it is in, tweaked by every record
+                int[] counts = new int[W_l.length];
+                double[] tweaks = new double[W_l.length];
+                Arrays.fill(tweaks, 1.0);
+                double[] probabilities = new double[dictionary.size()];
+                int recordCount = 0;
                 while (resultSet.next()) {
+                    recordCount++;
                     // Determine the detection time with tau granularity
                     Timestamp sTime = resultSet.getTimestamp("S_TIME");
                     Timestamp eTime = resultSet.getTimestamp("E_TIME");
@@ -679,31 +672,36 @@ private void saveButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
                     long diffInMilliseconds = 86400000 * diffArray[0] + 3600000 * diffArray[1] + 60000 * diffArray[2] + 1000 * diffArray[3] + diffArray[4];
                     double diffInSeconds = diffInMilliseconds * 0.001;
                     double diffInMinutes = diffInSeconds / 60.0;
-                    double prob = getProbability(loc, resultSet.getString("INFER_LOC"));
-                    // Tweak bpE accordingly
-                    if (prob > 0) {
-                        bpE *= prob;
-                        for (long i = 0; i < diffInMinutes; i++) {
-                            bpE *= increase;
-                        }
-                    } else {
-                        for (long i = 0; i < diffInMinutes; i++) {
-                            bpE *= decrease;
+                    long minutes = diffInMinutes > 0 ? (long) Math.ceil(diffInMinutes) : 0;
+                    byte[] vector = vectorColumn > 0 ? resultSet.getBytes(vectorColumn) : null;
+                    if (vector != null) {
+                        ProbabilityVector.decode(vector, probabilities);
+                    } else { // a record of a table without vectors
+                        ProbabilityVector.decode(resultSet.getString("INFER_LOC"), dictionary, probabilities);
+                    }
+                    for (int i = 0; i < W_l.length; i++) {
+                        double prob = locationIds[i] >= 0 ? probabilities[locationIds[i]] : 0.0;
+                        // Tweak bpE accordingly
+                        if (prob > 0) {
+                            counts[i]++;
+                            tweaks[i] *= prob * Math.pow(increase, minutes);
+                        } else {
+                            tweaks[i] *= Math.pow(decrease, minutes);
                         }
                     }
                 }
-                // Rewind the result set for the next interation
-                resultSet.beforeFirst();
-                bpMap.put(loc, new Double(bpE));
+                for (int i = 0; i < W_l.length; i++) {
+                    bpMap.put(W_l[i], new Double(counts[i] * tweaks[i]));
+                }
+                HashMap<String, Double> bpMap2 = normalize(bpMap);
+                appendLogText(recordCount + " inferred records were processed.");
+                resultSet.close();
+                statement.close();
+                return bpMap2;
+            } finally {
+                conn.rollback(); // the estimation only reads
+                conn.setAutoCommit(autoCommit);
             }
-            HashMap<String, Double> bpMap2 = normalize(bpMap);
-            resultSet.beforeFirst();
-            resultSet.last();
-            int recordCount = resultSet.getRow();
-            appendLogText(recordCount + " inferred records were processed.");
-            resultSet.close();
-            statement.close();
-            return bpMap2;
         } catch (SQLException e) {
             for (Throwable t : e) {
                 t.printStackTrace();
@@ -711,9 +709,23 @@ private void saveButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
             return null;
         }
     }
+
+    /* Returns the index of the column in the result set, or 0 if it has no
+     * such column. */
+    private static int findColumn(ResultSet resultSet, String columnName) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (metaData.getColumnName(i).equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return 0;
+    }
     private UniModelingGUI unModeingGUI = null;
+    private static final String DATABASE_STAGE = "Estimation";
+    private static final int FETCH_SIZE = 1000;
     private static Connection conn = null;
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+    private ActivityLog activityLog = new ActivityLog();
     private JFreeChart chart = null;
     private ExtensionFileFilter pdfFileFilter;
     // Variables declaration - do not modify//GEN-BEGIN:variables
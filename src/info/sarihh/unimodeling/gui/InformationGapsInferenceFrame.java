@@ -2,8 +2,15 @@ package info.sarihh.unimodeling.gui;
 
 import com.rits.cloning.Cloner;
 import info.sarihh.unimodeling.streamapi.StreamSource;
+import info.sarihh.unimodeling.utility.ActivityLog;
+import info.sarihh.unimodeling.utility.BulkLoader;
+import info.sarihh.unimodeling.utility.CheckpointStore;
+import info.sarihh.unimodeling.utility.ConnectionPool;
 import info.sarihh.unimodeling.utility.DatabaseConnectionFactory;
+import info.sarihh.unimodeling.utility.LocationDictionary;
 import info.sarihh.unimodeling.utility.ProbRecord;
+import info.sarihh.unimodeling.utility.ProbabilityVector;
+import info.sarihh.unimodeling.utility.SchemaManager;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
@@ -11,16 +18,13 @@ import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
@@ -39,6 +43,7 @@ public class InformationGapsInferenceFrame extends javax.swing.JInternalFrame {
     public InformationGapsInferenceFrame(UniModelingGUI uniModelingGUI) {
         this.unModeingGUI = uniModelingGUI;
         initComponents();
+        activityLog.install(activityLogScrollPane);
         driversComboBox.setSelectedIndex(1);
         registerStreamDialog.pack();
         connectDatabaseDialog.pack();
@@ -70,6 +75,8 @@ public class InformationGapsInferenceFrame extends javax.swing.JInternalFrame {
         userNameTextField = new javax.swing.JTextField();
         passwordLabel = new javax.swing.JLabel();
         passwordTextField = new javax.swing.JPasswordField();
+        partitionsLabel = new javax.swing.JLabel();
+        partitionsComboBox = new javax.swing.JComboBox();
         buttonPanel2 = new javax.swing.JPanel();
         testButton = new javax.swing.JButton();
         buttonFiller5 = new javax.swing.Box.Filler(new java.awt.Dimension(50, 0), new java.awt.Dimension(50, 0), new java.awt.Dimension(50, 32767));
@@ -239,6 +246,25 @@ public class InformationGapsInferenceFrame extends javax.swing.JInternalFrame {
         gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
         connectDatabaseDialog.getContentPane().add(passwordTextField, gridBagConstraints);
 
+        partitionsLabel.setText(bundle.getString("InformationGapsInferenceFrame.partitionsLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        connectDatabaseDialog.getContentPane().add(partitionsLabel, gridBagConstraints);
+
+        partitionsComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "None", "Daily", "Monthly" }));
+        partitionsComboBox.setPreferredSize(new java.awt.Dimension(360, 22));
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.gridwidth = 2;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        connectDatabaseDialog.getContentPane().add(partitionsComboBox, gridBagConstraints);
+
         testButton.setText(bundle.getString("InformationGapsInferenceFrame.testButton.text_1")); // NOI18N
         testButton.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -404,7 +430,7 @@ public class InformationGapsInferenceFrame extends javax.swing.JInternalFrame {
     }// </editor-fold>//GEN-END:initComponents
 
 private void clearLogButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_clearLogButtonActionPerformed
-    activityLogTextArea.setText("");
+    activityLog.clear();
 }//GEN-LAST:event_clearLogButtonActionPerformed
 
 private void endInferenceButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_endInferenceButtonActionPerformed
@@ -421,118 +447,126 @@ private void startInferenceButtonActionPerformed(java.awt.event.ActionEvent evt)
         public void run() {
             try {
                 switchButtonState(endInferenceButton, startInferenceButton);
-                String[] plates = getLicensePlates();
+                CheckpointStore checkpointStore = new CheckpointStore(conn);
+                checkpointStore.createTable();
+                String lastPlate = checkpointStore.load(DATABASE_STAGE);
+                if (lastPlate != null) {
+                    appendLogText("Resuming after the license plate " + lastPlate + ".");
+                }
+                String[] plates = getLicensePlates(lastPlate);
                 String query1 = "SELECT PROB_TABLE.*, "
                         + "(CAST(S_TIME AS DATE) - TO_DATE('19700101','YYYYMMDD')) * 86400 AS S_TIME_UNIX, "
                         + "(CAST(E_TIME AS DATE) - TO_DATE('19700101','YYYYMMDD')) * 86400 AS E_TIME_UNIX "
                         + "FROM PROB_TABLE WHERE LICENSE_PLATE = ? ORDER BY S_TIME, E_TIME";
                 PreparedStatement statement1 = conn.prepareStatement(query1, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-                String query2 = "INSERT INTO INFER_TABLE VALUES (?, ?, ?, ?)";
-                PreparedStatement statement2 = conn.prepareStatement(query2);
+                LocationDictionary dictionary = new LocationDictionary(getConnectionPool());
+                BulkLoader loader = new BulkLoader(conn, "INFER_TABLE", 5);
+                appendLogText("INFER_TABLE is loaded through " + loader.getMethod() + ".");
                 ResultSet resultSet = null;
+                boolean autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false); // the records of a plate and the checkpoint after it are committed together
                 int counter = 0;
-                for (String plate : plates) {
-                    if (processingFlag) {
-                        ++counter;
-                        if (counter % 10 == 0) {
-                            appendLogText("The information gaps between the readings of " + counter + " objects were inferred.");
-                        }
-                        statement1.setString(1, plate);
-                        resultSet = statement1.executeQuery();
-                        ArrayList<ProbRecord> probRecordList = new ArrayList<>();
-                        ProbRecord probRecord = null;
-
-                        while (resultSet.next()) {
-                            probRecord = new ProbRecord(plate, resultSet.getString("PROB_LOC"),
-                                    resultSet.getTimestamp("S_TIME"),
-                                    resultSet.getTimestamp("E_TIME"),
-                                    resultSet.getLong("S_TIME_UNIX"),
-                                    resultSet.getLong("E_TIME_UNIX"));
-                            probRecordList.add(probRecord);
-                        }
-
-                        StringBuilder param;
-                        ProbRecord prec1;
-                        ProbRecord prec2;
-                        for (int i = 0; i < probRecordList.size() - 1; i++) {
-                            param = new StringBuilder();
-                            prec1 = probRecordList.get(i);
-                            prec2 = probRecordList.get(i + 1);
-
-                            param.append(prec1.getLicensePlate()).append(";").append(
-                                    prec1.getProbLoc()).append(";").append(prec1.getsTimeString()).append(
-                                    ";").append(prec1.geteTimeString()).append("#");
-                            param.append(prec2.getLicensePlate()).append(";").append(
-                                    prec2.getProbLoc()).append(";").append(prec2.getsTimeString()).append(
-                                    ";").append(prec2.geteTimeString());
-
-                            ProcessBuilder pb = new ProcessBuilder("InferenceEngine.exe", param.toString(),
-                                    Integer.toString(interval), Integer.toString(theAlgorithm));
-                            pb.directory(new File("."));
-                            pb.redirectErrorStream(true);
-                            Process process = pb.start();
-
-                            BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                            String line;
-                            ArrayList<String> lines = new ArrayList<>();
-                            while ((line = br.readLine()) != null) {
-                                lines.add(line);
+                try {
+                    for (String plate : plates) {
+                        if (processingFlag) {
+                            ++counter;
+                            if (counter % 10 == 0) {
+                                appendLogText("The information gaps between the readings of " + counter + " objects were inferred.");
                             }
-                            br.close();
-
-                            if (lines.size() == 2) { // only prec1 and prec2
-                                // insert prec1
-                                String inferRecord = lines.get(0);
-                                statement2.setString(1, plate);
-                                statement2.setString(2, inferRecord);
-                                statement2.setTimestamp(3, prec1.getsTime());
-                                statement2.setTimestamp(4, prec1.geteTime());
-                                statement2.executeUpdate();
-                                if (i == probRecordList.size() - 2) { // insert prec2
-                                    inferRecord = lines.get(1);
-                                    statement2.setString(1, plate);
-                                    statement2.setString(2, inferRecord);
-                                    statement2.setTimestamp(3, prec2.getsTime());
-                                    statement2.setTimestamp(4, prec2.geteTime());
-                                    statement2.executeUpdate();
-                                }
-                            } else { // prec1, prec2, and the filler
-                                // insert prec1
-                                String inferRecord = lines.get(0);
-                                statement2.setString(1, plate);
-                                statement2.setString(2, inferRecord);
-                                statement2.setTimestamp(3, prec1.getsTime());
-                                statement2.setTimestamp(4, prec1.geteTime());
-                                statement2.executeUpdate();
-                                // insert the gap filler record
-                                long sTimeUnix = prec1.geteTimeUnix() + interval;
-                                long eTimeUnix = prec2.getsTimeUnix() - 1;
-                                if (sTimeUnix < eTimeUnix) {
-                                    inferRecord = lines.get(1);
-                                    statement2.setString(1, plate);
-                                    statement2.setString(2, inferRecord);
-                                    statement2.setTimestamp(3, Timestamp.valueOf(convertUnixTime(conn, sTimeUnix)));
-                                    statement2.setTimestamp(4, Timestamp.valueOf(convertUnixTime(conn, eTimeUnix)));
-                                    statement2.executeUpdate();
+                            statement1.setString(1, plate);
+                            resultSet = statement1.executeQuery();
+                            ArrayList<ProbRecord> probRecordList = new ArrayList<>();
+                            ProbRecord probRecord = null;
+
+                            while (resultSet.next()) {
+                                probRecord = new ProbRecord(plate, resultSet.getString("PROB_LOC"),
+                                        resultSet.getTimestamp("S_TIME"),
+                                        resultSet.getTimestamp("E_TIME"),
+                                        resultSet.getLong("S_TIME_UNIX"),
+                                        resultSet.getLong("E_TIME_UNIX"));
+                                probRecordList.add(probRecord);
+                            }
+
+                            StringBuilder param;
+                            ProbRecord prec1;
+                            ProbRecord prec2;
+                            for (int i = 0; i < probRecordList.size() - 1; i++) {
+                                param = new StringBuilder();
+                                prec1 = probRecordList.get(i);
+                                prec2 = probRecordList.get(i + 1);
+
+                                param.append(prec1.getLicensePlate()).append(";").append(
+                                        prec1.getProbLoc()).append(";").append(prec1.getsTimeString()).append(
+                                        ";").append(prec1.geteTimeString()).append("#");
+                                param.append(prec2.getLicensePlate()).append(";").append(
+                                        prec2.getProbLoc()).append(";").append(prec2.getsTimeString()).append(
+                                        ";").append(prec2.geteTimeString());
+
+                                ProcessBuilder pb = new ProcessBuilder("InferenceEngine.exe", param.toString(),
+                                        Integer.toString(interval), Integer.toString(theAlgorithm));
+                                pb.directory(new File("."));
+                                pb.redirectErrorStream(true);
+                                Process process = pb.start();
+
+                                BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                                String line;
+                                ArrayList<String> lines = new ArrayList<>();
+                                while ((line = br.readLine()) != null) {
+                                    lines.add(line);
                                 }
-                                if (i == probRecordList.size() - 2) { // insert prec2
-                                    inferRecord = lines.get(2);
-                                    statement2.setString(1, plate);
-                                    statement2.setString(2, inferRecord);
-                                    statement2.setTimestamp(3, prec2.getsTime());
-                                    statement2.setTimestamp(4, prec2.geteTime());
-                                    statement2.executeUpdate();
+                                br.close();
+
+                                if (lines.size() == 2) { // only prec1 and prec2
+                                    // insert prec1
+                                    String inferRecord = lines.get(0);
+                                    loader.add(plate, inferRecord, ProbabilityVector.encode(inferRecord, dictionary),
+                                            prec1.getsTime(), prec1.geteTime());
+                                    if (i == probRecordList.size() - 2) { // insert prec2
+                                        inferRecord = lines.get(1);
+                                        loader.add(plate, inferRecord, ProbabilityVector.encode(inferRecord, dictionary),
+                                                prec2.getsTime(), prec2.geteTime());
+                                    }
+                                } else { // prec1, prec2, and the filler
+                                    // insert prec1
+                                    String inferRecord = lines.get(0);
+                                    loader.add(plate, inferRecord, ProbabilityVector.encode(inferRecord, dictionary),
+                                            prec1.getsTime(), prec1.geteTime());
+                                    // insert the gap filler record
+                                    long sTimeUnix = prec1.geteTimeUnix() + interval;
+                                    long eTimeUnix = prec2.getsTimeUnix() - 1;
+                                    if (sTimeUnix < eTimeUnix) {
+                                        inferRecord = lines.get(1);
+                                        loader.add(plate, inferRecord, ProbabilityVector.encode(inferRecord, dictionary),
+                                                Timestamp.valueOf(convertUnixTime(conn, sTimeUnix)),
+                                                Timestamp.valueOf(convertUnixTime(conn, eTimeUnix)));
+                                    }
+                                    if (i == probRecordList.size() - 2) { // insert prec2
+                                        inferRecord = lines.get(2);
+                                        loader.add(plate, inferRecord, ProbabilityVector.encode(inferRecord, dictionary),
+                                                prec2.getsTime(), prec2.geteTime());
+                                    }
                                 }
+                                lines.clear();
                             }
-                            lines.clear();
+                            loader.flush();
+                            checkpointStore.save(DATABASE_STAGE, plate);
+                            conn.commit();
+                        } else {
+                            break;
                         }
-                    } else {
-                        break;
                     }
+                } catch (Exception e) {
+                    loader.clear();
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(autoCommit);
+                }
+                loader.close();
+                if (resultSet != null) { // no plate is left after the checkpoint
+                    resultSet.close();
                 }
-                resultSet.close();
                 statement1.close();
-                statement2.close();
                 switchButtonState(startInferenceButton, endInferenceButton);
                 appendLogText("The inference ended.");
                 appendLogText("The information gaps between the readings of " + counter + " objects were inferred.");
@@ -573,7 +607,7 @@ private void okButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRS
 }//GEN-LAST:event_okButtonActionPerformed
 
 private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_testButtonActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -590,7 +624,7 @@ private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
 }//GEN-LAST:event_testButtonActionPerformed
 
 private void okButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_okButton1ActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -666,16 +700,8 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     }
 }//GEN-LAST:event_driversComboBoxActionPerformed
 
-    public void appendLogText(final String text) {
-        SwingUtilities.invokeLater(new Runnable() {
-
-            public void run() {
-                if (!text.equals("")) {
-                    activityLogTextArea.append(dateFormat.format(new Date()) + " -> " + text + "\n");
-                    activityLogTextArea.setCaretPosition(activityLogTextArea.getText().length());
-                }
-            }
-        });
+    public void appendLogText(String text) {
+        activityLog.append(text);
     }
 
     public StreamSource getStreamSource() {
@@ -686,48 +712,38 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         return conn;
     }
 
+    /** This method returns the pool that the connection of the frame came
+     * from, for work that runs alongside the frame's own queries. */
+    public ConnectionPool getConnectionPool() {
+        return DatabaseConnectionFactory.getConnectionPool(DATABASE_STAGE);
+    }
+
     private void createInferTable() {
         try {
-            DatabaseMetaData meta = conn.getMetaData();
-            ResultSet resultSet = null;
-            String driver = driversComboBox.getSelectedItem().toString();
-            if (driver.equals("Oracle Thin Driver")) {
-                resultSet = meta.getTables(null, "BAGGAGEQUALITY", null, new String[]{"TABLE"});
-            } else {
-                resultSet = meta.getTables(null, null, null, new String[]{"TABLE"});
+            Cloner cloner = new Cloner();
+            HashMap<String, String> streamEncodingMap = cloner.deepClone(streamSource.getStreamEncodingMap());
+            String objIDAttributeName = streamSource.getObjIDAttributeName();
+            String objIDAttributeType = streamEncodingMap.get(objIDAttributeName);
+            String readerIDAttributeName = streamSource.getReaderIDAttributeName();
+            String timeAttributeName = streamSource.getTimeAttributeName();
+            streamEncodingMap.remove(objIDAttributeName); // we don't need them anymore in the map
+            streamEncodingMap.remove(readerIDAttributeName);
+            streamEncodingMap.remove(timeAttributeName);
+            LinkedHashMap<String, String> columns = new LinkedHashMap<>();
+            columns.put(objIDAttributeName, objIDAttributeType);
+            columns.put("INFER_LOC", "VARCHAR2(300 BYTE)");
+            columns.put("INFER_VEC", "RAW(300)"); // the probabilities of INFER_LOC as a ProbabilityVector
+            columns.putAll(streamEncodingMap);
+            SchemaManager schemaManager = new SchemaManager(conn);
+            SchemaManager.Partitioning partitioning = SchemaManager.Partitioning.values()[partitionsComboBox.getSelectedIndex()];
+            if (partitioning != SchemaManager.Partitioning.NONE) { // partition by the time range of the stream
+                Timestamp[] timeRange = schemaManager.getTimeRange(streamSource.getStreamName(), timeAttributeName);
+                schemaManager.setPartitioning(partitioning, timeRange[0], timeRange[1]);
             }
-            boolean exist = false;
-            while (resultSet.next()) {
-                if (resultSet.getString(3).equalsIgnoreCase("INFER_TABLE")) {
-                    exist = true;
-                    break;
-                }
-            }
-            resultSet.close();
-
-            if (!exist) {
-                Cloner cloner = new Cloner();
-                HashMap<String, String> streamEncodingMap = cloner.deepClone(streamSource.getStreamEncodingMap());
-                String objIDAttributeName = streamSource.getObjIDAttributeName();
-                String objIDAttributeType = streamEncodingMap.get(objIDAttributeName);
-                String readerIDAttributeName = streamSource.getReaderIDAttributeName();
-                String readerIDAttributeType = streamEncodingMap.get(readerIDAttributeName);
-                String timeAttributeName = streamSource.getTimeAttributeName();
-                streamEncodingMap.remove(objIDAttributeName); // we don't need them anymore in the map
-                streamEncodingMap.remove(readerIDAttributeName);
-                streamEncodingMap.remove(timeAttributeName);
-                StringBuilder sb = new StringBuilder("CREATE TABLE INFER_TABLE (\n");
-                sb.append(objIDAttributeName).append(" ").append(objIDAttributeType).append(",\n");
-                sb.append("INFER_LOC VARCHAR2(300 BYTE),\n");
-                for (String attributeName : streamEncodingMap.keySet()) {
-                    sb.append(attributeName).append(" ").append(streamEncodingMap.get(attributeName)).append(",\n");
-                }
-                sb.append("S_TIME TIMESTAMP (6),\n");
-                sb.append("E_TIME TIMESTAMP (6))");
-                String query = sb.toString();
-                Statement statement = conn.createStatement();
-                statement.execute(query);
-                statement.close();
+            if (schemaManager.createResultTable("INFER_TABLE", objIDAttributeName, columns)) {
+                CheckpointStore checkpointStore = new CheckpointStore(conn);
+                checkpointStore.createTable();
+                checkpointStore.clear(DATABASE_STAGE); // the records of the last run are gone
                 appendLogText("The table INFER_TABLE is created.");
             } else {
                 appendLogText("The table INFER_TABLE already exists.");
@@ -739,11 +755,18 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         }
     }
 
-    private String[] getLicensePlates() {
+    /* Returns the license plates after the given one, or all of them if it
+     * is null, in order. */
+    private String[] getLicensePlates(String afterPlate) {
         try {
-            String query = "SELECT DISTINCT LICENSE_PLATE FROM PROB_TABLE ORDER BY LICENSE_PLATE";
-            Statement statement = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            ResultSet resultSet = statement.executeQuery(query);
+            String query = "SELECT DISTINCT LICENSE_PLATE FROM PROB_TABLE"
+                    + (afterPlate == null ? "" : " WHERE LICENSE_PLATE > ?") + " ORDER BY LICENSE_PLATE";
+            PreparedStatement statement = conn.prepareStatement(query, ResultSet.TYPE_SCROLL_INSENSITIVE,
+                    ResultSet.CONCUR_READ_ONLY);
+            if (afterPlate != null) {
+                statement.setString(1, afterPlate);
+            }
+            ResultSet resultSet = statement.executeQuery();
             resultSet.last();
             int count = resultSet.getRow();
             resultSet.beforeFirst();
@@ -793,8 +816,9 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         });
     }
     private UniModelingGUI unModeingGUI = null;
+    private static final String DATABASE_STAGE = "Inference";
     private static Connection conn = null;
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+    private ActivityLog activityLog = new ActivityLog();
     private ServerSocket serverSocket;
     private ConcurrentHashMap<Socket, ObjectOutputStream> clientOutputStreams = new ConcurrentHashMap<>();
     private StreamSource streamSource = new StreamSource();
@@ -823,6 +847,8 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     private javax.swing.JSpinner intervalSpinner;
     private javax.swing.JButton okButton;
     private javax.swing.JButton okButton1;
+    private javax.swing.JComboBox partitionsComboBox;
+    private javax.swing.JLabel partitionsLabel;
     private javax.swing.JLabel passwordLabel;
     private javax.swing.JPasswordField passwordTextField;
     private javax.swing.JButton registerStreamButton;
@@ -1,20 +1,25 @@
 package info.sarihh.unimodeling.gui;
 
 import com.rits.cloning.Cloner;
-import info.sarihh.unimodeling.streamapi.OfflineCondenserTask;
+import info.sarihh.unimodeling.streamapi.ParallelOfflineCondenser;
+import info.sarihh.unimodeling.streamapi.Reading;
+import info.sarihh.unimodeling.streamapi.SqlCondenserTask;
 import info.sarihh.unimodeling.streamapi.StreamSource;
+import info.sarihh.unimodeling.utility.ActivityLog;
+import info.sarihh.unimodeling.utility.CheckpointStore;
+import info.sarihh.unimodeling.utility.ConnectionPool;
 import info.sarihh.unimodeling.utility.DatabaseConnectionFactory;
+import info.sarihh.unimodeling.utility.SchemaManager;
+import java.io.File;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.sql.Timestamp;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
@@ -34,6 +39,7 @@ public class OfflineCondenserFrame extends javax.swing.JInternalFrame {
     public OfflineCondenserFrame(UniModelingGUI uniModelingGUI) {
         this.unModeingGUI = uniModelingGUI;
         initComponents();
+        activityLog.install(activityLogScrollPane);
         driversComboBox.setSelectedIndex(1);
         registerStreamDialog.pack();
         connectDatabaseDialog.pack();
@@ -65,6 +71,8 @@ public class OfflineCondenserFrame extends javax.swing.JInternalFrame {
         userNameTextField = new javax.swing.JTextField();
         passwordLabel = new javax.swing.JLabel();
         passwordTextField = new javax.swing.JPasswordField();
+        partitionsLabel = new javax.swing.JLabel();
+        partitionsComboBox = new javax.swing.JComboBox();
         buttonPanel2 = new javax.swing.JPanel();
         testButton = new javax.swing.JButton();
         buttonFiller5 = new javax.swing.Box.Filler(new java.awt.Dimension(50, 0), new java.awt.Dimension(50, 0), new java.awt.Dimension(50, 32767));
@@ -78,6 +86,24 @@ public class OfflineCondenserFrame extends javax.swing.JInternalFrame {
                 return portNumberFormatter;
             }
         });
+        allowedLatenessLabel = new javax.swing.JLabel();
+        allowedLatenessTextField = new javax.swing.JFormattedTextField(new DefaultFormatter() {
+            private DocumentFilter allowedLatenessFormatter = new info.sarihh.unimodeling.utility.NumberFieldFormatter(3);
+            protected DocumentFilter getDocumentFilter() {
+                return allowedLatenessFormatter;
+            }
+        });
+        memoryBudgetLabel = new javax.swing.JLabel();
+        memoryBudgetTextField = new javax.swing.JFormattedTextField(new DefaultFormatter() {
+            private DocumentFilter portNumberFormatter = new info.sarihh.unimodeling.utility.NumberFieldFormatter(6);
+            protected DocumentFilter getDocumentFilter() {
+                return portNumberFormatter;
+            }
+        });
+        condenseInLabel = new javax.swing.JLabel();
+        condenseInComboBox = new javax.swing.JComboBox();
+        readingFileLabel = new javax.swing.JLabel();
+        readingFileTextField = new javax.swing.JTextField();
         activityLogScrollPane = new javax.swing.JScrollPane();
         activityLogTextArea = new javax.swing.JTextArea();
         buttonPanel = new javax.swing.JPanel();
@@ -237,6 +263,25 @@ public class OfflineCondenserFrame extends javax.swing.JInternalFrame {
         gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
         connectDatabaseDialog.getContentPane().add(passwordTextField, gridBagConstraints);
 
+        partitionsLabel.setText(bundle.getString("OfflineCondenserFrame.partitionsLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        connectDatabaseDialog.getContentPane().add(partitionsLabel, gridBagConstraints);
+
+        partitionsComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "None", "Daily", "Monthly" }));
+        partitionsComboBox.setPreferredSize(new java.awt.Dimension(360, 22));
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.gridwidth = 2;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        connectDatabaseDialog.getContentPane().add(partitionsComboBox, gridBagConstraints);
+
         testButton.setText(bundle.getString("OfflineCondenserFrame.testButton.text")); // NOI18N
         testButton.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -289,6 +334,80 @@ public class OfflineCondenserFrame extends javax.swing.JInternalFrame {
         gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
         containerPanel.add(hashSizeTextField, gridBagConstraints);
 
+        allowedLatenessLabel.setText(bundle.getString("OfflineCondenserFrame.allowedLatenessLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 1;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(allowedLatenessLabel, gridBagConstraints);
+
+        allowedLatenessTextField.setText("0"); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 1;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(allowedLatenessTextField, gridBagConstraints);
+
+        memoryBudgetLabel.setText(bundle.getString("OfflineCondenserFrame.memoryBudgetLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 2;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(memoryBudgetLabel, gridBagConstraints);
+
+        memoryBudgetTextField.setText("0"); // NOI18N
+        memoryBudgetTextField.setToolTipText(bundle.getString("OfflineCondenserFrame.memoryBudgetTextField.toolTipText")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 2;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(memoryBudgetTextField, gridBagConstraints);
+
+        condenseInLabel.setText(bundle.getString("OfflineCondenserFrame.condenseInLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 3;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(condenseInLabel, gridBagConstraints);
+
+        condenseInComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "The Java Virtual Machine", "The DBMS" }));
+        condenseInComboBox.setToolTipText(bundle.getString("OfflineCondenserFrame.condenseInComboBox.toolTipText")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 3;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(condenseInComboBox, gridBagConstraints);
+
+        readingFileLabel.setText(bundle.getString("OfflineCondenserFrame.readingFileLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(readingFileLabel, gridBagConstraints);
+
+        readingFileTextField.setToolTipText(bundle.getString("OfflineCondenserFrame.readingFileTextField.toolTipText")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(readingFileTextField, gridBagConstraints);
+
         activityLogScrollPane.setBorder(javax.swing.BorderFactory.createTitledBorder(bundle.getString("OfflineCondenserFrame.activityLogScrollPane.border.title"))); // NOI18N
         activityLogScrollPane.setVerticalScrollBarPolicy(javax.swing.ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
 
@@ -301,7 +420,7 @@ public class OfflineCondenserFrame extends javax.swing.JInternalFrame {
 
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 1;
+        gridBagConstraints.gridy = 5;
         gridBagConstraints.gridwidth = 4;
         gridBagConstraints.fill = java.awt.GridBagConstraints.BOTH;
         gridBagConstraints.weightx = 1.0;
@@ -359,7 +478,7 @@ public class OfflineCondenserFrame extends javax.swing.JInternalFrame {
 
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 2;
+        gridBagConstraints.gridy = 6;
         gridBagConstraints.gridwidth = 4;
         gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
         gridBagConstraints.weightx = 1.0;
@@ -374,52 +493,80 @@ public class OfflineCondenserFrame extends javax.swing.JInternalFrame {
     }// </editor-fold>//GEN-END:initComponents
 
 private void clearLogButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_clearLogButtonActionPerformed
-    activityLogTextArea.setText("");
+    activityLog.clear();
 }//GEN-LAST:event_clearLogButtonActionPerformed
 
 private void endCondensingButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_endCondensingButtonActionPerformed
     dbReadingFlag = false;
+    if (sqlCondenserTask != null) {
+        try {
+            sqlCondenserTask.cancel();
+        } catch (SQLException e) {
+            for (Throwable t : e) {
+                t.printStackTrace();
+            }
+        }
+    }
 }//GEN-LAST:event_endCondensingButtonActionPerformed
 
 private void startCondensingButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_startCondensingButtonActionPerformed
-    final ConcurrentHashMap<String, HashMap<String, String>> memoryMap = new ConcurrentHashMap<>();
-    final OfflineCondenserTask condenserTask = new OfflineCondenserTask(this, memoryMap, Integer.parseInt(hashSizeTextField.getText()));
+    if (condenseInComboBox.getSelectedIndex() == 1) {
+        condenseInDatabase();
+        return;
+    }
+    final boolean checkpointed = readingFileTextField.getText().trim().isEmpty();
+    if (checkpointed && !resumeStreamSource()) {
+        return;
+    }
+    if (!startStreamSource()) {
+        return;
+    }
+    String allowedLateness = allowedLatenessTextField.getText().trim();
+    String memoryBudget = memoryBudgetTextField.getText().trim();
+    final ParallelOfflineCondenser condenser;
+    try {
+        condenser = new ParallelOfflineCondenser(this,
+                Runtime.getRuntime().availableProcessors(), Integer.parseInt(hashSizeTextField.getText()),
+                allowedLateness.isEmpty() ? 0 : 1000L * Integer.parseInt(allowedLateness),
+                memoryBudget.isEmpty() ? 0 : 1024L * 1024L * Integer.parseInt(memoryBudget));
+    } catch (SQLException e) {
+        appendLogText(e.toString());
+        streamSource.end();
+        return;
+    }
+    if (checkpointed) {
+        condenser.setCheckpointStage(DATABASE_STAGE);
+    }
     dbReadingFlag = true;
-    streamSource.start(conn);
     Thread dbReaderThread = new Thread() {
 
         @Override
         public void run() {
             try {
-                HashMap<String, String> reading = new HashMap<>();
+                Reading reading = condenser.newReading();
                 switchButtonState(endCondensingButton, startCondensingButton);
                 int counter = 0;
-                while (streamSource.getNext(reading)) {
-                    if (dbReadingFlag) {
-                        counter++;
-                        String objID = reading.get(streamSource.getObjIDAttributeName());
-                        String readerID = reading.get(streamSource.getReaderIDAttributeName());
-                        String searchKey = objID + "," + readerID;
-                        if (memoryMap.containsKey(searchKey + ",START")) { // if the appearance record has started
-                            memoryMap.put(objID + "," + readerID + ",END", reading); // end it
-                        } else if (memoryMap.containsKey(searchKey + ",END")) { // if it has endedn
-                            memoryMap.put(objID + "," + readerID + ",END", reading); // end it again
-                        } else { // if it neither started not ended, then start it
-                            memoryMap.put(objID + "," + readerID + ",START", reading);
-                        }
-                        condenserTask.setSearchKey(searchKey);
-                        condenserTask.condense();
-                        reading = new HashMap<>();
-                    } else {
-                        break;
+                while (dbReadingFlag && streamSource.getNext(reading)) {
+                    counter++;
+                    condenser.add(reading);
+                    if (checkpointed && counter % CHECKPOINT_INTERVAL == 0) {
+                        condenser.checkpoint(streamSource.getCheckpoint());
                     }
                 }
+                if (checkpointed && counter > 0) {
+                    condenser.checkpoint(streamSource.getCheckpoint());
+                }
+                condenser.flush();
                 streamSource.end();
                 switchButtonState(startCondensingButton, endCondensingButton);
                 appendLogText("The condensing ended.");
                 appendLogText(counter + " readings were condensed.");
+                if (condenser.getLateReadings() > 0) {
+                    appendLogText(condenser.getLateReadings() + " readings came later than the allowed lateness.");
+                }
             } catch (Exception e) {
                 e.printStackTrace();
+                appendLogText("The condensing failed: " + e + ".");
                 streamSource.end();
                 switchButtonState(startCondensingButton, endCondensingButton);
             }
@@ -456,7 +603,7 @@ private void okButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRS
 }//GEN-LAST:event_okButtonActionPerformed
 
 private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_testButtonActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -473,7 +620,7 @@ private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
 }//GEN-LAST:event_testButtonActionPerformed
 
 private void okButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_okButton1ActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -512,16 +659,72 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     }
 }//GEN-LAST:event_driversComboBoxActionPerformed
 
-    public void appendLogText(final String text) {
-        SwingUtilities.invokeLater(new Runnable() {
+    private void condenseInDatabase() {
+        final SqlCondenserTask condenserTask = new SqlCondenserTask(this);
+        sqlCondenserTask = condenserTask;
+        Thread dbCondenserThread = new Thread() {
 
+            @Override
             public void run() {
-                if (!text.equals("")) {
-                    activityLogTextArea.append(dateFormat.format(new Date()) + " -> " + text + "\n");
-                    activityLogTextArea.setCaretPosition(activityLogTextArea.getText().length());
+                switchButtonState(endCondensingButton, startCondensingButton);
+                try {
+                    long start = System.currentTimeMillis();
+                    int appearances = condenserTask.condense();
+                    appendLogText("The condensing ended.");
+                    appendLogText(appearances + " appearances were condensed in "
+                            + (System.currentTimeMillis() - start) + " ms.");
+                } catch (SQLException e) {
+                    for (Throwable t : e) {
+                        t.printStackTrace();
+                    }
+                    appendLogText(e.toString());
                 }
+                sqlCondenserTask = null;
+                switchButtonState(startCondensingButton, endCondensingButton);
             }
-        });
+        };
+        dbCondenserThread.start();
+    }
+
+    /* Makes the stream continue after the position in the checkpoint of the
+     * stage, if the last run left one; returns false if it cannot be read. */
+    private boolean resumeStreamSource() {
+        try {
+            CheckpointStore checkpointStore = new CheckpointStore(conn);
+            checkpointStore.createTable();
+            String checkpoint = checkpointStore.load(DATABASE_STAGE);
+            streamSource.resumeAfter(checkpoint);
+            if (checkpoint != null) {
+                appendLogText("Resuming after the reading at " + checkpoint.replace('\t', ' ') + ".");
+            }
+            return true;
+        } catch (SQLException e) {
+            appendLogText(e.toString());
+            return false;
+        }
+    }
+
+    /* Starts the stream from the reading file if one is given, otherwise
+     * from the database; returns false if the file cannot be read. */
+    private boolean startStreamSource() {
+        String readingFile = readingFileTextField.getText().trim();
+        if (readingFile.isEmpty()) {
+            streamSource.setPageSize(PAGE_SIZE); // bounded memory on an auto-commit connection
+            streamSource.start(conn);
+            return true;
+        }
+        try {
+            streamSource.start(new File(readingFile));
+            appendLogText("Reading the stream from " + readingFile + ".");
+            return true;
+        } catch (IOException e) {
+            appendLogText(e.toString());
+            return false;
+        }
+    }
+
+    public void appendLogText(String text) {
+        activityLog.append(text);
     }
 
     public StreamSource getStreamSource() {
@@ -532,48 +735,38 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         return conn;
     }
 
+    /** This method returns the pool that the connection of the frame came
+     * from, for work that runs alongside the frame's own queries. */
+    public ConnectionPool getConnectionPool() {
+        return DatabaseConnectionFactory.getConnectionPool(DATABASE_STAGE);
+    }
+
     private void createAppearTable() {
         try {
-            DatabaseMetaData meta = conn.getMetaData();
-            ResultSet resultSet = null;
-            String driver = driversComboBox.getSelectedItem().toString();
-            if (driver.equals("Oracle Thin Driver")) {
-                resultSet = meta.getTables(null, "BAGGAGEQUALITY", null, new String[]{"TABLE"});
-            } else {
-                resultSet = meta.getTables(null, null, null, new String[]{"TABLE"});
+            Cloner cloner = new Cloner();
+            HashMap<String, String> streamEncodingMap = cloner.deepClone(streamSource.getStreamEncodingMap());
+            String objIDAttributeName = streamSource.getObjIDAttributeName();
+            String objIDAttributeType = streamEncodingMap.get(objIDAttributeName);
+            String readerIDAttributeName = streamSource.getReaderIDAttributeName();
+            String readerIDAttributeType = streamEncodingMap.get(readerIDAttributeName);
+            String timeAttributeName = streamSource.getTimeAttributeName();
+            streamEncodingMap.remove(objIDAttributeName); // we don't need them anymore in the map
+            streamEncodingMap.remove(readerIDAttributeName);
+            streamEncodingMap.remove(timeAttributeName);
+            LinkedHashMap<String, String> columns = new LinkedHashMap<>();
+            columns.put(objIDAttributeName, objIDAttributeType);
+            columns.put(readerIDAttributeName, readerIDAttributeType);
+            columns.putAll(streamEncodingMap);
+            SchemaManager schemaManager = new SchemaManager(conn);
+            SchemaManager.Partitioning partitioning = SchemaManager.Partitioning.values()[partitionsComboBox.getSelectedIndex()];
+            if (partitioning != SchemaManager.Partitioning.NONE) { // partition by the time range of the stream
+                Timestamp[] timeRange = schemaManager.getTimeRange(streamSource.getStreamName(), timeAttributeName);
+                schemaManager.setPartitioning(partitioning, timeRange[0], timeRange[1]);
             }
-            boolean exist = false;
-            while (resultSet.next()) {
-                if (resultSet.getString(3).equalsIgnoreCase("APPEAR_TABLE")) {
-                    exist = true;
-                    break;
-                }
-            }
-            resultSet.close();
-
-            if (!exist) {
-                Cloner cloner = new Cloner();
-                HashMap<String, String> streamEncodingMap = cloner.deepClone(streamSource.getStreamEncodingMap());
-                String objIDAttributeName = streamSource.getObjIDAttributeName();
-                String objIDAttributeType = streamEncodingMap.get(objIDAttributeName);
-                String readerIDAttributeName = streamSource.getReaderIDAttributeName();
-                String readerIDAttributeType = streamEncodingMap.get(readerIDAttributeName);
-                String timeAttributeName = streamSource.getTimeAttributeName();
-                streamEncodingMap.remove(objIDAttributeName); // we don't need them anymore in the map
-                streamEncodingMap.remove(readerIDAttributeName);
-                streamEncodingMap.remove(timeAttributeName);
-                StringBuilder sb = new StringBuilder("CREATE TABLE APPEAR_TABLE (\n");
-                sb.append(objIDAttributeName).append(" ").append(objIDAttributeType).append(",\n");
-                sb.append(readerIDAttributeName).append(" ").append(readerIDAttributeType).append(",\n");
-                for (String attributeName : streamEncodingMap.keySet()) {
-                    sb.append(attributeName).append(" ").append(streamEncodingMap.get(attributeName)).append(",\n");
-                }
-                sb.append("S_TIME TIMESTAMP (6),\n");
-                sb.append("E_TIME TIMESTAMP (6))");
-                String query = sb.toString();
-                Statement statement = conn.createStatement();
-                statement.execute(query);
-                statement.close();
+            if (schemaManager.createResultTable("APPEAR_TABLE", objIDAttributeName, columns)) {
+                CheckpointStore checkpointStore = new CheckpointStore(conn);
+                checkpointStore.createTable();
+                checkpointStore.clear(DATABASE_STAGE); // the appearances of the last run are gone
                 appendLogText("The table APPEAR_TABLE is created.");
             } else {
                 appendLogText("The table APPEAR_TABLE already exists.");
@@ -595,20 +788,28 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         });
     }
     private UniModelingGUI unModeingGUI = null;
+    private static final String DATABASE_STAGE = "Offline Condensing";
+    private static final int CHECKPOINT_INTERVAL = 1000000; // readings
+    private static final int PAGE_SIZE = 10000; // readings per query
     private static Connection conn = null;
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+    private ActivityLog activityLog = new ActivityLog();
     private ServerSocket serverSocket;
     private ConcurrentHashMap<Socket, ObjectOutputStream> clientOutputStreams = new ConcurrentHashMap<>();
     private StreamSource streamSource = new StreamSource();
     private boolean dbReadingFlag = true;
+    private volatile SqlCondenserTask sqlCondenserTask = null;
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JScrollPane activityLogScrollPane;
     private static javax.swing.JTextArea activityLogTextArea;
+    private javax.swing.JLabel allowedLatenessLabel;
+    private javax.swing.JFormattedTextField allowedLatenessTextField;
     private javax.swing.Box.Filler buttonFiller5;
     private javax.swing.JPanel buttonPanel;
     private javax.swing.JPanel buttonPanel1;
     private javax.swing.JPanel buttonPanel2;
     private javax.swing.JButton clearLogButton;
+    private javax.swing.JComboBox condenseInComboBox;
+    private javax.swing.JLabel condenseInLabel;
     private javax.swing.JButton connectDatabaseButton;
     private javax.swing.JDialog connectDatabaseDialog;
     private javax.swing.JPanel containerPanel;
@@ -621,10 +822,16 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     private javax.swing.JFormattedTextField hashSizeTextField;
     private javax.swing.JScrollPane infoScrollPane;
     private static javax.swing.JTextArea infoTextArea;
+    private javax.swing.JLabel memoryBudgetLabel;
+    private javax.swing.JFormattedTextField memoryBudgetTextField;
     private javax.swing.JButton okButton;
     private javax.swing.JButton okButton1;
+    private javax.swing.JComboBox partitionsComboBox;
+    private javax.swing.JLabel partitionsLabel;
     private javax.swing.JLabel passwordLabel;
     private javax.swing.JPasswordField passwordTextField;
+    private javax.swing.JLabel readingFileLabel;
+    private javax.swing.JTextField readingFileTextField;
     private javax.swing.JButton registerStreamButton;
     private javax.swing.JDialog registerStreamDialog;
     private javax.swing.JButton startCondensingButton;
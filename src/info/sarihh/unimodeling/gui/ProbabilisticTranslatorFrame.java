@@ -1,24 +1,33 @@
 package info.sarihh.unimodeling.gui;
 
 import com.rits.cloning.Cloner;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import info.sarihh.unimodeling.streamapi.IncrementalTranslator;
+import info.sarihh.unimodeling.streamapi.ParallelTranslator;
+import info.sarihh.unimodeling.streamapi.SqlTranslatorTask;
 import info.sarihh.unimodeling.streamapi.StreamSource;
+import info.sarihh.unimodeling.utility.ActivityLog;
+import info.sarihh.unimodeling.utility.CheckpointStore;
+import info.sarihh.unimodeling.utility.ConnectionPool;
 import info.sarihh.unimodeling.utility.DatabaseConnectionFactory;
+import info.sarihh.unimodeling.utility.GraphModeling;
+import info.sarihh.unimodeling.utility.LocationDictionary;
+import info.sarihh.unimodeling.utility.ProbabilisticLocationMap;
+import info.sarihh.unimodeling.utility.SchemaManager;
 import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.sql.Timestamp;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
+import javax.swing.text.DefaultFormatter;
+import javax.swing.text.DocumentFilter;
 
 /**
  * This class creates the internal frame for the RFID server.
@@ -32,6 +41,7 @@ public class ProbabilisticTranslatorFrame extends javax.swing.JInternalFrame {
     public ProbabilisticTranslatorFrame(UniModelingGUI uniModelingGUI) {
         this.unModeingGUI = uniModelingGUI;
         initComponents();
+        activityLog.install(activityLogScrollPane);
         driversComboBox.setSelectedIndex(1);
         registerStreamDialog.pack();
         connectDatabaseDialog.pack();
@@ -63,12 +73,30 @@ public class ProbabilisticTranslatorFrame extends javax.swing.JInternalFrame {
         userNameTextField = new javax.swing.JTextField();
         passwordLabel = new javax.swing.JLabel();
         passwordTextField = new javax.swing.JPasswordField();
+        partitionsLabel = new javax.swing.JLabel();
+        partitionsComboBox = new javax.swing.JComboBox();
         buttonPanel2 = new javax.swing.JPanel();
         testButton = new javax.swing.JButton();
         buttonFiller5 = new javax.swing.Box.Filler(new java.awt.Dimension(50, 0), new java.awt.Dimension(50, 0), new java.awt.Dimension(50, 32767));
         okButton1 = new javax.swing.JButton();
         containerScrollPane = new javax.swing.JScrollPane();
         containerPanel = new javax.swing.JPanel();
+        translateInLabel = new javax.swing.JLabel();
+        translateInComboBox = new javax.swing.JComboBox();
+        refreshIntervalLabel = new javax.swing.JLabel();
+        refreshIntervalTextField = new javax.swing.JFormattedTextField(new DefaultFormatter() {
+            private DocumentFilter refreshIntervalFormatter = new info.sarihh.unimodeling.utility.NumberFieldFormatter(5);
+            protected DocumentFilter getDocumentFilter() {
+                return refreshIntervalFormatter;
+            }
+        });
+        settleTimeLabel = new javax.swing.JLabel();
+        settleTimeTextField = new javax.swing.JFormattedTextField(new DefaultFormatter() {
+            private DocumentFilter settleTimeFormatter = new info.sarihh.unimodeling.utility.NumberFieldFormatter(5);
+            protected DocumentFilter getDocumentFilter() {
+                return settleTimeFormatter;
+            }
+        });
         activityLogScrollPane = new javax.swing.JScrollPane();
         activityLogTextArea = new javax.swing.JTextArea();
         buttonPanel = new javax.swing.JPanel();
@@ -228,6 +256,25 @@ public class ProbabilisticTranslatorFrame extends javax.swing.JInternalFrame {
         gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
         connectDatabaseDialog.getContentPane().add(passwordTextField, gridBagConstraints);
 
+        partitionsLabel.setText(bundle.getString("ProbabilisticTranslatorFrame.partitionsLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        connectDatabaseDialog.getContentPane().add(partitionsLabel, gridBagConstraints);
+
+        partitionsComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "None", "Daily", "Monthly" }));
+        partitionsComboBox.setPreferredSize(new java.awt.Dimension(360, 22));
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.gridwidth = 2;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        connectDatabaseDialog.getContentPane().add(partitionsComboBox, gridBagConstraints);
+
         testButton.setText(bundle.getString("ProbabilisticTranslatorFrame.testButton.text")); // NOI18N
         testButton.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -262,6 +309,63 @@ public class ProbabilisticTranslatorFrame extends javax.swing.JInternalFrame {
 
         containerPanel.setLayout(new java.awt.GridBagLayout());
 
+        translateInLabel.setText(bundle.getString("ProbabilisticTranslatorFrame.translateInLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 0;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(translateInLabel, gridBagConstraints);
+
+        translateInComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "The Java Virtual Machine", "The DBMS" }));
+        translateInComboBox.setToolTipText(bundle.getString("ProbabilisticTranslatorFrame.translateInComboBox.toolTipText")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 0;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(translateInComboBox, gridBagConstraints);
+
+        refreshIntervalLabel.setText(bundle.getString("ProbabilisticTranslatorFrame.refreshIntervalLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 1;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(refreshIntervalLabel, gridBagConstraints);
+
+        refreshIntervalTextField.setText("0"); // NOI18N
+        refreshIntervalTextField.setToolTipText(bundle.getString("ProbabilisticTranslatorFrame.refreshIntervalTextField.toolTipText")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 1;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(refreshIntervalTextField, gridBagConstraints);
+
+        settleTimeLabel.setText(bundle.getString("ProbabilisticTranslatorFrame.settleTimeLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 2;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(settleTimeLabel, gridBagConstraints);
+
+        settleTimeTextField.setText("30"); // NOI18N
+        settleTimeTextField.setToolTipText(bundle.getString("ProbabilisticTranslatorFrame.settleTimeTextField.toolTipText")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 2;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(settleTimeTextField, gridBagConstraints);
+
         activityLogScrollPane.setBorder(javax.swing.BorderFactory.createTitledBorder(bundle.getString("ProbabilisticTranslatorFrame.activityLogScrollPane.border.title"))); // NOI18N
         activityLogScrollPane.setVerticalScrollBarPolicy(javax.swing.ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
 
@@ -274,7 +378,7 @@ public class ProbabilisticTranslatorFrame extends javax.swing.JInternalFrame {
 
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 0;
+        gridBagConstraints.gridy = 3;
         gridBagConstraints.gridwidth = 4;
         gridBagConstraints.fill = java.awt.GridBagConstraints.BOTH;
         gridBagConstraints.weightx = 1.0;
@@ -332,7 +436,7 @@ public class ProbabilisticTranslatorFrame extends javax.swing.JInternalFrame {
 
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 1;
+        gridBagConstraints.gridy = 4;
         gridBagConstraints.gridwidth = 4;
         gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
         gridBagConstraints.weightx = 1.0;
@@ -347,62 +451,70 @@ public class ProbabilisticTranslatorFrame extends javax.swing.JInternalFrame {
     }// </editor-fold>//GEN-END:initComponents
 
 private void clearLogButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_clearLogButtonActionPerformed
-    activityLogTextArea.setText("");
+    activityLog.clear();
 }//GEN-LAST:event_clearLogButtonActionPerformed
 
 private void endTranslationButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_endTranslationButtonActionPerformed
-    processingFlag = false;
+    ParallelTranslator translator = this.translator;
+    if (translator != null) {
+        translator.stop();
+    }
+    IncrementalTranslator incrementalTranslator = this.incrementalTranslator;
+    if (incrementalTranslator != null) {
+        incrementalTranslator.stop();
+    }
+    SqlTranslatorTask sqlTranslatorTask = this.sqlTranslatorTask;
+    if (sqlTranslatorTask != null) {
+        try {
+            sqlTranslatorTask.cancel();
+        } catch (SQLException e) {
+            for (Throwable t : e) {
+                t.printStackTrace();
+            }
+        }
+    }
 }//GEN-LAST:event_endTranslationButtonActionPerformed
 
 private void startTranslationButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_startTranslationButtonActionPerformed
-    processingFlag = true;
+    String refreshInterval = refreshIntervalTextField.getText().trim();
+    if (!refreshInterval.isEmpty() && Integer.parseInt(refreshInterval) > 0) {
+        String settleTime = settleTimeTextField.getText().trim();
+        long minSettleTime = getMinSettleTime();
+        if (settleTime.isEmpty() || 1000L * Integer.parseInt(settleTime) < minSettleTime) {
+            appendLogText("The settle time must be at least the idle timeout plus the allowed lateness of the "
+                    + "RFID server, " + (minSettleTime + 999) / 1000 + " seconds.");
+            return;
+        }
+        translateIncrementally(1000L * Integer.parseInt(refreshInterval), 1000L * Integer.parseInt(settleTime));
+        return;
+    }
+    if (translateInComboBox.getSelectedIndex() == 1) {
+        translateInDatabase();
+        return;
+    }
     Thread translatorThread = new Thread() {
 
         @Override
         public void run() {
             try {
                 switchButtonState(endTranslationButton, startTranslationButton);
-                String query1 = "SELECT * FROM APPEAR_TABLE ORDER BY LICENSE_PLATE, S_TIME, E_TIME";
-                Statement statement1 = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-                ResultSet resultSet = statement1.executeQuery(query1);
-                String query2 = "INSERT INTO PROB_TABLE VALUES (?, ?, ?, ?)";
-                PreparedStatement statement2 = conn.prepareStatement(query2);
-                int counter = 0;
-                while (resultSet.next()) {
-                    if (processingFlag) {
-                        ++counter;
-                        if (counter % 1000 == 0) {
-                            appendLogText(counter + " appearance records were translated into probabilistic records.");
-                        }
-                        statement2.setString(1, resultSet.getString("LICENSE_PLATE"));
-                        int locationID = resultSet.getInt("LOCATION_ID");
-                        switch (locationID) {
-                            case 1:
-                                statement2.setString(2, "MC:1");
-                                break;
-                            case 2:
-                                statement2.setString(2, "SMC:0.25,TTS:0.75");
-                                break;
-                            case 62:
-                                statement2.setString(2, "CH:0.25,OC:0.25,CGS:0.5");
-                                break;
-                            case 63:
-                                statement2.setString(2, "CH:0.25,OC:0.25,CGS:0.5");
-                                break;
-                        }
-                        statement2.setTimestamp(3, resultSet.getTimestamp("S_TIME"));
-                        statement2.setTimestamp(4, resultSet.getTimestamp("E_TIME"));
-                        statement2.executeUpdate();
-                    } else {
-                        break;
-                    }
+                ProbabilisticLocationMap locationMap = compileLocationMap();
+                if (locationMap == null) {
+                    switchButtonState(startTranslationButton, endTranslationButton);
+                    return;
                 }
-                resultSet.close();
-                statement1.close();
-                statement2.close();
+                translator = new ParallelTranslator(ProbabilisticTranslatorFrame.this, locationMap, DATABASE_STAGE,
+                        Math.min(Runtime.getRuntime().availableProcessors(), MAX_WORKERS));
+                long counter = translator.translate();
                 switchButtonState(startTranslationButton, endTranslationButton);
                 appendLogText("The probabilistic translation ended.");
                 appendLogText(counter + " appearance records were probabilistically translated.");
+                if (translator.getUnknownReaderRecords() > 0) {
+                    appendLogText(translator.getUnknownReaderRecords()
+                            + " appearance records came from readers that are not in the deployment.");
+                }
+            } catch (InterruptedException e) {
+                switchButtonState(startTranslationButton, endTranslationButton);
             } catch (SQLException e) {
                 for (Throwable t : e) {
                     t.printStackTrace();
@@ -442,7 +554,7 @@ private void okButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRS
 }//GEN-LAST:event_okButtonActionPerformed
 
 private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_testButtonActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -459,7 +571,7 @@ private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
 }//GEN-LAST:event_testButtonActionPerformed
 
 private void okButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_okButton1ActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -498,16 +610,8 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     }
 }//GEN-LAST:event_driversComboBoxActionPerformed
 
-    public void appendLogText(final String text) {
-        SwingUtilities.invokeLater(new Runnable() {
-
-            public void run() {
-                if (!text.equals("")) {
-                    activityLogTextArea.append(dateFormat.format(new Date()) + " -> " + text + "\n");
-                    activityLogTextArea.setCaretPosition(activityLogTextArea.getText().length());
-                }
-            }
-        });
+    public void appendLogText(String text) {
+        activityLog.append(text);
     }
 
     public StreamSource getStreamSource() {
@@ -518,48 +622,145 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         return conn;
     }
 
-    private void createProbTable() {
-        try {
-            DatabaseMetaData meta = conn.getMetaData();
-            ResultSet resultSet = null;
-            String driver = driversComboBox.getSelectedItem().toString();
-            if (driver.equals("Oracle Thin Driver")) {
-                resultSet = meta.getTables(null, "BAGGAGEQUALITY", null, new String[]{"TABLE"});
-            } else {
-                resultSet = meta.getTables(null, null, null, new String[]{"TABLE"});
-            }
-            boolean exist = false;
-            while (resultSet.next()) {
-                if (resultSet.getString(3).equalsIgnoreCase("PROB_TABLE")) {
-                    exist = true;
-                    break;
+    /** This method returns the pool that the connection of the frame came
+     * from, for work that runs alongside the frame's own queries. */
+    public ConnectionPool getConnectionPool() {
+        return DatabaseConnectionFactory.getConnectionPool(DATABASE_STAGE);
+    }
+
+    /* Translates APPEAR_TABLE inside the DBMS on a thread of its own. */
+    private void translateInDatabase() {
+        Thread dbTranslatorThread = new Thread() {
+
+            @Override
+            public void run() {
+                switchButtonState(endTranslationButton, startTranslationButton);
+                ProbabilisticLocationMap locationMap = compileLocationMap();
+                if (locationMap != null) {
+                    SqlTranslatorTask translatorTask = new SqlTranslatorTask(ProbabilisticTranslatorFrame.this,
+                            locationMap, SQL_STAGE);
+                    sqlTranslatorTask = translatorTask;
+                    try {
+                        long start = System.currentTimeMillis();
+                        long counter = translatorTask.translate();
+                        appendLogText("The probabilistic translation ended.");
+                        appendLogText(counter + " appearance records were probabilistically translated in "
+                                + (System.currentTimeMillis() - start) + " ms.");
+                    } catch (SQLException e) {
+                        for (Throwable t : e) {
+                            t.printStackTrace();
+                        }
+                        appendLogText(e.toString());
+                    }
+                    sqlTranslatorTask = null;
                 }
+                switchButtonState(startTranslationButton, endTranslationButton);
             }
-            resultSet.close();
-
-            if (!exist) {
-                Cloner cloner = new Cloner();
-                HashMap<String, String> streamEncodingMap = cloner.deepClone(streamSource.getStreamEncodingMap());
-                String objIDAttributeName = streamSource.getObjIDAttributeName();
-                String objIDAttributeType = streamEncodingMap.get(objIDAttributeName);
-                String readerIDAttributeName = streamSource.getReaderIDAttributeName();
-                String readerIDAttributeType = streamEncodingMap.get(readerIDAttributeName);
-                String timeAttributeName = streamSource.getTimeAttributeName();
-                streamEncodingMap.remove(objIDAttributeName); // we don't need them anymore in the map
-                streamEncodingMap.remove(readerIDAttributeName);
-                streamEncodingMap.remove(timeAttributeName);
-                StringBuilder sb = new StringBuilder("CREATE TABLE PROB_TABLE (\n");
-                sb.append(objIDAttributeName).append(" ").append(objIDAttributeType).append(",\n");
-                sb.append("PROB_LOC VARCHAR2(100 BYTE),\n");
-                for (String attributeName : streamEncodingMap.keySet()) {
-                    sb.append(attributeName).append(" ").append(streamEncodingMap.get(attributeName)).append(",\n");
+        };
+        dbTranslatorThread.start();
+    }
+
+    /* Keeps translating the appearances that are newer than the watermark,
+     * every refreshInterval milliseconds, until the translation is ended. */
+    private void translateIncrementally(final long refreshInterval, final long settleTime) {
+        final boolean inDatabase = translateInComboBox.getSelectedIndex() == 1;
+        Thread incrementalTranslatorThread = new Thread() {
+
+            @Override
+            public void run() {
+                switchButtonState(endTranslationButton, startTranslationButton);
+                ProbabilisticLocationMap locationMap = compileLocationMap();
+                if (locationMap != null) {
+                    IncrementalTranslator translator = new IncrementalTranslator(ProbabilisticTranslatorFrame.this,
+                            locationMap, INCREMENTAL_STAGE, settleTime, inDatabase);
+                    incrementalTranslator = translator;
+                    appendLogText("PROB_TABLE is refreshed every " + refreshInterval / 1000 + " seconds.");
+                    try {
+                        long counter = translator.run(refreshInterval);
+                        appendLogText("The probabilistic translation ended.");
+                        appendLogText(counter + " appearance records were probabilistically translated.");
+                        if (translator.getUnknownReaderRecords() > 0) {
+                            appendLogText(translator.getUnknownReaderRecords()
+                                    + " appearance records came from readers that are not in the deployment.");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (SQLException e) {
+                        for (Throwable t : e) {
+                            t.printStackTrace();
+                        }
+                        appendLogText(e.toString());
+                    }
+                    incrementalTranslator = null;
                 }
-                sb.append("S_TIME TIMESTAMP (6),\n");
-                sb.append("E_TIME TIMESTAMP (6))");
-                String query = sb.toString();
-                Statement statement = conn.createStatement();
-                statement.execute(query);
-                statement.close();
+                switchButtonState(startTranslationButton, endTranslationButton);
+            }
+        };
+        incrementalTranslatorThread.start();
+    }
+
+    /* Returns how long after its end an appearance may still be written by
+     * the RFID server, the idle timeout plus the allowed lateness. */
+    private long getMinSettleTime() {
+        RFIDServerFrame rfidServerFrame = unModeingGUI.getRFIDServerFrame();
+        return rfidServerFrame.getCondensingRepeats() + Math.max(0, rfidServerFrame.getAllowedLateness());
+    }
+
+    /* Compiles the probabilistic location map from the RFID readers
+     * deployment pseudograph of the RFID deployment modeling frame, with its
+     * probability vectors; returns null if it has no reader. */
+    private ProbabilisticLocationMap compileLocationMap() {
+        OrientGraph rfidGraph = GraphModeling.createOrientGraph(unModeingGUI.getRFIDDeploymentModelingFrame().getRFIDDBPath());
+        try {
+            ProbabilisticLocationMap locationMap = GraphModeling.compileLocationMap(rfidGraph);
+            if (locationMap.getReaderCount() == 0) {
+                appendLogText("The RFID readers deployment pseudograph has no coverage weights of readers.");
+                return null;
+            }
+            locationMap.compileVectors(new LocationDictionary(getConnectionPool()));
+            appendLogText("The probabilistic location map covers " + locationMap.getReaderCount() + " readers in "
+                    + locationMap.getLocationNames().length + " locations.");
+            return locationMap;
+        } catch (SQLException e) {
+            for (Throwable t : e) {
+                t.printStackTrace();
+            }
+            appendLogText(e.toString());
+            return null;
+        } catch (IllegalArgumentException e) { // two readers with the same number
+            appendLogText(e.getMessage());
+            return null;
+        } finally {
+            GraphModeling.shutdownGraph(rfidGraph);
+        }
+    }
+
+    private void createProbTable() {
+        try {
+            Cloner cloner = new Cloner();
+            HashMap<String, String> streamEncodingMap = cloner.deepClone(streamSource.getStreamEncodingMap());
+            String objIDAttributeName = streamSource.getObjIDAttributeName();
+            String objIDAttributeType = streamEncodingMap.get(objIDAttributeName);
+            String readerIDAttributeName = streamSource.getReaderIDAttributeName();
+            String timeAttributeName = streamSource.getTimeAttributeName();
+            streamEncodingMap.remove(objIDAttributeName); // we don't need them anymore in the map
+            streamEncodingMap.remove(readerIDAttributeName);
+            streamEncodingMap.remove(timeAttributeName);
+            LinkedHashMap<String, String> columns = new LinkedHashMap<>();
+            columns.put(objIDAttributeName, objIDAttributeType);
+            columns.put("PROB_LOC", "VARCHAR2(100 BYTE)");
+            columns.put("PROB_VEC", "RAW(100)"); // the probabilities of PROB_LOC as a ProbabilityVector
+            columns.putAll(streamEncodingMap);
+            SchemaManager schemaManager = new SchemaManager(conn);
+            SchemaManager.Partitioning partitioning = SchemaManager.Partitioning.values()[partitionsComboBox.getSelectedIndex()];
+            if (partitioning != SchemaManager.Partitioning.NONE) { // partition by the time range of the stream
+                Timestamp[] timeRange = schemaManager.getTimeRange(streamSource.getStreamName(), timeAttributeName);
+                schemaManager.setPartitioning(partitioning, timeRange[0], timeRange[1]);
+            }
+            if (schemaManager.createResultTable("PROB_TABLE", objIDAttributeName, columns)) {
+                CheckpointStore checkpointStore = new CheckpointStore(conn);
+                checkpointStore.createTable();
+                checkpointStore.clearAll(DATABASE_STAGE); // the records of the last run are gone
                 appendLogText("The table PROB_TABLE is created.");
             } else {
                 appendLogText("The table PROB_TABLE already exists.");
@@ -581,12 +782,18 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         });
     }
     private UniModelingGUI unModeingGUI = null;
+    private static final String DATABASE_STAGE = "Translation";
+    private static final String SQL_STAGE = DATABASE_STAGE + " in the DBMS"; // cleared along with DATABASE_STAGE
+    private static final String INCREMENTAL_STAGE = DATABASE_STAGE + " watermark";
+    private static final int MAX_WORKERS = 16;
     private static Connection conn = null;
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+    private ActivityLog activityLog = new ActivityLog();
     private ServerSocket serverSocket;
     private ConcurrentHashMap<Socket, ObjectOutputStream> clientOutputStreams = new ConcurrentHashMap<>();
     private StreamSource streamSource = new StreamSource();
-    private boolean processingFlag = true;
+    private volatile ParallelTranslator translator = null;
+    private volatile SqlTranslatorTask sqlTranslatorTask = null;
+    private volatile IncrementalTranslator incrementalTranslator = null;
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JScrollPane activityLogScrollPane;
     private static javax.swing.JTextArea activityLogTextArea;
@@ -607,14 +814,22 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     private static javax.swing.JTextArea infoTextArea;
     private javax.swing.JButton okButton;
     private javax.swing.JButton okButton1;
+    private javax.swing.JComboBox partitionsComboBox;
+    private javax.swing.JLabel partitionsLabel;
     private javax.swing.JLabel passwordLabel;
     private javax.swing.JPasswordField passwordTextField;
+    private javax.swing.JLabel refreshIntervalLabel;
+    private javax.swing.JFormattedTextField refreshIntervalTextField;
     private javax.swing.JButton registerStreamButton;
     private javax.swing.JDialog registerStreamDialog;
+    private javax.swing.JLabel settleTimeLabel;
+    private javax.swing.JFormattedTextField settleTimeTextField;
     private javax.swing.JButton startTranslationButton;
     private javax.swing.JScrollPane streamEncodingScrollPane;
     private static javax.swing.JTextArea streamEncodingTextArea;
     private javax.swing.JButton testButton;
+    private javax.swing.JComboBox translateInComboBox;
+    private javax.swing.JLabel translateInLabel;
     private javax.swing.JLabel urlLabel;
     private javax.swing.JTextField urlTextField;
     private javax.swing.JLabel userNameLabel;
@@ -1,15 +1,19 @@
 package info.sarihh.unimodeling.gui;
 
+import info.sarihh.unimodeling.streamapi.ReadingCodec;
+import info.sarihh.unimodeling.streamapi.ReadingFile;
 import info.sarihh.unimodeling.streamapi.StreamSource;
+import info.sarihh.unimodeling.utility.ActivityLog;
 import info.sarihh.unimodeling.utility.DatabaseConnectionFactory;
 import info.sarihh.unimodeling.utility.IPAddressFormatter;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.sql.Connection;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.HashMap;
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
@@ -30,6 +34,7 @@ public class RFIDReaderSimulatorFrame extends javax.swing.JInternalFrame impleme
     public RFIDReaderSimulatorFrame(UniModelingGUI uniModelingGUI) {
         this.unModeingGUI = uniModelingGUI;
         initComponents();
+        activityLog.install(activityLogScrollPane);
         driversComboBox.setSelectedIndex(1);
         registerStreamDialog.pack();
         connectDatabaseDialog.pack();
@@ -78,6 +83,8 @@ public class RFIDReaderSimulatorFrame extends javax.swing.JInternalFrame impleme
         });
         readRateLabel = new javax.swing.JLabel();
         readRateSpinner = new javax.swing.JSpinner();
+        readingFileLabel = new javax.swing.JLabel();
+        readingFileTextField = new javax.swing.JTextField();
         activityLogScrollPane = new javax.swing.JScrollPane();
         activityLogTextArea = new javax.swing.JTextArea();
         buttonPanel = new javax.swing.JPanel();
@@ -87,6 +94,7 @@ public class RFIDReaderSimulatorFrame extends javax.swing.JInternalFrame impleme
         disconnectServerButton = new javax.swing.JButton();
         startSimulationButton = new javax.swing.JButton();
         endSimulationButton = new javax.swing.JButton();
+        dumpStreamButton = new javax.swing.JButton();
         clearLogButton = new javax.swing.JButton();
 
         registerStreamDialog.setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
@@ -316,6 +324,24 @@ public class RFIDReaderSimulatorFrame extends javax.swing.JInternalFrame impleme
         gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
         containerPanel.add(readRateSpinner, gridBagConstraints);
 
+        readingFileLabel.setText(bundle.getString("RFIDReaderSimulatorFrame.readingFileLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 3;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(readingFileLabel, gridBagConstraints);
+
+        readingFileTextField.setToolTipText(bundle.getString("RFIDReaderSimulatorFrame.readingFileTextField.toolTipText")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 3;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(readingFileTextField, gridBagConstraints);
+
         activityLogScrollPane.setBorder(javax.swing.BorderFactory.createTitledBorder(bundle.getString("RFIDReaderSimulatorFrame.activityLogScrollPane.border.title"))); // NOI18N
         activityLogScrollPane.setVerticalScrollBarPolicy(javax.swing.ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
 
@@ -328,7 +354,7 @@ public class RFIDReaderSimulatorFrame extends javax.swing.JInternalFrame impleme
 
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 3;
+        gridBagConstraints.gridy = 4;
         gridBagConstraints.gridwidth = 4;
         gridBagConstraints.fill = java.awt.GridBagConstraints.BOTH;
         gridBagConstraints.weightx = 1.0;
@@ -384,6 +410,15 @@ public class RFIDReaderSimulatorFrame extends javax.swing.JInternalFrame impleme
         });
         buttonPanel.add(endSimulationButton);
 
+        dumpStreamButton.setText(bundle.getString("RFIDReaderSimulatorFrame.dumpStreamButton.text")); // NOI18N
+        dumpStreamButton.setToolTipText(bundle.getString("RFIDReaderSimulatorFrame.dumpStreamButton.toolTipText")); // NOI18N
+        dumpStreamButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                dumpStreamButtonActionPerformed(evt);
+            }
+        });
+        buttonPanel.add(dumpStreamButton);
+
         clearLogButton.setText(bundle.getString("RFIDReaderSimulatorFrame.clearLogButton.text")); // NOI18N
         clearLogButton.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -394,7 +429,7 @@ public class RFIDReaderSimulatorFrame extends javax.swing.JInternalFrame impleme
 
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 4;
+        gridBagConstraints.gridy = 5;
         gridBagConstraints.gridwidth = 4;
         gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
         gridBagConstraints.weightx = 1.0;
@@ -417,7 +452,8 @@ private void connectServerButtonActionPerformed(java.awt.event.ActionEvent evt)
         socket = new Socket(InetAddress.getByName(serverHostNameTextField.getText()),
                 Integer.parseInt(serverPortNumberTextField.getText()));
         socketInput = new ObjectInputStream(socket.getInputStream());
-        socketOutput = new ObjectOutputStream(socket.getOutputStream());
+        socketOutput = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        codec = null; // the handshake is sent once the stream is registered and the simulation starts
         appendLogText("A connection made with the server: "
                 + serverHostNameTextField.getText() + " on port: "
                 + serverPortNumberTextField.getText() + ".");
@@ -460,7 +496,7 @@ private void okButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRS
 }//GEN-LAST:event_okButtonActionPerformed
 
 private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_testButtonActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -477,7 +513,7 @@ private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
 }//GEN-LAST:event_testButtonActionPerformed
 
 private void okButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_okButton1ActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -494,8 +530,10 @@ private void okButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIR
 
 private void startSimulationButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_startSimulationButtonActionPerformed
     if (!socket.isClosed()) { // if the user tries to start the simulation before connecting with the RFID server
+        if (!startStreamSource()) {
+            return;
+        }
         simulationFlag = true;
-        streamSource.start(conn);
         Thread simulationThread = new Thread() {
 
             @Override
@@ -503,21 +541,22 @@ private void startSimulationButtonActionPerformed(java.awt.event.ActionEvent evt
                 try {
                     HashMap<String, String> reading = new HashMap<>();
                     switchButtonState(endSimulationButton, startSimulationButton);
+                    if (codec == null) {
+                        codec = new ReadingCodec(streamSource);
+                        codec.writeHandshake(socketOutput);
+                    }
                     int counter = 0;
                     while (streamSource.getNext(reading)) {
                         if (simulationFlag) {
                             counter++;
-                            socketOutput.writeObject(reading);
+                            codec.writeReading(socketOutput, reading);
                             socketOutput.flush();
                             appendLogText("Sending reading: " + reading + ".");
-                            reading = new HashMap<>();
+                            reading.clear();
                             sleep(1000 * ((int) readRateSpinner.getValue()));
                         } else {
                             streamSource.end();
-                            HashMap<String, String> endReading = new HashMap<>();
-                            endReading.put("END", "END");
-                            socketOutput.writeObject(endReading);
-                            socketOutput.flush();
+                            codec.writeControl(socketOutput, ReadingCodec.END_FRAME);
                             appendLogText("The simulation ended.");
                             switchButtonState(startSimulationButton, endSimulationButton);
                             Thread.currentThread().interrupt();
@@ -542,8 +581,50 @@ private void endSimulationButtonActionPerformed(java.awt.event.ActionEvent evt)
     simulationFlag = false;
 }//GEN-LAST:event_endSimulationButtonActionPerformed
 
+private void dumpStreamButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_dumpStreamButtonActionPerformed
+    final String readingFile = readingFileTextField.getText().trim();
+    if (readingFile.isEmpty()) {
+        appendLogText("Enter the reading file to dump the stream into.");
+        return;
+    }
+    if (new File(readingFile).exists()) {
+        appendLogText("The reading file " + readingFile + " exists; enter a new one to dump the stream into.");
+        return;
+    }
+    if (conn == null) {
+        appendLogText("The simulator is not connected with a database.");
+        return;
+    }
+    dumpStreamButton.setEnabled(false);
+    startSimulationButton.setEnabled(false); // the simulation and the dump share the stream source
+    Thread dumpThread = new Thread() {
+
+        @Override
+        public void run() {
+            try {
+                streamSource.setPageSize(PAGE_SIZE);
+                streamSource.start(conn);
+                long counter = ReadingFile.write(streamSource, new File(readingFile));
+                appendLogText(counter + " readings were dumped into " + readingFile + ".");
+            } catch (IOException e) {
+                appendLogText(e.toString());
+            } finally {
+                streamSource.end();
+            }
+            SwingUtilities.invokeLater(new Runnable() {
+
+                public void run() {
+                    dumpStreamButton.setEnabled(true);
+                    startSimulationButton.setEnabled(true);
+                }
+            });
+        }
+    };
+    dumpThread.start();
+}//GEN-LAST:event_dumpStreamButtonActionPerformed
+
 private void clearLogButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_clearLogButtonActionPerformed
-    activityLogTextArea.setText("");
+    activityLog.clear();
 }//GEN-LAST:event_clearLogButtonActionPerformed
 
 private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_driversComboBoxActionPerformed
@@ -566,24 +647,34 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     }
 }//GEN-LAST:event_driversComboBoxActionPerformed
 
-    public void appendLogText(final String text) {
-        SwingUtilities.invokeLater(new Runnable() {
+    /* Starts the stream from the reading file if one is given, otherwise
+     * from the database; returns false if the file cannot be read. */
+    private boolean startStreamSource() {
+        String readingFile = readingFileTextField.getText().trim();
+        if (readingFile.isEmpty()) {
+            streamSource.setPageSize(PAGE_SIZE); // bounded memory on an auto-commit connection
+            streamSource.start(conn);
+            return true;
+        }
+        try {
+            streamSource.start(new File(readingFile));
+            appendLogText("Reading the stream from " + readingFile + ".");
+            return true;
+        } catch (IOException e) {
+            appendLogText(e.toString());
+            return false;
+        }
+    }
 
-            public void run() {
-                if (!text.equals("")) {
-                    activityLogTextArea.append(dateFormat.format(new Date()) + " -> " + text + "\n");
-                    activityLogTextArea.setCaretPosition(activityLogTextArea.getText().length());
-                }
-            }
-        });
+    public void appendLogText(String text) {
+        activityLog.append(text);
     }
 
     public void disconnect() {
         try {
-            HashMap<String, String> quitReading = new HashMap<>();
-            quitReading.put("QUIT", "QUIT");
-            socketOutput.writeObject(quitReading);
-            socketOutput.flush();
+            if (codec != null) { // without a handshake the server only sees the socket closing
+                codec.writeControl(socketOutput, ReadingCodec.QUIT_FRAME);
+            }
             socket.close();
             appendLogText("The simulator is disconnected.");
             switchButtonState(connectServerButton, disconnectServerButton);
@@ -624,11 +715,14 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         });
     }
     private UniModelingGUI unModeingGUI = null;
+    private static final String DATABASE_STAGE = "Simulation";
+    private static final int PAGE_SIZE = 10000; // readings per query
     private static Connection conn = null;
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+    private ActivityLog activityLog = new ActivityLog();
     private Socket socket = null;
     private ObjectInputStream socketInput = null;
-    private ObjectOutputStream socketOutput = null;
+    private DataOutputStream socketOutput = null;
+    private ReadingCodec codec = null;
     private StreamSource streamSource = new StreamSource();
     private boolean simulationFlag = true;
     // Variables declaration - do not modify//GEN-BEGIN:variables
@@ -646,6 +740,7 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     private javax.swing.JScrollPane containerScrollPane;
     private javax.swing.JButton disconnectServerButton;
     private javax.swing.JComboBox driversComboBox;
+    private javax.swing.JButton dumpStreamButton;
     private javax.swing.JLabel driversLabel;
     private javax.swing.JButton endSimulationButton;
     private javax.swing.JScrollPane infoScrollPane;
@@ -654,6 +749,8 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     private javax.swing.JButton okButton1;
     private javax.swing.JLabel passwordLabel;
     private javax.swing.JPasswordField passwordTextField;
+    private javax.swing.JLabel readingFileLabel;
+    private javax.swing.JTextField readingFileTextField;
     private javax.swing.JLabel readRateLabel;
     private javax.swing.JSpinner readRateSpinner;
     private javax.swing.JButton registerStreamButton;
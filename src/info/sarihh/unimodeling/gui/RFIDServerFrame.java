@@ -1,20 +1,20 @@
 package info.sarihh.unimodeling.gui;
 
 import com.rits.cloning.Cloner;
+import info.sarihh.unimodeling.streamapi.IngestQueue;
 import info.sarihh.unimodeling.streamapi.StreamSource;
-import info.sarihh.unimodeling.utility.ClientHandler;
+import info.sarihh.unimodeling.utility.ActivityLog;
+import info.sarihh.unimodeling.utility.ConnectionPool;
 import info.sarihh.unimodeling.utility.DatabaseConnectionFactory;
+import info.sarihh.unimodeling.utility.RFIDIngestServer;
+import info.sarihh.unimodeling.utility.SchemaManager;
 import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
 import java.net.Socket;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.sql.Timestamp;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
@@ -34,6 +34,7 @@ public class RFIDServerFrame extends javax.swing.JInternalFrame {
     public RFIDServerFrame(UniModelingGUI uniModelingGUI) {
         this.unModeingGUI = uniModelingGUI;
         initComponents();
+        activityLog.install(activityLogScrollPane);
         driversComboBox.setSelectedIndex(1);
         registerStreamDialog.pack();
         connectDatabaseDialog.pack();
@@ -65,6 +66,8 @@ public class RFIDServerFrame extends javax.swing.JInternalFrame {
         userNameTextField = new javax.swing.JTextField();
         passwordLabel = new javax.swing.JLabel();
         passwordTextField = new javax.swing.JPasswordField();
+        partitionsLabel = new javax.swing.JLabel();
+        partitionsComboBox = new javax.swing.JComboBox();
         buttonPanel2 = new javax.swing.JPanel();
         testButton = new javax.swing.JButton();
         buttonFiller5 = new javax.swing.Box.Filler(new java.awt.Dimension(50, 0), new java.awt.Dimension(50, 0), new java.awt.Dimension(50, 32767));
@@ -92,6 +95,15 @@ public class RFIDServerFrame extends javax.swing.JInternalFrame {
                 return portNumberFormatter;
             }
         });
+        allowedLatenessLabel = new javax.swing.JLabel();
+        allowedLatenessTextField = new javax.swing.JFormattedTextField(new DefaultFormatter() {
+            private DocumentFilter allowedLatenessFormatter = new info.sarihh.unimodeling.utility.NumberFieldFormatter(3);
+            protected DocumentFilter getDocumentFilter() {
+                return allowedLatenessFormatter;
+            }
+        });
+        queueOverflowLabel = new javax.swing.JLabel();
+        queueOverflowComboBox = new javax.swing.JComboBox();
         activityLogScrollPane = new javax.swing.JScrollPane();
         activityLogTextArea = new javax.swing.JTextArea();
         buttonPanel = new javax.swing.JPanel();
@@ -252,6 +264,25 @@ public class RFIDServerFrame extends javax.swing.JInternalFrame {
         gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
         connectDatabaseDialog.getContentPane().add(passwordTextField, gridBagConstraints);
 
+        partitionsLabel.setText(bundle.getString("RFIDServerFrame.partitionsLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        connectDatabaseDialog.getContentPane().add(partitionsLabel, gridBagConstraints);
+
+        partitionsComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "None", "Daily", "Monthly" }));
+        partitionsComboBox.setPreferredSize(new java.awt.Dimension(360, 22));
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.gridwidth = 2;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        connectDatabaseDialog.getContentPane().add(partitionsComboBox, gridBagConstraints);
+
         testButton.setText(bundle.getString("RFIDServerFrame.testButton.text")); // NOI18N
         testButton.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -340,6 +371,43 @@ public class RFIDServerFrame extends javax.swing.JInternalFrame {
         gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
         containerPanel.add(condensingRepeatsTextField, gridBagConstraints);
 
+        allowedLatenessLabel.setText(bundle.getString("RFIDServerFrame.allowedLatenessLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 3;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(allowedLatenessLabel, gridBagConstraints);
+
+        allowedLatenessTextField.setText(""); // NOI18N
+        allowedLatenessTextField.setToolTipText(bundle.getString("RFIDServerFrame.allowedLatenessTextField.toolTipText")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 3;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(allowedLatenessTextField, gridBagConstraints);
+
+        queueOverflowLabel.setText(bundle.getString("RFIDServerFrame.queueOverflowLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(queueOverflowLabel, gridBagConstraints);
+
+        queueOverflowComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "Block Readers", "Drop Oldest Readings", "Spill to Disk" }));
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+        containerPanel.add(queueOverflowComboBox, gridBagConstraints);
+
         activityLogScrollPane.setBorder(javax.swing.BorderFactory.createTitledBorder(bundle.getString("RFIDServerFrame.activityLogScrollPane.border.title"))); // NOI18N
         activityLogScrollPane.setVerticalScrollBarPolicy(javax.swing.ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
 
@@ -352,7 +420,7 @@ public class RFIDServerFrame extends javax.swing.JInternalFrame {
 
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 3;
+        gridBagConstraints.gridy = 5;
         gridBagConstraints.gridwidth = 4;
         gridBagConstraints.fill = java.awt.GridBagConstraints.BOTH;
         gridBagConstraints.weightx = 1.0;
@@ -410,7 +478,7 @@ public class RFIDServerFrame extends javax.swing.JInternalFrame {
 
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 4;
+        gridBagConstraints.gridy = 6;
         gridBagConstraints.gridwidth = 4;
         gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
         gridBagConstraints.weightx = 1.0;
@@ -425,14 +493,14 @@ public class RFIDServerFrame extends javax.swing.JInternalFrame {
     }// </editor-fold>//GEN-END:initComponents
 
 private void clearLogButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_clearLogButtonActionPerformed
-    activityLogTextArea.setText("");
+    activityLog.clear();
 }//GEN-LAST:event_clearLogButtonActionPerformed
 
 private void stopServerButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_stopServerButtonActionPerformed
     sendToAll("QUIT");
     removeAllConnection();
     try {
-        serverSocket.close();
+        ingestServer.stop();
         appendLogText("The server is stopped.");
         switchButtonState(launchServerButton, stopServerButton);
     } catch (Exception e) {
@@ -442,29 +510,15 @@ private void stopServerButtonActionPerformed(java.awt.event.ActionEvent evt) {//
 }//GEN-LAST:event_stopServerButtonActionPerformed
 
 private void launchServerButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_launchServerButtonActionPerformed
-    Thread serverThread = new Thread() {
-
-        @Override
-        public void run() {
-            try {
-                serverSocket = new ServerSocket(Integer.parseInt(portNumberTextField.getText()));
-                appendLogText("Waiting for connection on " + serverSocket + ".");
-                switchButtonState(stopServerButton, launchServerButton);
-                while (true) {
-                    Socket client = serverSocket.accept();
-                    appendLogText("A connection from " + client + ".");
-                    ObjectOutputStream clientOutputStream = new ObjectOutputStream(client.getOutputStream());
-                    clientOutputStreams.put(client, clientOutputStream);
-                    new ClientHandler(RFIDServerFrame.this, client).start();
-                }
-            } catch (Exception e) {
-                appendLogText(e.toString().contains("SocketException") ? "" : e.toString());
-                Thread.currentThread().interrupt();
-                switchButtonState(launchServerButton, stopServerButton);
-            }
-        }
-    };
-    serverThread.start();
+    try {
+        ingestServer = new RFIDIngestServer(this, Integer.parseInt(portNumberTextField.getText()));
+        ingestServer.start();
+        appendLogText("Waiting for connection on " + ingestServer.getAddress() + ".");
+        switchButtonState(stopServerButton, launchServerButton);
+    } catch (Exception e) {
+        appendLogText(e.toString().contains("SocketException") ? "" : e.toString());
+        switchButtonState(launchServerButton, stopServerButton);
+    }
 }//GEN-LAST:event_launchServerButtonActionPerformed
 
 private void registerStreamButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_registerStreamButtonActionPerformed
@@ -495,7 +549,7 @@ private void okButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRS
 }//GEN-LAST:event_okButtonActionPerformed
 
 private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_testButtonActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -512,7 +566,7 @@ private void testButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FI
 }//GEN-LAST:event_testButtonActionPerformed
 
 private void okButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_okButton1ActionPerformed
-    conn = DatabaseConnectionFactory.getDatabaseConnection(
+    conn = DatabaseConnectionFactory.getDatabaseConnection(DATABASE_STAGE,
             driversComboBox.getSelectedItem().toString(), urlTextField.getText(),
             userNameTextField.getText(), new String(passwordTextField.getPassword()));
     if (conn != null) {
@@ -551,16 +605,12 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     }
 }//GEN-LAST:event_driversComboBoxActionPerformed
 
-    public void appendLogText(final String text) {
-        SwingUtilities.invokeLater(new Runnable() {
+    public void appendLogText(String text) {
+        activityLog.append(text);
+    }
 
-            public void run() {
-                if (!text.equals("")) {
-                    activityLogTextArea.append(dateFormat.format(new Date()) + " -> " + text + "\n");
-                    activityLogTextArea.setCaretPosition(activityLogTextArea.getText().length());
-                }
-            }
-        });
+    public void addConnection(Socket client, ObjectOutputStream clientOutputStream) {
+        clientOutputStreams.put(client, clientOutputStream);
     }
 
     public void removeConnection(Socket client) {
@@ -615,6 +665,12 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         return conn;
     }
 
+    /** This method returns the pool that the connection of the frame came
+     * from, for work that runs alongside the frame's own queries. */
+    public ConnectionPool getConnectionPool() {
+        return DatabaseConnectionFactory.getConnectionPool(DATABASE_STAGE);
+    }
+
     public int getCondensingStarts() {
         return 1000 * Integer.parseInt(condensingStartsTextField.getText());
     }
@@ -623,48 +679,40 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         return 1000 * Integer.parseInt(condensingRepeatsTextField.getText());
     }
 
+    public IngestQueue.OverflowPolicy getQueueOverflowPolicy() {
+        return IngestQueue.OverflowPolicy.values()[queueOverflowComboBox.getSelectedIndex()];
+    }
+
+    /** This method returns the allowed lateness of event-time condensing, or
+     * -1 to condense readings by their arrival time. */
+    public int getAllowedLateness() {
+        String allowedLateness = allowedLatenessTextField.getText().trim();
+        return allowedLateness.isEmpty() ? -1 : 1000 * Integer.parseInt(allowedLateness);
+    }
+
     private void createAppearTable() {
         try {
-            DatabaseMetaData meta = conn.getMetaData();
-            ResultSet resultSet = null;
-            String driver = driversComboBox.getSelectedItem().toString();
-            if (driver.equals("Oracle Thin Driver")) {
-                resultSet = meta.getTables(null, "BAGGAGEQUALITY", null, new String[]{"TABLE"});
-            } else {
-                resultSet = meta.getTables(null, null, null, new String[]{"TABLE"});
-            }
-            boolean exist = false;
-            while (resultSet.next()) {
-                if (resultSet.getString(3).equalsIgnoreCase("APPEAR_TABLE")) {
-                    exist = true;
-                    break;
-                }
+            Cloner cloner = new Cloner();
+            HashMap<String, String> streamEncodingMap = cloner.deepClone(streamSource.getStreamEncodingMap());
+            String objIDAttributeName = streamSource.getObjIDAttributeName();
+            String objIDAttributeType = streamEncodingMap.get(objIDAttributeName);
+            String readerIDAttributeName = streamSource.getReaderIDAttributeName();
+            String readerIDAttributeType = streamEncodingMap.get(readerIDAttributeName);
+            String timeAttributeName = streamSource.getTimeAttributeName();
+            streamEncodingMap.remove(objIDAttributeName); // we don't need them anymore in the map
+            streamEncodingMap.remove(readerIDAttributeName);
+            streamEncodingMap.remove(timeAttributeName);
+            LinkedHashMap<String, String> columns = new LinkedHashMap<>();
+            columns.put(objIDAttributeName, objIDAttributeType);
+            columns.put(readerIDAttributeName, readerIDAttributeType);
+            columns.putAll(streamEncodingMap);
+            SchemaManager schemaManager = new SchemaManager(conn);
+            SchemaManager.Partitioning partitioning = SchemaManager.Partitioning.values()[partitionsComboBox.getSelectedIndex()];
+            if (partitioning != SchemaManager.Partitioning.NONE) { // partition by the time range of the stream
+                Timestamp[] timeRange = schemaManager.getTimeRange(streamSource.getStreamName(), timeAttributeName);
+                schemaManager.setPartitioning(partitioning, timeRange[0], timeRange[1]);
             }
-            resultSet.close();
-
-            if (!exist) {
-                Cloner cloner = new Cloner();
-                HashMap<String, String> streamEncodingMap = cloner.deepClone(streamSource.getStreamEncodingMap());
-                String objIDAttributeName = streamSource.getObjIDAttributeName();
-                String objIDAttributeType = streamEncodingMap.get(objIDAttributeName);
-                String readerIDAttributeName = streamSource.getReaderIDAttributeName();
-                String readerIDAttributeType = streamEncodingMap.get(readerIDAttributeName);
-                String timeAttributeName = streamSource.getTimeAttributeName();
-                streamEncodingMap.remove(objIDAttributeName); // we don't need them anymore in the map
-                streamEncodingMap.remove(readerIDAttributeName);
-                streamEncodingMap.remove(timeAttributeName);
-                StringBuilder sb = new StringBuilder("CREATE TABLE APPEAR_TABLE (\n");
-                sb.append(objIDAttributeName).append(" ").append(objIDAttributeType).append(",\n");
-                sb.append(readerIDAttributeName).append(" ").append(readerIDAttributeType).append(",\n");
-                for (String attributeName : streamEncodingMap.keySet()) {
-                    sb.append(attributeName).append(" ").append(streamEncodingMap.get(attributeName)).append(",\n");
-                }
-                sb.append("S_TIME TIMESTAMP,\n");
-                sb.append("E_TIME TIMESTAMP)");
-                String query = sb.toString();
-                Statement statement = conn.createStatement();
-                statement.execute(query);
-                statement.close();
+            if (schemaManager.createResultTable("APPEAR_TABLE", objIDAttributeName, columns)) {
                 appendLogText("The table APPEAR_TABLE is created.");
             } else {
                 appendLogText("The table APPEAR_TABLE already exists.");
@@ -686,14 +734,17 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
         });
     }
     private UniModelingGUI unModeingGUI = null;
+    private static final String DATABASE_STAGE = "Online Condensing";
     private static Connection conn = null;
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
-    private ServerSocket serverSocket;
+    private ActivityLog activityLog = new ActivityLog();
+    private RFIDIngestServer ingestServer;
     private ConcurrentHashMap<Socket, ObjectOutputStream> clientOutputStreams = new ConcurrentHashMap<>();
     private StreamSource streamSource = new StreamSource();
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JScrollPane activityLogScrollPane;
     private static javax.swing.JTextArea activityLogTextArea;
+    private javax.swing.JLabel allowedLatenessLabel;
+    private javax.swing.JFormattedTextField allowedLatenessTextField;
     private javax.swing.Box.Filler buttonFiller5;
     private javax.swing.JPanel buttonPanel;
     private javax.swing.JPanel buttonPanel1;
@@ -715,10 +766,14 @@ private void driversComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//G
     private javax.swing.JButton launchServerButton;
     private javax.swing.JButton okButton;
     private javax.swing.JButton okButton1;
+    private javax.swing.JComboBox partitionsComboBox;
+    private javax.swing.JLabel partitionsLabel;
     private javax.swing.JLabel passwordLabel;
     private javax.swing.JPasswordField passwordTextField;
     private javax.swing.JLabel portNumberLabel;
     private javax.swing.JFormattedTextField portNumberTextField;
+    private javax.swing.JComboBox queueOverflowComboBox;
+    private javax.swing.JLabel queueOverflowLabel;
     private javax.swing.JButton registerStreamButton;
     private javax.swing.JDialog registerStreamDialog;
     private javax.swing.JButton stopServerButton;
@@ -645,6 +645,11 @@ private void contentMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//G
         return rfidDeploymentModelingFrame;
     }
 
+    /** This method returns that RFIDServerFrame instance. */
+    protected RFIDServerFrame getRFIDServerFrame() {
+        return rfidServerFrame;
+    }
+
     /**
      * Exit method. Closes last used database then exits the program.
      */
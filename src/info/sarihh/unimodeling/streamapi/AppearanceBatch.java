@@ -0,0 +1,83 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * This class holds closed appearance records in parallel primitive arrays on
+ * their way from an appearance table to APPEAR_TABLE. Times are nanoseconds
+ * since the epoch, see toEpochNanos and toTimestamp.
+ * Author: Sari Haj Hussein
+ */
+public class AppearanceBatch {
+
+    public void add(int objID, int readerID, long startTime, long endTime) {
+        if (size == objIDs.length) {
+            int capacity = 2 * size;
+            objIDs = Arrays.copyOf(objIDs, capacity);
+            readerIDs = Arrays.copyOf(readerIDs, capacity);
+            startTimes = Arrays.copyOf(startTimes, capacity);
+            endTimes = Arrays.copyOf(endTimes, capacity);
+        }
+        objIDs[size] = objID;
+        readerIDs[size] = readerID;
+        startTimes[size] = startTime;
+        endTimes[size] = endTime;
+        size++;
+    }
+
+    public void addAll(AppearanceBatch batch) {
+        for (int i = 0; i < batch.size; i++) {
+            add(batch.objIDs[i], batch.readerIDs[i], batch.startTimes[i], batch.endTimes[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int getObjID(int i) {
+        return objIDs[i];
+    }
+
+    public int getReaderID(int i) {
+        return readerIDs[i];
+    }
+
+    public long getStartTime(int i) {
+        return startTimes[i];
+    }
+
+    public long getEndTime(int i) {
+        return endTimes[i];
+    }
+
+    public static long toEpochNanos(Timestamp timestamp) {
+        long seconds = timestamp.getTime() / 1000;
+        if (timestamp.getTime() % 1000 < 0) {
+            seconds--;
+        }
+        return seconds * 1000000000L + timestamp.getNanos();
+    }
+
+    public static Timestamp toTimestamp(long epochNanos) {
+        long seconds = epochNanos / 1000000000L;
+        int nanos = (int) (epochNanos % 1000000000L);
+        if (nanos < 0) {
+            seconds--;
+            nanos += 1000000000;
+        }
+        Timestamp timestamp = new Timestamp(seconds * 1000);
+        timestamp.setNanos(nanos);
+        return timestamp;
+    }
+    private int size = 0;
+    private int[] objIDs = new int[64];
+    private int[] readerIDs = new int[64];
+    private long[] startTimes = new long[64];
+    private long[] endTimes = new long[64];
+}
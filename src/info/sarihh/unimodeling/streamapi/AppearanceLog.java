@@ -0,0 +1,477 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is the write-ahead log of an appearance store. Every transition
+ * of the store is appended to a memory-mapped file before it takes effect:
+ * new object and reader IDs, readings that enter a reorder buffer or an
+ * appearance table, appearances that are closed, and closed appearances that
+ * made it into APPEAR_TABLE. Since the log is memory-mapped, an append is a
+ * few stores into the page cache, and it survives the death of the process.
+ * Every shard appends to a segment file of its own under its own lock, so
+ * shards never wait for each other; new IDs and inserted appearances go to a
+ * main segment, which is replayed around the shard segments.
+ *
+ * The log is compacted into a snapshot of the open appearances, the buffered
+ * readings and the closed appearances that were not inserted yet, after which
+ * the log starts over. Snapshot and log carry a generation number, so a crash
+ * in between never replays a log that the snapshot already covers.
+ * Author: Sari Haj Hussein
+ */
+public class AppearanceLog {
+
+    public AppearanceLog(File directory, String name) {
+        walPath = new File(directory, name + ".wal");
+        snapshotPath = new File(directory, name + ".snapshot");
+        main = new Segment(walPath);
+    }
+
+    /** This method tells whether there is state left by a previous run. */
+    public boolean exists() {
+        return walPath.exists() || getSegmentPath(0).exists() || snapshotPath.exists();
+    }
+
+    /** This method restores the state of the store from the snapshot and the
+     * log, and returns the closed appearances that still have to be inserted
+     * into APPEAR_TABLE. The store must not be in use yet. */
+    public AppearanceBatch recover(AppearanceStore store) throws IOException {
+        AppearanceTable openTable = new AppearanceTable(1024);
+        HashMap<String, Integer> buffered = new HashMap<>();
+        if (snapshotPath.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotPath)));
+            try {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Corrupt appearance snapshot " + snapshotPath + ".");
+                }
+                generation = in.readLong();
+                readNames(in, store.getObjIDs());
+                readNames(in, store.getReaderIDs());
+                for (int i = in.readInt(); i > 0; i--) {
+                    long key = AppearanceTable.getKey(in.readInt(), in.readInt());
+                    openTable.add(key, in.readLong());
+                    openTable.add(key, in.readLong());
+                }
+                for (int i = in.readInt(); i > 0; i--) {
+                    addBuffered(buffered, AppearanceTable.getKey(in.readInt(), in.readInt()), in.readLong(), 1);
+                }
+                for (int i = in.readInt(); i > 0; i--) {
+                    addPending(in.readInt(), in.readInt(), in.readLong(), in.readLong());
+                }
+            } finally {
+                in.close();
+            }
+        }
+        // the shards of the previous run may have been more or fewer; what
+        // matters is that every segment is replayed in its own order
+        ArrayList<Long> inserted = new ArrayList<>();
+        replay(walPath, store, openTable, buffered, inserted);
+        for (int i = 0; getSegmentPath(i).exists(); i++) {
+            replay(getSegmentPath(i), store, openTable, buffered, inserted);
+        }
+        for (int i = 0; i < inserted.size(); i += 3) { // an appearance is closed before it is inserted
+            pending.remove(getPendingKey(inserted.get(i).intValue(), inserted.get(i + 1).intValue(), inserted.get(i + 2)));
+        }
+        AppearanceBatch open = new AppearanceBatch();
+        openTable.copyTo(open);
+        for (int i = 0; i < open.size(); i++) {
+            store.restore(open.getObjID(i), open.getReaderID(i), open.getStartTime(i), open.getEndTime(i));
+        }
+        for (String reading : buffered.keySet()) {
+            String[] fields = reading.split(":");
+            long key = Long.parseLong(fields[0]);
+            for (int i = buffered.get(reading); i > 0; i--) {
+                store.add(AppearanceTable.getObjID(key), AppearanceTable.getReaderID(key), Long.parseLong(fields[1]));
+            }
+        }
+        AppearanceBatch pendingBatch = new AppearanceBatch();
+        for (long[] appearance : pending.values()) {
+            pendingBatch.add((int) appearance[0], (int) appearance[1], appearance[2], appearance[3]);
+        }
+        return pendingBatch;
+    }
+
+    /** This method starts logging the transitions of the store, beginning
+     * with a snapshot of its current state. */
+    public void open(AppearanceStore store) throws IOException {
+        this.store = store;
+        main.open(INITIAL_WAL_SIZE);
+        segments = new Segment[store.getShards().length];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(getSegmentPath(i));
+            segments[i].open(INITIAL_SEGMENT_SIZE);
+        }
+        store.setLog(this);
+        compact();
+        for (int i = segments.length; getSegmentPath(i).exists(); i++) {
+            getSegmentPath(i).delete(); // left by a run with more shards, and covered by the snapshot now
+        }
+    }
+
+    /** This method writes a snapshot of the store and starts the log over.
+     * It holds every shard of the store while doing so. */
+    public void compact() throws IOException {
+        compact(0);
+    }
+
+    /** This method tells whether the log has grown past the point where
+     * compacting it pays off. */
+    public boolean needsCompaction() {
+        if (main.needsCompaction()) {
+            return true;
+        }
+        for (Segment segment : segments) {
+            if (segment.needsCompaction()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** This method stops logging. The log is deleted unless some closed
+     * appearances never made it into APPEAR_TABLE. */
+    public void close() throws IOException {
+        if (store != null) {
+            store.setLog(null); // outside the lock of the log, which the store takes after its own
+        }
+        synchronized (this) {
+            main.close();
+            for (int i = 0; segments != null && i < segments.length; i++) {
+                segments[i].close();
+            }
+            if (pending.isEmpty()) {
+                walPath.delete();
+                for (int i = 0; getSegmentPath(i).exists(); i++) {
+                    getSegmentPath(i).delete();
+                }
+                snapshotPath.delete();
+            }
+        }
+    }
+
+    /** This method returns the segment the i-th shard of the store appends
+     * to. */
+    Segment getSegment(int i) {
+        return segments[i];
+    }
+
+    synchronized void logName(byte recordType, int id, String name) {
+        main.logName(recordType, id, name);
+    }
+
+    /** This method logs that a closed appearance was inserted into
+     * APPEAR_TABLE. */
+    public synchronized void logInserted(int objID, int readerID, long startTime) {
+        if (main.wal == null) {
+            return;
+        }
+        main.logInserted(objID, readerID, startTime);
+        pending.remove(getPendingKey(objID, readerID, startTime));
+    }
+
+    /* One log file. The segment of a shard is appended to under the lock of
+     * the shard, and the main segment under the lock of the log; compaction
+     * holds both. */
+    class Segment {
+
+        Segment(File path) {
+            this.path = path;
+        }
+
+        void logBuffered(long key, long time) {
+            ensureRemaining(1 + 8 + 8);
+            wal.put(BUFFERED).putLong(key).putLong(time);
+            endRecords();
+        }
+
+        void logApplied(long key, long time) {
+            ensureRemaining(1 + 8 + 8);
+            wal.put(APPLIED).putLong(key).putLong(time);
+            endRecords();
+        }
+
+        /** This method logs the appearances appended to the batch from index
+         * from on. */
+        void logClosed(AppearanceBatch batch, int from) {
+            for (int i = from; i < batch.size(); i++) {
+                ensureRemaining(1 + 4 + 4 + 8 + 8);
+                wal.put(CLOSED).putInt(batch.getObjID(i)).putInt(batch.getReaderID(i));
+                wal.putLong(batch.getStartTime(i)).putLong(batch.getEndTime(i));
+                addPending(batch.getObjID(i), batch.getReaderID(i), batch.getStartTime(i), batch.getEndTime(i));
+            }
+            endRecords();
+        }
+
+        private void logName(byte recordType, int id, String name) {
+            byte[] bytes = name.getBytes(UTF8);
+            ensureRemaining(1 + 4 + 2 + bytes.length);
+            wal.put(recordType).putInt(id).putShort((short) bytes.length).put(bytes);
+            endRecords();
+        }
+
+        private void logInserted(int objID, int readerID, long startTime) {
+            ensureRemaining(1 + 4 + 4 + 8);
+            wal.put(INSERTED).putInt(objID).putInt(readerID).putLong(startTime);
+            endRecords();
+        }
+
+        private void open(long size) throws IOException {
+            file = new RandomAccessFile(path, "rw");
+            map(Math.max(size, file.length()));
+        }
+
+        /* Starts the segment over at the current generation. */
+        private void reset() {
+            wal.clear();
+            wal.putInt(WAL_MAGIC).putLong(generation);
+            endRecords();
+            wal.force();
+        }
+
+        /* Reads the position without the lock of the appender, which at
+         * worst delays a compaction by one check. */
+        private boolean needsCompaction() {
+            MappedByteBuffer wal = this.wal;
+            return wal != null && wal.position() > wal.capacity() / 2;
+        }
+
+        private void close() throws IOException {
+            if (file != null) {
+                wal = null;
+                file.close();
+                file = null;
+            }
+        }
+
+        /* Grows the mapping when a record would not fit; compaction keeps
+         * this rare. */
+        private void ensureRemaining(int length) {
+            if (wal.remaining() < length + 1) {
+                try {
+                    int position = wal.position();
+                    map(2L * wal.capacity());
+                    wal.position(position);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        private void map(long size) throws IOException {
+            file.setLength(size);
+            wal = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        /* Marks the end of the segment after the last record without moving
+         * past it, so a replay stops there. */
+        private void endRecords() {
+            wal.put(wal.position(), END);
+        }
+        private final File path;
+        private RandomAccessFile file = null;
+        private MappedByteBuffer wal = null;
+    }
+
+    /* Takes the locks of the shards from the i-th on, then the one of the
+     * log, in the order the shards take them when they log. */
+    private void compact(int i) throws IOException {
+        AppearanceStore.Shard[] shards = store.getShards();
+        if (i < shards.length) {
+            synchronized (shards[i]) {
+                compact(i + 1);
+            }
+            return;
+        }
+        synchronized (this) {
+            writeSnapshot(shards);
+            main.reset();
+            for (Segment segment : segments) {
+                segment.reset();
+            }
+        }
+    }
+
+    private void writeSnapshot(AppearanceStore.Shard[] shards) throws IOException {
+        AppearanceBatch open = new AppearanceBatch();
+        AppearanceBatch buffered = new AppearanceBatch();
+        for (AppearanceStore.Shard shard : shards) {
+            shard.copyTo(open, buffered);
+        }
+        File temporaryPath = new File(snapshotPath.getPath() + ".tmp");
+        FileOutputStream file = new FileOutputStream(temporaryPath);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+        try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(generation + 1);
+            writeNames(out, store.getObjIDs());
+            writeNames(out, store.getReaderIDs());
+            out.writeInt(open.size());
+            for (int i = 0; i < open.size(); i++) {
+                out.writeInt(open.getObjID(i));
+                out.writeInt(open.getReaderID(i));
+                out.writeLong(open.getStartTime(i));
+                out.writeLong(open.getEndTime(i));
+            }
+            out.writeInt(buffered.size());
+            for (int i = 0; i < buffered.size(); i++) {
+                out.writeInt(buffered.getObjID(i));
+                out.writeInt(buffered.getReaderID(i));
+                out.writeLong(buffered.getStartTime(i));
+            }
+            out.writeInt(pending.size());
+            for (long[] appearance : pending.values()) {
+                out.writeInt((int) appearance[0]);
+                out.writeInt((int) appearance[1]);
+                out.writeLong(appearance[2]);
+                out.writeLong(appearance[3]);
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(temporaryPath.toPath(), snapshotPath.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation++;
+    }
+
+    /* Replays one segment of the current generation; inserted appearances
+     * are collected, to be removed once every segment is replayed. */
+    private void replay(File path, AppearanceStore store, AppearanceTable openTable,
+            HashMap<String, Integer> buffered, ArrayList<Long> inserted) throws IOException {
+        if (!path.exists()) {
+            return;
+        }
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            MappedByteBuffer wal = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (wal.limit() >= HEADER_LENGTH && wal.getInt() == WAL_MAGIC && wal.getLong() == generation) {
+                replay(wal, path, store, openTable, buffered, inserted);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void replay(MappedByteBuffer wal, File path, AppearanceStore store, AppearanceTable openTable,
+            HashMap<String, Integer> buffered, ArrayList<Long> inserted) throws IOException {
+        AppearanceBatch closed = new AppearanceBatch();
+        byte recordType;
+        while (wal.hasRemaining() && (recordType = wal.get()) != END) {
+            switch (recordType) {
+                case OBJ_NAME:
+                case READER_NAME:
+                    int id = wal.getInt();
+                    byte[] bytes = new byte[wal.getShort() & 0xFFFF];
+                    wal.get(bytes);
+                    IdDictionary dictionary = recordType == OBJ_NAME ? store.getObjIDs() : store.getReaderIDs();
+                    if (dictionary.getId(new String(bytes, UTF8)) != id) {
+                        throw new IOException("The IDs of " + path + " are out of order.");
+                    }
+                    break;
+                case BUFFERED:
+                    addBuffered(buffered, wal.getLong(), wal.getLong(), 1);
+                    break;
+                case APPLIED:
+                    long key = wal.getLong();
+                    long time = wal.getLong();
+                    addBuffered(buffered, key, time, -1);
+                    openTable.add(key, time);
+                    break;
+                case CLOSED:
+                    int objID = wal.getInt();
+                    int readerID = wal.getInt();
+                    long startTime = wal.getLong();
+                    long endTime = wal.getLong();
+                    openTable.remove(AppearanceTable.getKey(objID, readerID), closed);
+                    addPending(objID, readerID, startTime, endTime);
+                    break;
+                case INSERTED:
+                    inserted.add((long) wal.getInt());
+                    inserted.add((long) wal.getInt());
+                    inserted.add(wal.getLong());
+                    break;
+                default:
+                    throw new IOException("Corrupt record " + recordType + " in " + path + ".");
+            }
+        }
+    }
+
+    /* Counts a buffered reading in, or out once it reached the table. */
+    private static void addBuffered(HashMap<String, Integer> buffered, long key, long time, int count) {
+        String reading = key + ":" + time;
+        Integer current = buffered.get(reading);
+        if (current != null || count > 0) {
+            int updated = (current == null ? 0 : current) + count;
+            if (updated == 0) {
+                buffered.remove(reading);
+            } else {
+                buffered.put(reading, updated);
+            }
+        }
+    }
+
+    private void addPending(int objID, int readerID, long startTime, long endTime) {
+        pending.put(getPendingKey(objID, readerID, startTime), new long[]{objID, readerID, startTime, endTime});
+    }
+
+    private static String getPendingKey(int objID, int readerID, long startTime) {
+        return objID + ":" + readerID + ":" + startTime;
+    }
+
+    private static void writeNames(DataOutputStream out, IdDictionary dictionary) throws IOException {
+        int size = dictionary.size();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeUTF(dictionary.getName(i));
+        }
+    }
+
+    private static void readNames(DataInputStream in, IdDictionary dictionary) throws IOException {
+        for (int i = 0, size = in.readInt(); i < size; i++) {
+            if (dictionary.getId(in.readUTF()) != i) {
+                throw new IOException("The IDs of the appearance snapshot are out of order.");
+            }
+        }
+    }
+
+    private File getSegmentPath(int i) {
+        return new File(walPath.getPath() + "." + i);
+    }
+    private static final int WAL_MAGIC = 0x554D574C;
+    private static final int SNAPSHOT_MAGIC = 0x554D534E;
+    private static final int HEADER_LENGTH = 12;
+    private static final long INITIAL_WAL_SIZE = 16L << 20;
+    private static final long INITIAL_SEGMENT_SIZE = 4L << 20;
+    private static final byte END = 0;
+    static final byte OBJ_NAME = 1;
+    static final byte READER_NAME = 2;
+    private static final byte BUFFERED = 3;
+    private static final byte APPLIED = 4;
+    private static final byte CLOSED = 5;
+    private static final byte INSERTED = 6;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final File walPath;
+    private final File snapshotPath;
+    private final ConcurrentHashMap<String, long[]> pending = new ConcurrentHashMap<>(); // closed but not inserted yet
+    private long generation = 0;
+    private AppearanceStore store = null;
+    private final Segment main;
+    private Segment[] segments = new Segment[0];
+}
@@ -0,0 +1,298 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is the server-wide store of open appearance records. It is
+ * sharded by object ID so that readings of one object always meet in the same
+ * shard, whichever reader connection they arrive on, and so that the
+ * condenser can drain the shards in parallel.
+ *
+ * Object IDs and reader IDs are mapped to dense integers by two shared
+ * dictionaries, and every shard keeps its appearances in a primitive
+ * AppearanceTable. Each shard is a lock stripe; an update holds it for a
+ * single probe of the table.
+ *
+ * By default appearances are condensed by the arrival time of their readings.
+ * In event-time mode they are condensed by the time attribute of the stream
+ * instead: the watermark trails the latest reading time of the whole store by
+ * the allowed lateness, every shard holds its readings in a bounded reorder
+ * buffer until the watermark passes them, and an appearance is closed once
+ * the watermark is the idle timeout past its end. Readings that come later
+ * than that still widen an open appearance, and are counted.
+ * Author: Sari Haj Hussein
+ */
+public class AppearanceStore {
+
+    /** The appearances of the store are closed once no reading touched them
+     * for idleTimeout milliseconds, checked every tickDuration
+     * milliseconds. A non-negative allowedLateness in milliseconds turns on
+     * event-time mode. */
+    public AppearanceStore(StreamSource streamSource, int shardCount, long idleTimeout, long tickDuration,
+            long allowedLateness) {
+        this.streamSource = streamSource;
+        this.allowedLateness = allowedLateness * NANOS_PER_MILLI;
+        int size = 1;
+        while (size < shardCount) { // round up to a power of two
+            size <<= 1;
+        }
+        shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new Shard(this, idleTimeout * NANOS_PER_MILLI, tickDuration * NANOS_PER_MILLI);
+        }
+    }
+
+    public Shard[] getShards() {
+        return shards;
+    }
+
+    public Shard getShard(int objID) {
+        return shards[getShardIndex(objID)];
+    }
+
+    public int getShardIndex(int objID) {
+        int h = objID * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (shards.length - 1);
+    }
+
+    /** This method starts or extends the appearance record of the object at
+     * the reader; the time is in nanoseconds since the epoch. */
+    public void add(int objID, int readerID, long time) {
+        if (isEventTime()) {
+            advanceMaxEventTime(time);
+        }
+        getShard(objID).add(objID, readerID, time);
+    }
+
+    /** This method reopens an appearance record, e.g. when recovering from
+     * the log; the times are in nanoseconds since the epoch. */
+    public void restore(int objID, int readerID, long startTime, long endTime) {
+        if (isEventTime()) {
+            advanceMaxEventTime(endTime);
+        }
+        getShard(objID).restore(objID, readerID, startTime, endTime);
+    }
+
+    private void advanceMaxEventTime(long time) {
+        long maxTime;
+        do {
+            maxTime = maxEventTime.get();
+        } while (time > maxTime && !maxEventTime.compareAndSet(maxTime, time));
+    }
+
+    /** This method makes the store write its transitions to the log, or
+     * stop doing so if the log is null. */
+    void setLog(AppearanceLog log) {
+        this.log = log;
+        objIDs.setLog(log, AppearanceLog.OBJ_NAME);
+        readerIDs.setLog(log, AppearanceLog.READER_NAME);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].setLog(log == null ? null : log.getSegment(i));
+        }
+    }
+
+    public AppearanceLog getLog() {
+        return log;
+    }
+
+    public boolean isEventTime() {
+        return allowedLateness >= 0;
+    }
+
+    /** This method returns the event time up to which no more readings are
+     * expected, in nanoseconds since the epoch. */
+    public long getWatermark() {
+        long maxTime = maxEventTime.get();
+        return maxTime == Long.MIN_VALUE ? Long.MIN_VALUE : maxTime - allowedLateness;
+    }
+
+    /** This method returns how many readings came after the watermark had
+     * passed them. */
+    public long getLateReadings() {
+        long lateReadings = 0;
+        for (Shard shard : shards) {
+            lateReadings += shard.getLateReadings();
+        }
+        return lateReadings;
+    }
+
+    /** This method returns the processing time that drives expiry, in
+     * nanoseconds since the epoch. */
+    public static long now() {
+        return System.currentTimeMillis() * NANOS_PER_MILLI;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public IdDictionary getObjIDs() {
+        return objIDs;
+    }
+
+    public IdDictionary getReaderIDs() {
+        return readerIDs;
+    }
+
+    public StreamSource getStreamSource() {
+        return streamSource;
+    }
+
+    /* One shard of the store. */
+    public static class Shard {
+
+        Shard(AppearanceStore store, long idleTimeout, long tickDuration) {
+            this.store = store;
+            this.idleTimeout = idleTimeout;
+            this.tickDuration = tickDuration;
+            if (store.isEventTime()) {
+                reorderBuffer = new ReorderBuffer(REORDER_CAPACITY);
+            } else {
+                memoryTable.enableExpiry(idleTimeout, tickDuration, now());
+            }
+        }
+
+        synchronized void add(int objID, int readerID, long time) {
+            long key = AppearanceTable.getKey(objID, readerID);
+            if (reorderBuffer == null) {
+                if (log != null) {
+                    log.logApplied(key, time);
+                }
+                memoryTable.add(key, time, now());
+            } else if (time < horizon) { // too late to be put in order
+                lateReadings++;
+                if (log != null) {
+                    log.logApplied(key, time);
+                }
+                memoryTable.add(key, time);
+            } else {
+                if (reorderBuffer.isFull()) {
+                    release(); // make room by condensing the earliest reading ahead of the watermark
+                }
+                if (log != null) {
+                    log.logBuffered(key, time);
+                }
+                reorderBuffer.offer(key, time);
+            }
+        }
+
+        /** This method reopens an appearance record, e.g. when recovering
+         * from the log. */
+        synchronized void restore(int objID, int readerID, long startTime, long endTime) {
+            long key = AppearanceTable.getKey(objID, readerID);
+            long touchTime = reorderBuffer == null ? now() : endTime;
+            if (!memoryTable.isExpiryEnabled()) {
+                memoryTable.enableExpiry(idleTimeout, tickDuration, startTime);
+            }
+            memoryTable.add(key, startTime, touchTime);
+            memoryTable.add(key, endTime, touchTime);
+        }
+
+        /** This method moves every appearance record that went idle into the
+         * batch. */
+        public synchronized void expire(AppearanceBatch batch) {
+            if (reorderBuffer == null) {
+                int from = batch.size();
+                memoryTable.expire(now(), batch);
+                logClosed(batch, from);
+                return;
+            }
+            long watermark = store.getWatermark();
+            while (!reorderBuffer.isEmpty() && reorderBuffer.peekTime() <= watermark) {
+                release();
+            }
+            batch.addAll(closedBatch);
+            closedBatch.clear();
+            if (memoryTable.isExpiryEnabled()) {
+                int from = batch.size();
+                memoryTable.expire(watermark, batch);
+                logClosed(batch, from);
+                horizon = Math.max(horizon, watermark);
+            }
+        }
+
+        /** This method moves every appearance record into the batch, e.g.
+         * when the server stops. */
+        public synchronized void drain(AppearanceBatch batch) {
+            if (reorderBuffer != null) {
+                while (!reorderBuffer.isEmpty()) {
+                    release();
+                }
+                batch.addAll(closedBatch);
+                closedBatch.clear();
+            }
+            int from = batch.size();
+            memoryTable.drain(batch, AppearanceTable.NO_KEY);
+            logClosed(batch, from);
+        }
+
+        public synchronized int size() {
+            return memoryTable.size() + (reorderBuffer == null ? 0 : reorderBuffer.size());
+        }
+
+        public synchronized long getLateReadings() {
+            return lateReadings;
+        }
+
+        synchronized void setLog(AppearanceLog.Segment log) {
+            this.log = log;
+        }
+
+        /* Appends the open appearances to open and the buffered readings to
+         * buffered; the caller holds the shard. Closed appearances are kept
+         * by the log itself. */
+        void copyTo(AppearanceBatch open, AppearanceBatch buffered) {
+            memoryTable.copyTo(open);
+            for (int i = 0; reorderBuffer != null && i < reorderBuffer.size(); i++) {
+                long key = reorderBuffer.getKey(i);
+                buffered.add(AppearanceTable.getObjID(key), AppearanceTable.getReaderID(key),
+                        reorderBuffer.getTime(i), reorderBuffer.getTime(i));
+            }
+        }
+
+        /* Adds the earliest buffered reading to the appearance table. */
+        private void release() {
+            long key = reorderBuffer.peekKey();
+            long time = reorderBuffer.peekTime();
+            reorderBuffer.remove();
+            if (!memoryTable.isExpiryEnabled()) {
+                memoryTable.enableExpiry(idleTimeout, tickDuration, time);
+            }
+            int from = closedBatch.size();
+            memoryTable.addInOrder(key, time, closedBatch);
+            logClosed(closedBatch, from);
+            if (log != null) {
+                log.logApplied(key, time);
+            }
+            horizon = Math.max(horizon, time);
+        }
+
+        private void logClosed(AppearanceBatch batch, int from) {
+            if (log != null && batch.size() > from) {
+                log.logClosed(batch, from);
+            }
+        }
+        private static final int REORDER_CAPACITY = 1 << 16;
+        private final AppearanceStore store;
+        private final long idleTimeout;
+        private final long tickDuration;
+        private final AppearanceTable memoryTable = new AppearanceTable(1024);
+        private final AppearanceBatch closedBatch = new AppearanceBatch();
+        private ReorderBuffer reorderBuffer = null;
+        private long horizon = Long.MIN_VALUE; // the event time up to which the shard is condensed
+        private long lateReadings = 0;
+        private AppearanceLog.Segment log = null;
+    }
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private final StreamSource streamSource;
+    private final long allowedLateness;
+    private final AtomicLong maxEventTime = new AtomicLong(Long.MIN_VALUE);
+    private volatile AppearanceLog log = null;
+    private final Shard[] shards;
+    private final IdDictionary objIDs = new IdDictionary();
+    private final IdDictionary readerIDs = new IdDictionary();
+}
@@ -0,0 +1,313 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.util.Arrays;
+
+/**
+ * This class is an open-addressing hash table of open appearance records.
+ * The key packs the dense object ID and reader ID into one long, and the
+ * first and last time of the appearance are stored in primitive columns, so
+ * updating an appearance for a reading allocates nothing. Collisions are
+ * resolved by linear probing and removals by backward shifting, so there are
+ * no tombstones. The table is not thread-safe.
+ *
+ * With expiry enabled, every appearance is closed once it has not been
+ * touched for the idle timeout. A timing wheel holds each key once; a
+ * reading only records its touch time, and a key whose bucket comes due
+ * while it is still active is simply rescheduled, so the cost per reading is
+ * O(1) and no periodic scan of the table is needed.
+ * Author: Sari Haj Hussein
+ */
+public class AppearanceTable {
+
+    public AppearanceTable(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /** This method makes appearances expire after idleTimeout, checked with
+     * a granularity of tickDuration; now is the current touch time. */
+    public void enableExpiry(long idleTimeout, long tickDuration, long now) {
+        this.idleTimeout = idleTimeout;
+        this.timingWheel = new TimingWheel(tickDuration, idleTimeout, now);
+    }
+
+    /** This method returns how many appearance records a table may hold
+     * within the memory budget, in bytes, before it grows. */
+    public static int getMaxSize(long memoryBudget) {
+        long capacity = 16;
+        while (2 * capacity * BYTES_PER_SLOT <= memoryBudget && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return (int) (capacity / 2);
+    }
+
+    public static long getKey(int objID, int readerID) {
+        return ((long) objID << 32) | (readerID & 0xFFFFFFFFL);
+    }
+
+    public static int getObjID(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int getReaderID(long key) {
+        return (int) key;
+    }
+
+    /** This method starts the appearance record of the key if it neither
+     * started nor ended, and otherwise widens it to the specified time, which
+     * may come before its start when readings arrive out of order. */
+    public void add(long key, long time) {
+        add(key, time, time);
+    }
+
+    /** This method adds a reading whose touch time, which drives expiry,
+     * differs from its time, e.g. the arrival time of an online reading. */
+    public void add(long key, long time, long touchTime) {
+        int slot = find(key);
+        if (keys[slot] == NO_KEY) {
+            keys[slot] = key;
+            startTimes[slot] = time;
+            endTimes[slot] = time;
+            touchTimes[slot] = touchTime;
+            if (timingWheel != null) {
+                scheduledTicks[slot] = timingWheel.getTick(touchTime + idleTimeout);
+                timingWheel.schedule(key, scheduledTicks[slot]);
+            }
+            if (++size > threshold) {
+                rehash(2 * keys.length);
+            }
+        } else {
+            startTimes[slot] = Math.min(startTimes[slot], time);
+            endTimes[slot] = Math.max(endTimes[slot], time);
+            touchTimes[slot] = Math.max(touchTimes[slot], touchTime);
+        }
+        lastKey = key;
+    }
+
+    /** This method adds a reading that comes in event-time order, touching
+     * the appearance at the reading's time. A reading that comes more than
+     * the idle timeout after the end of its appearance closes that appearance
+     * into the batch and starts a new one. */
+    public void addInOrder(long key, long time, AppearanceBatch batch) {
+        int slot = find(key);
+        if (keys[slot] != NO_KEY && time - endTimes[slot] > idleTimeout) {
+            batch.add(getObjID(key), getReaderID(key), startTimes[slot], endTimes[slot]);
+            startTimes[slot] = time; // the key stays scheduled, and is rescheduled once due
+            endTimes[slot] = time;
+            touchTimes[slot] = time;
+            lastKey = key;
+        } else {
+            add(key, time, time);
+        }
+    }
+
+    public boolean isExpiryEnabled() {
+        return timingWheel != null;
+    }
+
+    /** This method moves every appearance record that has been idle for the
+     * idle timeout at the touch time now into the batch. */
+    public void expire(long now, AppearanceBatch batch) {
+        int dueCount = timingWheel.advance(now);
+        for (int i = 0; i < dueCount; i++) {
+            long key = timingWheel.getDueKey(i);
+            int slot = find(key);
+            if (keys[slot] == NO_KEY || !timingWheel.isScheduledAt(scheduledTicks[slot], i)) {
+                continue; // the record was removed, or this is a stale schedule of it
+            }
+            if (touchTimes[slot] + idleTimeout <= now) {
+                batch.add(getObjID(key), getReaderID(key), startTimes[slot], endTimes[slot]);
+                delete(slot);
+            } else { // touched since it was scheduled
+                scheduledTicks[slot] = timingWheel.getTick(touchTimes[slot] + idleTimeout);
+                timingWheel.schedule(key, scheduledTicks[slot]);
+            }
+        }
+    }
+
+    public boolean contains(long key) {
+        return keys[find(key)] != NO_KEY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** This method returns the key of the last added reading. */
+    public long getLastKey() {
+        return lastKey;
+    }
+
+    /** This method removes the appearance record of the key, if any, and
+     * appends it to the batch. */
+    public boolean remove(long key, AppearanceBatch batch) {
+        int slot = find(key);
+        if (keys[slot] == NO_KEY) {
+            return false;
+        }
+        batch.add(getObjID(key), getReaderID(key), startTimes[slot], endTimes[slot]);
+        delete(slot);
+        return true;
+    }
+
+    /** This method removes every appearance record except the one of
+     * keepKey (pass NO_KEY to remove all) and appends them to the batch. */
+    public void drain(AppearanceBatch batch, long keepKey) {
+        int kept = NO_SLOT;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] == NO_KEY) {
+                continue;
+            }
+            if (keys[slot] == keepKey) {
+                kept = slot;
+            } else {
+                batch.add(getObjID(keys[slot]), getReaderID(keys[slot]), startTimes[slot], endTimes[slot]);
+                keys[slot] = NO_KEY;
+            }
+        }
+        size = 0;
+        if (kept != NO_SLOT) { // move it back to where a lookup starts probing
+            keys[kept] = NO_KEY;
+            int slot = find(keepKey);
+            copySlot(kept, slot);
+            keys[slot] = keepKey;
+            size = 1;
+        }
+    }
+
+    /** This method removes the count least recently touched appearance
+     * records and appends them to the batch in the order of their keys, i.e.
+     * by object ID and then reader ID. */
+    public void evictLeastRecent(int count, AppearanceBatch batch) {
+        count = Math.min(count, size);
+        if (count == 0) {
+            return;
+        }
+        long[] occupiedTouchTimes = new long[size];
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != NO_KEY) {
+                occupiedTouchTimes[n++] = touchTimes[slot];
+            }
+        }
+        Arrays.sort(occupiedTouchTimes);
+        long lastTouchTime = occupiedTouchTimes[count - 1];
+        int olderCount = 0; // those touched before lastTouchTime all go; ties fill up the rest
+        while (olderCount < count && occupiedTouchTimes[olderCount] < lastTouchTime) {
+            olderCount++;
+        }
+        long[] evictedKeys = new long[count];
+        n = 0;
+        int ties = count - olderCount;
+        for (int slot = 0; slot < keys.length && n < count; slot++) {
+            if (keys[slot] == NO_KEY || touchTimes[slot] > lastTouchTime) {
+                continue;
+            }
+            if (touchTimes[slot] == lastTouchTime) {
+                if (ties == 0) {
+                    continue;
+                }
+                ties--;
+            }
+            evictedKeys[n++] = keys[slot];
+        }
+        Arrays.sort(evictedKeys);
+        for (long key : evictedKeys) {
+            remove(key, batch);
+        }
+    }
+
+    /** This method appends every appearance record to the batch and keeps
+     * them in the table. */
+    public void copyTo(AppearanceBatch batch) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != NO_KEY) {
+                batch.add(getObjID(keys[slot]), getReaderID(keys[slot]), startTimes[slot], endTimes[slot]);
+            }
+        }
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != NO_KEY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (keys[next] != NO_KEY) { // shift back the entries that probed past the hole
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                copySlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = NO_KEY;
+        size--;
+    }
+
+    /* Copies every column except the key. */
+    private void copySlot(int from, int to) {
+        startTimes[to] = startTimes[from];
+        endTimes[to] = endTimes[from];
+        touchTimes[to] = touchTimes[from];
+        scheduledTicks[to] = scheduledTicks[from];
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldStartTimes = startTimes;
+        long[] oldEndTimes = endTimes;
+        long[] oldTouchTimes = touchTimes;
+        long[] oldScheduledTicks = scheduledTicks;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != NO_KEY) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                startTimes[slot] = oldStartTimes[i];
+                endTimes[slot] = oldEndTimes[i];
+                touchTimes[slot] = oldTouchTimes[i];
+                scheduledTicks[slot] = oldScheduledTicks[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, NO_KEY);
+        startTimes = new long[capacity];
+        endTimes = new long[capacity];
+        touchTimes = new long[capacity];
+        scheduledTicks = new long[capacity];
+        threshold = capacity / 2;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+    public static final long NO_KEY = -1L;
+    public static final int BYTES_PER_SLOT = 40; // the key and four times
+    private static final int NO_SLOT = -1;
+    private long[] keys;
+    private long[] startTimes;
+    private long[] endTimes;
+    private long[] touchTimes;
+    private long[] scheduledTicks;
+    private int size = 0;
+    private int threshold;
+    private long lastKey = NO_KEY;
+    private long idleTimeout = 0;
+    private TimingWheel timingWheel = null;
+}
@@ -0,0 +1,217 @@
+package info.sarihh.unimodeling.streamapi;
+
+import info.sarihh.unimodeling.utility.BulkLoader;
+import info.sarihh.unimodeling.utility.CheckpointStore;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * This thread writes closed appearances into APPEAR_TABLE. Condensers hand
+ * it whole batches, and it loads them into the DBMS through a BulkLoader,
+ * committing each group of up to batchSize appearances in one transaction. A
+ * group is written once it is full, or once its first appearance has waited
+ * for the linger time. Condensers wait when the writer falls far behind. The
+ * writer has a connection of its own, which it closes when it stops. A writer
+ * with a checkpoint stage commits only together with the checkpoints of the
+ * stage instead, so APPEAR_TABLE never holds appearances past the saved
+ * position.
+ * Author: Sari Haj Hussein
+ */
+public class AppearanceWriter extends Thread {
+
+    /** The linger time is in milliseconds. */
+    public AppearanceWriter(Connection connection, IdDictionary objIDs, IdDictionary readerIDs,
+            int batchSize, long lingerTime) {
+        super("APPEAR_TABLE writer");
+        setDaemon(true);
+        this.connection = connection;
+        this.objIDs = objIDs;
+        this.readerIDs = readerIDs;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerTime = lingerTime * 1000000L;
+    }
+
+    /** This method makes the writer log every appearance it committed. */
+    public void setLog(AppearanceLog log) {
+        this.log = log;
+    }
+
+    /** This method queues the appearances of the batch for writing. */
+    public synchronized void write(AppearanceBatch batch) {
+        while (pending.size() >= MAX_PENDING_BATCHES * batchSize && isAlive()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        boolean wasEmpty = pending.size() == 0;
+        if (wasEmpty) {
+            firstPendingTime = System.nanoTime();
+        }
+        pending.addAll(batch);
+        if (wasEmpty || pending.size() >= batchSize) { // start the linger time or write a full group
+            notifyAll();
+        }
+    }
+
+    /** This method makes the writer commit the appearances between two
+     * checkpoints of the stage in the transaction that saves the second one,
+     * so that a resumed run neither repeats nor skips any; what is written
+     * after the last checkpoint is rolled back when the writer stops. It must
+     * be called before the first write, and the writer must have no log. */
+    public synchronized void setCheckpointStage(String stage) {
+        checkpointStage = stage;
+    }
+
+    /** This method saves the position of the checkpoint stage in
+     * CHECKPOINT_TABLE together with the appearances written since the last
+     * one; the caller must have written every appearance up to the position.
+     * Once a group of appearances has failed, nothing is committed any more,
+     * so a resumed run redoes everything after the last checkpoint. */
+    public synchronized void checkpoint(String position) {
+        pendingCheckpoint = position;
+        notifyAll();
+        while (pendingCheckpoint != null && isAlive()) { // keep later appearances out of its transaction
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /** This method writes what is left and stops the writer. */
+    public void close() {
+        synchronized (this) {
+            closing = true;
+            notifyAll();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            loader = new BulkLoader(connection, "APPEAR_TABLE", 4, batchSize);
+            try {
+                while (takePending()) {
+                    execute();
+                }
+            } finally {
+                loader.close();
+                if (checkpointStage != null) {
+                    connection.rollback(); // not covered by a checkpoint
+                }
+                connection.setAutoCommit(autoCommit);
+                connection.close();
+            }
+        } catch (SQLException e) {
+            for (Throwable t : e) {
+                t.printStackTrace();
+            }
+        } finally {
+            synchronized (this) {
+                notifyAll(); // release condensers waiting for room
+            }
+        }
+    }
+
+    /* Waits for a full group, a lingering one, or the end, and swaps it into
+     * the writing batch; returns false when there is nothing left. */
+    private synchronized boolean takePending() {
+        while (!closing && pending.size() < batchSize && pendingCheckpoint == null) {
+            try {
+                if (pending.size() == 0) {
+                    wait();
+                } else {
+                    long waited = System.nanoTime() - firstPendingTime;
+                    if (waited >= lingerTime) {
+                        break;
+                    }
+                    long remaining = lingerTime - waited;
+                    wait(remaining / 1000000L, (int) (remaining % 1000000L));
+                }
+            } catch (InterruptedException e) {
+                closing = true;
+            }
+        }
+        if (pending.size() == 0 && pendingCheckpoint == null) {
+            return false;
+        }
+        writingCheckpoint = pendingCheckpoint;
+        pendingCheckpoint = null;
+        AppearanceBatch swap = writing;
+        writing = pending;
+        pending = swap;
+        pending.clear();
+        firstPendingTime = System.nanoTime();
+        notifyAll();
+        return true;
+    }
+
+    private void execute() throws SQLException {
+        if (failed && checkpointStage != null) { // would be rolled back anyway
+            return;
+        }
+        for (int from = 0; from < writing.size() || (from == 0 && writingCheckpoint != null); from += batchSize) {
+            int to = Math.min(writing.size(), from + batchSize);
+            try {
+                for (int i = from; i < to; i++) {
+                    loader.add(objIDs.getName(writing.getObjID(i)),
+                            Integer.valueOf(readerIDs.getName(writing.getReaderID(i))),
+                            AppearanceBatch.toTimestamp(writing.getStartTime(i)),
+                            AppearanceBatch.toTimestamp(writing.getEndTime(i)));
+                }
+                loader.flush();
+                if (checkpointStage == null) {
+                    connection.commit();
+                } else if (to == writing.size() && writingCheckpoint != null) {
+                    new CheckpointStore(connection).save(checkpointStage, writingCheckpoint);
+                    connection.commit();
+                }
+            } catch (SQLException e) {
+                for (Throwable t : e) {
+                    t.printStackTrace();
+                }
+                loader.clear();
+                connection.rollback();
+                failed = true;
+                if (checkpointStage != null) {
+                    return;
+                }
+                continue; // the appearances stay pending in the log, if any
+            }
+            AppearanceLog log = this.log;
+            if (log != null) {
+                for (int i = from; i < to; i++) {
+                    log.logInserted(writing.getObjID(i), writing.getReaderID(i), writing.getStartTime(i));
+                }
+            }
+        }
+    }
+    private static final int MAX_PENDING_BATCHES = 8;
+    private final Connection connection;
+    private final IdDictionary objIDs;
+    private final IdDictionary readerIDs;
+    private final int batchSize;
+    private final long lingerTime;
+    private volatile AppearanceLog log = null;
+    private BulkLoader loader;
+    private AppearanceBatch pending = new AppearanceBatch();
+    private AppearanceBatch writing = new AppearanceBatch();
+    private long firstPendingTime;
+    private String checkpointStage = null;
+    private String pendingCheckpoint = null; // the position to save with the pending appearances
+    private String writingCheckpoint = null;
+    private boolean failed = false;
+    private boolean closing = false;
+}
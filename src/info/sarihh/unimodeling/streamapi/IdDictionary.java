@@ -0,0 +1,58 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class maps object IDs (e.g. license plates) or reader IDs to dense
+ * integers and back. Looking up a known ID does not allocate, and new IDs are
+ * appended under a lock, so the dictionary can be shared by concurrent
+ * condensers.
+ * Author: Sari Haj Hussein
+ */
+public class IdDictionary {
+
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id == null) {
+                id = size;
+                if (log != null) { // before the ID is published, so no record can refer to it first
+                    log.logName(logRecordType, id, name);
+                }
+                String[] current = names;
+                if (size == current.length) {
+                    current = Arrays.copyOf(current, 2 * size);
+                }
+                current[size] = name;
+                names = current;
+                size++;
+                ids.put(name, id); // publishes names[id] to readers that find the ID
+            }
+            return id;
+        }
+    }
+
+    public String getName(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** This method makes the dictionary write every new ID to the log. */
+    synchronized void setLog(AppearanceLog log, byte logRecordType) {
+        this.log = log;
+        this.logRecordType = logRecordType;
+    }
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[1024];
+    private volatile int size = 0;
+    private AppearanceLog log = null;
+    private byte logRecordType;
+}
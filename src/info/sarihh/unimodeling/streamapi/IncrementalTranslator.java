@@ -0,0 +1,205 @@
+package info.sarihh.unimodeling.streamapi;
+
+import info.sarihh.unimodeling.gui.ProbabilisticTranslatorFrame;
+import info.sarihh.unimodeling.utility.BulkLoader;
+import info.sarihh.unimodeling.utility.CheckpointStore;
+import info.sarihh.unimodeling.utility.ProbabilisticLocationMap;
+import info.sarihh.unimodeling.utility.SchemaManager;
+import info.sarihh.unimodeling.utility.SqlDialect;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * This class keeps PROB_TABLE up to date with APPEAR_TABLE while the RFID
+ * server is writing it. It remembers a watermark, the highest E_TIME it has
+ * translated, as the checkpoint of its stage, and every refresh translates
+ * the appearance records whose E_TIME is past the watermark, in the JVM or in
+ * the DBMS, and moves the watermark in the same transaction. Appearances are
+ * written once they close, which is up to the idle timeout of the condenser
+ * after their end, so a refresh stops the settle time before the newest
+ * E_TIME; the appearances after that wait for the next refresh. The settle
+ * time must therefore cover the idle timeout and the allowed lateness of the
+ * RFID server; an appearance written later than that ends behind the
+ * watermark and is skipped, and the next refresh recounts the window before
+ * it to log how many were. Without a watermark, the first refresh starts
+ * after the newest E_TIME in PROB_TABLE, so it continues a full translation
+ * instead of repeating it.
+ * Author: Sari Haj Hussein
+ */
+public class IncrementalTranslator {
+
+    /** The settle time is in milliseconds. */
+    public IncrementalTranslator(ProbabilisticTranslatorFrame translatorFrame, ProbabilisticLocationMap locationMap,
+            String stage, long settleTime, boolean inDatabase) {
+        this.translatorFrame = translatorFrame;
+        this.locationMap = locationMap;
+        this.stage = stage;
+        this.settleTime = settleTime;
+        this.inDatabase = inDatabase;
+    }
+
+    /** This method refreshes PROB_TABLE every refreshInterval milliseconds
+     * until stop is called; it returns how many appearance records were
+     * translated. */
+    public long run(long refreshInterval) throws SQLException, InterruptedException {
+        Connection conn = translatorFrame.getConnection();
+        SqlDialect dialect = SqlDialect.forConnection(conn);
+        new SchemaManager(conn).createIndex("APPEAR_TABLE", "APPEAR_TABLE_END_IDX", "E_TIME");
+        if (inDatabase) {
+            SqlTranslatorTask.loadMappingTable(conn, dialect, locationMap);
+        }
+        CheckpointStore checkpointStore = new CheckpointStore(conn);
+        checkpointStore.createTable();
+        long translatedRecords = 0;
+        while (!stopped) {
+            translatedRecords += refresh(conn, dialect, checkpointStore);
+            synchronized (this) {
+                if (!stopped) {
+                    wait(refreshInterval);
+                }
+            }
+        }
+        return translatedRecords;
+    }
+
+    /** This method makes the translation stop after the refresh it is in. */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /** This method returns how many appearance records came from readers
+     * that are not in the location map; it counts in the JVM only. */
+    public long getUnknownReaderRecords() {
+        return unknownReaderRecords;
+    }
+
+    /* Translates the appearance records between the watermark and the
+     * settle time before the newest E_TIME, and moves the watermark there. */
+    private long refresh(Connection conn, SqlDialect dialect, CheckpointStore checkpointStore) throws SQLException {
+        String saved = checkpointStore.load(stage);
+        Timestamp watermark = saved != null ? Timestamp.valueOf(saved)
+                : new SchemaManager(conn).getTimeRange("PROB_TABLE", "E_TIME")[1];
+        Timestamp newest = new SchemaManager(conn).getTimeRange("APPEAR_TABLE", "E_TIME")[1];
+        if (newest == null) {
+            return 0;
+        }
+        Timestamp cutoff = new Timestamp(newest.getTime() - settleTime);
+        if (watermark != null && !cutoff.after(watermark)) {
+            return 0;
+        }
+        String condition = (watermark == null ? "" : "A.E_TIME > ? AND ") + "A.E_TIME <= ?";
+        logSkippedRecords(conn);
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false); // the records and the watermark after them are committed together
+        try {
+            long translatedRecords = inDatabase ? refreshInDatabase(conn, dialect, condition, watermark, cutoff)
+                    : refreshInJvm(conn, condition, watermark, cutoff);
+            checkpointStore.save(stage, cutoff.toString());
+            conn.commit();
+            windowStart = watermark;
+            windowEnd = cutoff;
+            windowRecords = translatedRecords;
+            if (translatedRecords > 0) {
+                translatorFrame.appendLogText(translatedRecords + " appearance records that ended by " + cutoff
+                        + " were probabilistically translated.");
+            }
+            return translatedRecords;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /* Recounts the appearance records of the window that the last refresh
+     * translated, and logs the ones that were written after it. */
+    private void logSkippedRecords(Connection conn) throws SQLException {
+        if (windowEnd == null) {
+            return;
+        }
+        PreparedStatement statement = conn.prepareStatement("SELECT COUNT(*) FROM APPEAR_TABLE A WHERE "
+                + (windowStart == null ? "" : "A.E_TIME > ? AND ") + "A.E_TIME <= ?");
+        try {
+            bind(statement, windowStart, windowEnd);
+            ResultSet resultSet = statement.executeQuery();
+            long records = resultSet.next() ? resultSet.getLong(1) : windowRecords;
+            resultSet.close();
+            if (records > windowRecords) {
+                translatorFrame.appendLogText((records - windowRecords) + " appearance records that ended by "
+                        + windowEnd + " were written after they were translated, and are skipped; "
+                        + "raise the settle time.");
+                windowRecords = records;
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private long refreshInDatabase(Connection conn, SqlDialect dialect, String condition, Timestamp watermark,
+            Timestamp cutoff) throws SQLException {
+        PreparedStatement statement = conn.prepareStatement(SqlTranslatorTask.getQuery(dialect, condition));
+        try {
+            bind(statement, watermark, cutoff);
+            return statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private long refreshInJvm(Connection conn, String condition, Timestamp watermark, Timestamp cutoff)
+            throws SQLException {
+        PreparedStatement statement = conn.prepareStatement("SELECT A.LICENSE_PLATE, A.LOCATION_ID, A.S_TIME, "
+                + "A.E_TIME FROM APPEAR_TABLE A WHERE " + condition, ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+        BulkLoader loader = new BulkLoader(conn, "PROB_TABLE", 5);
+        try {
+            bind(statement, watermark, cutoff);
+            statement.setFetchSize(FETCH_SIZE);
+            ResultSet resultSet = statement.executeQuery();
+            long translatedRecords = 0;
+            while (resultSet.next()) {
+                int reader = resultSet.getInt(2);
+                String probLoc = locationMap.getProbLoc(reader);
+                if (probLoc == null) {
+                    unknownReaderRecords++;
+                }
+                loader.add(resultSet.getString(1), probLoc, locationMap.getProbVec(reader), resultSet.getTimestamp(3),
+                        resultSet.getTimestamp(4));
+                translatedRecords++;
+            }
+            resultSet.close();
+            loader.close();
+            return translatedRecords;
+        } catch (SQLException e) {
+            loader.clear();
+            throw e;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Timestamp watermark, Timestamp cutoff)
+            throws SQLException {
+        int parameter = 1;
+        if (watermark != null) {
+            statement.setTimestamp(parameter++, watermark);
+        }
+        statement.setTimestamp(parameter, cutoff);
+    }
+    private static final int FETCH_SIZE = 1000;
+    private final ProbabilisticTranslatorFrame translatorFrame;
+    private final ProbabilisticLocationMap locationMap;
+    private final String stage;
+    private final long settleTime;
+    private final boolean inDatabase;
+    private Timestamp windowStart;
+    private Timestamp windowEnd;
+    private long windowRecords;
+    private volatile long unknownReaderRecords = 0;
+    private volatile boolean stopped = false;
+}
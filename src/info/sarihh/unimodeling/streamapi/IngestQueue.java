@@ -0,0 +1,259 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a bounded ring buffer of readings between the threads that
+ * read them from the network and the thread that condenses them. Readings
+ * are held as dense object ID, reader ID and time in primitive columns.
+ *
+ * When the ring is full, the overflow policy decides: BLOCK makes the
+ * producer wait, or makes offer fail and call the producer back once the
+ * ring has drained to half, so that readers see TCP backpressure; DROP_OLDEST
+ * overwrites the oldest reading; SPILL appends the reading to a spill file,
+ * and keeps appending until the consumer has read the file back, so that
+ * readings stay in arrival order.
+ * Author: Sari Haj Hussein
+ */
+public class IngestQueue {
+
+    public enum OverflowPolicy {
+
+        BLOCK, DROP_OLDEST, SPILL
+    }
+
+    public IngestQueue(int capacity, OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        objIDs = new int[capacity];
+        readerIDs = new int[capacity];
+        times = new long[capacity];
+    }
+
+    /** This method enqueues a reading, waiting for room if the policy is
+     * BLOCK. */
+    public void put(int objID, int readerID, long time) throws InterruptedException, IOException {
+        lock.lock();
+        try {
+            while (overflowPolicy == OverflowPolicy.BLOCK && size == objIDs.length && !closed) {
+                notFull.await();
+            }
+            enqueue(objID, readerID, time);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** This method enqueues a reading without ever waiting. If the policy is
+     * BLOCK and the ring is full, it returns false instead and runs the
+     * listener once the ring has drained to half or the queue is closed; the
+     * listener runs on the consumer thread and must not block. */
+    public boolean offer(int objID, int readerID, long time, Runnable roomListener) throws IOException {
+        lock.lock();
+        try {
+            if (overflowPolicy == OverflowPolicy.BLOCK && size == objIDs.length && !closed) {
+                roomListeners.add(roomListener);
+                return false;
+            }
+            enqueue(objID, readerID, time);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** This method moves up to the length of the arrays of readings into
+     * them, waiting until there is at least one. It returns -1 once the queue
+     * is closed and empty. */
+    public int drainTo(int[] objIDs, int[] readerIDs, long[] times) throws InterruptedException, IOException {
+        lock.lock();
+        try {
+            while (size == 0 && spillCount == 0) {
+                if (closed) {
+                    return -1;
+                }
+                notEmpty.await();
+            }
+            int count = 0;
+            while (count < objIDs.length && size > 0) {
+                objIDs[count] = this.objIDs[head];
+                readerIDs[count] = this.readerIDs[head];
+                times[count] = this.times[head];
+                head = (head + 1) % this.objIDs.length;
+                size--;
+                count++;
+            }
+            if (count == 0) { // the ring is empty, so the spilled readings are next
+                count = unspill(objIDs, readerIDs, times);
+            }
+            notFull.signalAll();
+            if (size <= this.objIDs.length / 2) {
+                notifyRoomListeners();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** This method makes the consumer return once the queue is empty, and
+     * wakes up blocked producers. */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            notifyRoomListeners();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** This method deletes the spill file, if any. */
+    public void dispose() throws IOException {
+        lock.lock();
+        try {
+            if (spillFile != null) {
+                spillFile.close();
+                spillPath.delete();
+                spillFile = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** This method returns how many readings wait to be condensed, spilled
+     * ones included. */
+    public long getDepth() {
+        lock.lock();
+        try {
+            return size + spillCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSpilled() {
+        lock.lock();
+        try {
+            return spilled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(int objID, int readerID, long time) throws IOException {
+        if (closed) {
+            throw new IOException("The ingest queue is closed.");
+        }
+        if (size == objIDs.length || spillCount > 0) {
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    head = (head + 1) % objIDs.length;
+                    size--;
+                    dropped++;
+                    break;
+                case SPILL:
+                    spill(objID, readerID, time);
+                    notEmpty.signal();
+                    return;
+            }
+        }
+        int tail = (head + size) % objIDs.length;
+        objIDs[tail] = objID;
+        readerIDs[tail] = readerID;
+        times[tail] = time;
+        size++;
+        notEmpty.signal();
+    }
+
+    private void notifyRoomListeners() {
+        for (Runnable roomListener : roomListeners) {
+            roomListener.run();
+        }
+        roomListeners.clear();
+    }
+
+    private void spill(int objID, int readerID, long time) throws IOException {
+        if (spillFile == null) {
+            spillPath = File.createTempFile("rfid-ingest", ".spill");
+            spillPath.deleteOnExit();
+            spillFile = new RandomAccessFile(spillPath, "rw");
+        }
+        if (!spillBuffer.hasRemaining()) {
+            flushSpillBuffer();
+        }
+        spillBuffer.putInt(objID).putInt(readerID).putLong(time);
+        spillCount++;
+        spilled++;
+    }
+
+    private void flushSpillBuffer() throws IOException {
+        spillFile.seek(spillWritePosition);
+        spillFile.write(spillBuffer.array(), 0, spillBuffer.position());
+        spillWritePosition += spillBuffer.position();
+        spillBuffer.clear();
+    }
+
+    private int unspill(int[] objIDs, int[] readerIDs, long[] times) throws IOException {
+        flushSpillBuffer();
+        int count = (int) Math.min(objIDs.length, spillCount);
+        if (unspillBuffer.capacity() < count * SPILL_RECORD_LENGTH) {
+            unspillBuffer = ByteBuffer.allocate(count * SPILL_RECORD_LENGTH);
+        }
+        ByteBuffer buffer = unspillBuffer;
+        buffer.clear();
+        spillFile.seek(spillReadPosition);
+        spillFile.readFully(buffer.array(), 0, count * SPILL_RECORD_LENGTH);
+        spillReadPosition += count * SPILL_RECORD_LENGTH;
+        for (int i = 0; i < count; i++) {
+            objIDs[i] = buffer.getInt();
+            readerIDs[i] = buffer.getInt();
+            times[i] = buffer.getLong();
+        }
+        spillCount -= count;
+        if (spillCount == 0) { // caught up, so start the file over
+            spillFile.setLength(0);
+            spillReadPosition = 0;
+            spillWritePosition = 0;
+        }
+        return count;
+    }
+    private static final int SPILL_RECORD_LENGTH = 16;
+    private final OverflowPolicy overflowPolicy;
+    private final int[] objIDs;
+    private final int[] readerIDs;
+    private final long[] times;
+    private int head = 0;
+    private int size = 0;
+    private boolean closed = false;
+    private long dropped = 0;
+    private long spilled = 0;
+    private long spillCount = 0; // spilled readings not read back yet
+    private long spillReadPosition = 0;
+    private long spillWritePosition = 0;
+    private File spillPath = null;
+    private RandomAccessFile spillFile = null;
+    private final ByteBuffer spillBuffer = ByteBuffer.allocate(4096 * SPILL_RECORD_LENGTH);
+    private ByteBuffer unspillBuffer = ByteBuffer.allocate(0);
+    private final ArrayList<Runnable> roomListeners = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+}
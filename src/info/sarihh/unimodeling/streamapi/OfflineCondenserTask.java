@@ -1,80 +1,213 @@
 package info.sarihh.unimodeling.streamapi;
 
 import info.sarihh.unimodeling.gui.OfflineCondenserFrame;
-import java.sql.PreparedStatement;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.HashMap;
-import java.util.concurrent.ConcurrentHashMap;
 
 /*
+ * Readings are put back into the order of their time attribute by a bounded
+ * reorder buffer before they are condensed. A reading is held until the
+ * latest reading time seen so far is the allowed lateness past it; readings
+ * that come even later are condensed as they come, and are counted. Closed
+ * appearances are written by an APPEAR_TABLE writer in batches of the hash
+ * size.
+ *
+ * By default, the open appearance records are all closed whenever the
+ * in-memory hash structure holds the hash size of them. With a memory
+ * budget, they stay open instead: the reorder buffer takes its share of the
+ * budget first, and as soon as the structure is as large as the rest allows,
+ * the least recently touched quarter of the records is spilled to a sorted
+ * run on disk, before the structure would grow. The runs are merged back
+ * when the task is drained, so the heap stays flat however many objects are
+ * open.
  * Author: Sari Haj Hussein
  */
 public class OfflineCondenserTask {
 
-    public OfflineCondenserTask(OfflineCondenserFrame offlineTranslatorFrame,
-            ConcurrentHashMap<String, HashMap<String, String>> memoryMap,
-            int bulkSize) {
+    /** The allowed lateness is in milliseconds. */
+    public OfflineCondenserTask(OfflineCondenserFrame offlineTranslatorFrame, int bulkSize, long allowedLateness)
+            throws SQLException {
+        this(offlineTranslatorFrame, bulkSize, allowedLateness, new IdDictionary(), new IdDictionary(), null);
+    }
+
+    /** This constructor makes a task that condenses one partition of the
+     * readings and shares the dictionaries and the writer of the other
+     * partitions; flush leaves the shared writer open. Without a writer, the
+     * task starts its own. */
+    public OfflineCondenserTask(OfflineCondenserFrame offlineTranslatorFrame, int bulkSize, long allowedLateness,
+            IdDictionary objIDs, IdDictionary readerIDs, AppearanceWriter appearanceWriter) throws SQLException {
         this.offlineTranslatorFrame = offlineTranslatorFrame;
-        this.memoryMap = memoryMap;
         this.bulkSize = bulkSize;
+        this.allowedLateness = allowedLateness * 1000000L;
+        this.memoryTable = new AppearanceTable(bulkSize);
+        this.reorderBuffer = new ReorderBuffer(Math.max(1, bulkSize));
+        this.objIDs = objIDs;
+        this.readerIDs = readerIDs;
+        this.ownsWriter = appearanceWriter == null;
+        if (ownsWriter) {
+            appearanceWriter = new AppearanceWriter(offlineTranslatorFrame.getConnectionPool().getConnection(),
+                    objIDs, readerIDs, bulkSize, WRITER_LINGER_TIME);
+            appearanceWriter.start();
+        }
+        this.appearanceWriter = appearanceWriter;
     }
 
-    public void setSearchKey(String searchKey) {
-        this.searchKey = searchKey;
+    /** This method bounds the reorder buffer and the open appearance records
+     * by a memory budget, in bytes, instead of by the hash size; it must be
+     * called before the first reading. The reorder buffer is shrunk to half
+     * the budget if it is larger. */
+    public void setMemoryBudget(long memoryBudget) {
+        long reorderBytes = (long) reorderBuffer.capacity() * ReorderBuffer.BYTES_PER_SLOT;
+        if (reorderBytes > memoryBudget / 2) {
+            reorderBuffer = new ReorderBuffer((int) Math.max(1, memoryBudget / 2 / ReorderBuffer.BYTES_PER_SLOT));
+            reorderBytes = (long) reorderBuffer.capacity() * ReorderBuffer.BYTES_PER_SLOT;
+        }
+        maxOpenRecords = AppearanceTable.getMaxSize(memoryBudget - reorderBytes);
+        memoryTable = new AppearanceTable(maxOpenRecords);
+        spillRuns = new SpillRuns(null);
     }
 
-    public void condense() {
-        if (memoryMap.size() >= bulkSize) {
-            offlineTranslatorFrame.appendLogText("Condensing the in-memory hash structure with " + memoryMap.size() + " mappings.");
-            for (String objID : memoryMap.keySet()) {
-                if (!objID.contains(searchKey)) {
-                    objID = objID.substring(0, objID.lastIndexOf(",")); // strip off START and END
-                    offlineTranslatorFrame.getStreamSource().getObjIDAttributeName();
-                    offlineTranslatorFrame.getStreamSource().getReaderIDAttributeName();
-                    insert(objID); // insert the record into app_table
-                    memoryMap.remove(objID + ",START"); // and remove its first appearance from memoryMap
-                    memoryMap.remove(objID + ",END"); // and remove its last apperance from memoryMap
-                }
+    /** This method starts or extends the appearance record of the reading's
+     * object at the reading's reader. */
+    public void add(HashMap<String, String> reading) {
+        StreamSource streamSource = offlineTranslatorFrame.getStreamSource();
+        add(objIDs.getId(reading.get(streamSource.getObjIDAttributeName())),
+                readerIDs.getId(reading.get(streamSource.getReaderIDAttributeName())),
+                AppearanceBatch.toEpochNanos(Timestamp.valueOf(reading.get(streamSource.getTimeAttributeName()))));
+    }
+
+    /** The IDs are those of the dictionaries of the task, and the time is in
+     * nanoseconds since the epoch. */
+    public void add(int objID, int readerID, long time) {
+        long key = AppearanceTable.getKey(objID, readerID);
+        maxTime = Math.max(maxTime, time);
+        if (time < horizon) { // too late to be put in order
+            lateReadings++;
+            addToTable(key, time);
+        } else {
+            if (reorderBuffer.isFull()) {
+                release();
             }
-            if (memoryMap.size() <= 2) { // the last one or two rows
-                for (String objID : memoryMap.keySet()) {
-                    objID = objID.substring(0, objID.lastIndexOf(",")); // strip off START and END
-                    insert(objID); // insert the record into app_table
-                    memoryMap.remove(objID + ",START"); // and remove its first appearance from memoryMap
-                    memoryMap.remove(objID + ",END"); // and remove its last apperance from memoryMap
-                }
+            reorderBuffer.offer(key, time);
+        }
+        while (!reorderBuffer.isEmpty() && reorderBuffer.peekTime() <= maxTime - allowedLateness) {
+            release();
+        }
+    }
+
+    /** This method returns how many readings came later than the allowed
+     * lateness. */
+    public long getLateReadings() {
+        return lateReadings;
+    }
+
+    /* Adds the earliest buffered reading to the in-memory hash structure. */
+    private void release() {
+        long time = reorderBuffer.peekTime();
+        long key = reorderBuffer.peekKey();
+        reorderBuffer.remove();
+        addToTable(key, time);
+        horizon = Math.max(horizon, time);
+    }
+
+    /* With a memory budget, spills as soon as the structure is full, since
+     * one more record would make it grow. */
+    private void addToTable(long key, long time) {
+        memoryTable.add(key, time);
+        if (spillRuns != null && memoryTable.size() >= maxOpenRecords) {
+            spill();
+        }
+    }
+
+    public void condense() {
+        if (spillRuns != null) { // the structure spills as it fills
+            return;
+        }
+        if (memoryTable.size() >= bulkSize) {
+            offlineTranslatorFrame.appendLogText("Condensing the in-memory hash structure with " + memoryTable.size() + " mappings.");
+            batch.clear();
+            memoryTable.drain(batch, memoryTable.getLastKey());
+            if (memoryTable.size() <= 1) { // the last row
+                memoryTable.drain(batch, AppearanceTable.NO_KEY);
             }
-            System.gc(); // save memory
+            insert(); // insert the records into app_table
+        }
+    }
+
+    /** This method condenses the appearance records that are left once the
+     * stream has ended, and waits until every record is written unless the
+     * writer is shared. */
+    public void flush() {
+        drain();
+        if (ownsWriter) {
+            appearanceWriter.close();
+        }
+    }
+
+    /** This method hands every buffered reading and open appearance record
+     * to the writer, so nothing read so far is held by the task, e.g. before
+     * a checkpoint; records open across it are split there. */
+    public void drain() {
+        while (!reorderBuffer.isEmpty()) {
+            release();
+        }
+        batch.clear();
+        if (spillRuns != null && !spillRuns.isEmpty()) {
+            merge();
+            return;
         }
+        memoryTable.drain(batch, AppearanceTable.NO_KEY);
+        insert();
     }
 
-    public void insert(String searchKey) {
+    private void spill() {
+        batch.clear();
+        memoryTable.evictLeastRecent(maxOpenRecords / 4, batch);
+        offlineTranslatorFrame.appendLogText("Spilling " + batch.size() + " appearance records to disk.");
         try {
-            HashMap<String, String> s_record = memoryMap.get(searchKey + ",START");
-            HashMap<String, String> e_record = memoryMap.get(searchKey + ",END");
-            if (e_record == null) { // object appears once in only one location
-                e_record = s_record;
-            }
-            if (s_record != null && e_record != null) {
-                String query = "INSERT INTO APPEAR_TABLE VALUES (?, ?, ?, ?)";
-                statement = offlineTranslatorFrame.getConnection().prepareStatement(query);
-                statement.setString(1, s_record.get("LICENSE_PLATE"));
-                statement.setInt(2, Integer.parseInt(s_record.get("LOCATION_ID")));
-                statement.setTimestamp(3, Timestamp.valueOf(s_record.get("READING_TS")));
-                statement.setTimestamp(4, Timestamp.valueOf(e_record.get("READING_TS")));
-                statement.executeUpdate();
-            }
-            statement.close();
-        } catch (SQLException e) {
-            for (Throwable t : e) {
-                t.printStackTrace();
+            spillRuns.write(batch);
+        } catch (IOException e) {
+            throw new IllegalStateException("The appearance records cannot be spilled.", e);
+        }
+        batch.clear();
+    }
+
+    /* Writes the spilled records merged with those in memory. */
+    private void merge() {
+        AppearanceBatch memoryRun = new AppearanceBatch();
+        memoryTable.evictLeastRecent(memoryTable.size(), memoryRun);
+        try {
+            spillRuns.startMerge(memoryRun);
+            while (spillRuns.nextMerged(batch, Math.max(1, bulkSize))) {
+                insert();
+                batch.clear();
             }
+        } catch (IOException e) {
+            throw new IllegalStateException("The spilled appearance records cannot be merged.", e);
+        }
+    }
+
+    public void insert() {
+        if (batch.size() > 0) {
+            appearanceWriter.write(batch);
         }
     }
+    private static final long WRITER_LINGER_TIME = 200; // milliseconds
     private OfflineCondenserFrame offlineTranslatorFrame = null;
-    private ConcurrentHashMap<String, HashMap<String, String>> memoryMap = null;
+    private AppearanceTable memoryTable = null;
+    private ReorderBuffer reorderBuffer = null;
+    private AppearanceWriter appearanceWriter = null;
+    private SpillRuns spillRuns = null; // only with a memory budget
+    private boolean ownsWriter;
+    private AppearanceBatch batch = new AppearanceBatch();
+    private IdDictionary objIDs = null;
+    private IdDictionary readerIDs = null;
     private int bulkSize = 0;
-    private String searchKey = null;
-    private PreparedStatement statement = null;
-}
\ No newline at end of file
+    private int maxOpenRecords = 0;
+    private long allowedLateness = 0;
+    private long maxTime = Long.MIN_VALUE;
+    private long horizon = Long.MIN_VALUE; // the reading time up to which readings are condensed
+    private long lateReadings = 0;
+}
@@ -0,0 +1,224 @@
+package info.sarihh.unimodeling.streamapi;
+
+import info.sarihh.unimodeling.gui.OfflineCondenserFrame;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class condenses a stored stream on several worker threads. Readings
+ * are hash-partitioned by object ID, so all the readings of an object go to
+ * the same worker, which owns the appearance state of its partition in an
+ * OfflineCondenserTask; the appearances of an object never span two
+ * partitions, and the partitions are condensed independently. The reading
+ * thread only maps readings to IDs and packs them into per-worker chunks of
+ * primitive columns, and the workers condense them. All workers share the ID
+ * dictionaries and one APPEAR_TABLE writer. At a checkpoint, every worker
+ * writes out what it holds before the position is saved.
+ * Author: Sari Haj Hussein
+ */
+public class ParallelOfflineCondenser {
+
+    /** The allowed lateness is in milliseconds. */
+    public ParallelOfflineCondenser(OfflineCondenserFrame offlineCondenserFrame, int workerCount, int bulkSize,
+            long allowedLateness) throws SQLException {
+        this(offlineCondenserFrame, workerCount, bulkSize, allowedLateness, 0);
+    }
+
+    /** This constructor splits a memory budget, in bytes, among the workers,
+     * see OfflineCondenserTask.setMemoryBudget; zero means none. */
+    public ParallelOfflineCondenser(OfflineCondenserFrame offlineCondenserFrame, int workerCount, int bulkSize,
+            long allowedLateness, long memoryBudget) throws SQLException {
+        appearanceWriter = new AppearanceWriter(offlineCondenserFrame.getConnectionPool().getConnection(), objIDs,
+                readerIDs, bulkSize, WRITER_LINGER_TIME);
+        appearanceWriter.start();
+        workers = new Worker[workerCount];
+        chunks = new Chunk[workerCount];
+        for (int i = 0; i < workers.length; i++) {
+            OfflineCondenserTask condenserTask = new OfflineCondenserTask(offlineCondenserFrame, bulkSize,
+                    allowedLateness, objIDs, readerIDs, appearanceWriter);
+            if (memoryBudget > 0) {
+                condenserTask.setMemoryBudget(memoryBudget / workerCount);
+            }
+            workers[i] = new Worker(i, condenserTask);
+            workers[i].start();
+            chunks[i] = new Chunk();
+        }
+    }
+
+    /** This method returns a reading tuple whose IDs are those of the
+     * condenser, to be filled by StreamSource.getNext. */
+    public Reading newReading() {
+        return new Reading(objIDs, readerIDs);
+    }
+
+    /** This method hands the reading to the worker of its object; it must
+     * be called from one thread, and waits while that worker is behind. */
+    public void add(Reading reading) throws InterruptedException {
+        int partition = reading.getObjID() % workers.length;
+        Chunk chunk = chunks[partition];
+        int i = chunk.size++;
+        chunk.objIDs[i] = reading.getObjID();
+        chunk.readerIDs[i] = reading.getReaderID();
+        chunk.times[i] = reading.getTime();
+        if (chunk.size == CHUNK_SIZE) {
+            handOver(partition);
+        }
+    }
+
+    /** This method condenses what is left in every partition once the stream
+     * has ended, and waits until every appearance is written; it throws the
+     * failure of a worker, whose partition is then incomplete. */
+    public void flush() throws InterruptedException {
+        try {
+            for (int i = 0; i < workers.length; i++) {
+                handOver(i);
+                workers[i].put(END_OF_STREAM);
+            }
+            for (Worker worker : workers) {
+                worker.join();
+            }
+        } finally {
+            appearanceWriter.close();
+        }
+        for (Worker worker : workers) {
+            worker.checkFailure();
+        }
+    }
+
+    /** This method makes the condenser commit its appearances only together
+     * with the checkpoints of the stage, see
+     * AppearanceWriter.setCheckpointStage; it must be called before the first
+     * reading is added. */
+    public void setCheckpointStage(String stage) {
+        appearanceWriter.setCheckpointStage(stage);
+    }
+
+    /** This method saves the position of the checkpoint stage once every
+     * reading added so far is condensed and its appearances are handed to
+     * the writer; the appearances open at the checkpoint are closed there. */
+    public void checkpoint(String position) throws InterruptedException {
+        CountDownLatch drained = new CountDownLatch(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            handOver(i);
+            workers[i].put(new Chunk(drained));
+        }
+        while (!drained.await(100, TimeUnit.MILLISECONDS)) {
+            for (Worker worker : workers) {
+                worker.checkAlive();
+            }
+        }
+        appearanceWriter.checkpoint(position);
+    }
+
+    /** This method returns how many readings came later than the allowed
+     * lateness, in all partitions. */
+    public long getLateReadings() {
+        long lateReadings = 0;
+        for (Worker worker : workers) {
+            lateReadings += worker.condenserTask.getLateReadings();
+        }
+        return lateReadings;
+    }
+
+    private void handOver(int partition) throws InterruptedException {
+        if (chunks[partition].size == 0) {
+            return;
+        }
+        workers[partition].put(chunks[partition]);
+        chunks[partition] = new Chunk();
+    }
+
+    /* Readings of one partition on their way to its worker. */
+    private static class Chunk {
+
+        Chunk() {
+            this(CHUNK_SIZE, null);
+        }
+
+        /* A checkpoint, counted down once the worker has drained its task. */
+        Chunk(CountDownLatch drained) {
+            this(0, drained);
+        }
+
+        private Chunk(int capacity, CountDownLatch drained) {
+            objIDs = new int[capacity];
+            readerIDs = new int[capacity];
+            times = new long[capacity];
+            this.drained = drained;
+        }
+        private final int[] objIDs;
+        private final int[] readerIDs;
+        private final long[] times;
+        private final CountDownLatch drained;
+        private int size = 0;
+    }
+
+    /* Condenses the chunks of one partition. */
+    private class Worker extends Thread {
+
+        Worker(int index, OfflineCondenserTask condenserTask) {
+            super("Offline condenser " + index);
+            setDaemon(true);
+            this.condenserTask = condenserTask;
+        }
+
+        void put(Chunk chunk) throws InterruptedException {
+            checkFailure();
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                checkAlive();
+            }
+        }
+
+        /* Throws the failure of the worker, if it failed. */
+        void checkFailure() {
+            if (failure != null) {
+                throw new IllegalStateException(getName() + " has failed.", failure);
+            }
+        }
+
+        void checkAlive() {
+            checkFailure();
+            if (!isAlive()) {
+                throw new IllegalStateException(getName() + " has stopped.");
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Chunk chunk;
+                while ((chunk = queue.take()) != END_OF_STREAM) {
+                    if (chunk.drained != null) {
+                        condenserTask.drain();
+                        chunk.drained.countDown();
+                        continue;
+                    }
+                    for (int i = 0; i < chunk.size; i++) {
+                        condenserTask.add(chunk.objIDs[i], chunk.readerIDs[i], chunk.times[i]);
+                        condenserTask.condense();
+                    }
+                }
+                condenserTask.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                failure = e;
+            }
+        }
+        private final OfflineCondenserTask condenserTask;
+        private final ArrayBlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+        private volatile RuntimeException failure;
+    }
+    private static final int CHUNK_SIZE = 1024; // readings
+    private static final int QUEUE_CHUNKS = 16;
+    private static final long WRITER_LINGER_TIME = 200; // milliseconds
+    private static final Chunk END_OF_STREAM = new Chunk();
+    private IdDictionary objIDs = new IdDictionary();
+    private IdDictionary readerIDs = new IdDictionary();
+    private AppearanceWriter appearanceWriter;
+    private Worker[] workers;
+    private Chunk[] chunks;
+}
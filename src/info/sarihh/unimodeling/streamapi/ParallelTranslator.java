@@ -0,0 +1,283 @@
+package info.sarihh.unimodeling.streamapi;
+
+import info.sarihh.unimodeling.gui.ProbabilisticTranslatorFrame;
+import info.sarihh.unimodeling.utility.BulkLoader;
+import info.sarihh.unimodeling.utility.CheckpointStore;
+import info.sarihh.unimodeling.utility.ProbabilisticLocationMap;
+import info.sarihh.unimodeling.utility.SqlDialect;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class translates APPEAR_TABLE into PROB_TABLE on several worker
+ * threads. APPEAR_TABLE is split into ranges of license plates with about as
+ * many plates each, one per worker, and every worker reads its range in the
+ * order of license plate and time on a connection of its own, and loads its
+ * records through a BulkLoader of its own. A worker reads its range in pages
+ * of PAGE_SIZE records, each a query of its own that starts after the last
+ * complete plate, so no cursor is held over a commit and memory stays
+ * bounded with any driver. It commits every page together with the last
+ * complete plate in it, so a stopped or failed translation resumes where each
+ * worker stopped. The ranges are saved as the checkpoint of the stage, and
+ * the positions of the workers as those of the stage followed by the number
+ * of the range, e.g. Translation 1; a resumed translation keeps the ranges of
+ * the first run.
+ * Author: Sari Haj Hussein
+ */
+public class ParallelTranslator {
+
+    public ParallelTranslator(ProbabilisticTranslatorFrame translatorFrame, ProbabilisticLocationMap locationMap,
+            String stage, int workerCount) {
+        this.translatorFrame = translatorFrame;
+        this.locationMap = locationMap;
+        this.stage = stage;
+        this.workerCount = Math.max(1, workerCount);
+    }
+
+    /** This method translates the plates that are left and waits until
+     * every worker is done; it returns how many appearance records were
+     * translated. */
+    public long translate() throws SQLException, InterruptedException {
+        Connection conn = translatorFrame.getConnection();
+        CheckpointStore checkpointStore = new CheckpointStore(conn);
+        checkpointStore.createTable();
+        String[] bounds = loadBounds(checkpointStore);
+        if (bounds == null) {
+            bounds = getBounds(conn);
+            checkpointStore.save(stage, join(bounds));
+            if (!conn.getAutoCommit()) {
+                conn.commit();
+            }
+        } else {
+            translatorFrame.appendLogText("Resuming the translation of " + (bounds.length + 1) + " plate ranges.");
+        }
+        long startTime = System.nanoTime();
+        Worker[] workers = new Worker[bounds.length + 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i + 1, i == 0 ? null : bounds[i - 1], i == bounds.length ? null : bounds[i]);
+            workers[i].start();
+        }
+        SQLException failure = null;
+        for (Worker worker : workers) {
+            worker.join();
+            if (worker.failure != null && failure == null) {
+                failure = worker.failure;
+            } else if (worker.failure != null) {
+                failure.setNextException(worker.failure);
+            }
+        }
+        long elapsed = Math.max(1, (System.nanoTime() - startTime) / 1000000L);
+        translatorFrame.appendLogText(workers.length + " workers translated " + translatedRecords.get()
+                + " appearance records in " + elapsed + " ms (" + translatedRecords.get() * 1000L / elapsed
+                + " records per second).");
+        if (failure != null) {
+            throw failure;
+        }
+        return translatedRecords.get();
+    }
+
+    /** This method makes every worker stop at its next plate boundary. */
+    public void stop() {
+        stopped = true;
+    }
+
+    /** This method returns how many appearance records came from readers
+     * that are not in the location map. */
+    public long getUnknownReaderRecords() {
+        return unknownReaderRecords.get();
+    }
+
+    /* Returns the saved upper bounds of all ranges but the last one, or null
+     * if there are none. */
+    private String[] loadBounds(CheckpointStore checkpointStore) throws SQLException {
+        String saved = checkpointStore.load(stage);
+        if (saved == null) {
+            return null;
+        }
+        String[] values = saved.split("\t");
+        return Arrays.copyOfRange(values, 1, Integer.parseInt(values[0]));
+    }
+
+    /* Splits the license plates into workerCount ranges of about as many
+     * plates each, and returns the upper bounds of all ranges but the last
+     * one, which is open-ended. */
+    private String[] getBounds(Connection conn) throws SQLException {
+        ArrayList<String> bounds = new ArrayList<>();
+        if (workerCount > 1) {
+            Statement statement = conn.createStatement();
+            try {
+                ResultSet resultSet = statement.executeQuery("SELECT MAX(LICENSE_PLATE) FROM ("
+                        + "SELECT LICENSE_PLATE, NTILE(" + workerCount + ") OVER (ORDER BY LICENSE_PLATE) TILE "
+                        + "FROM (SELECT DISTINCT LICENSE_PLATE FROM APPEAR_TABLE) PLATES) TILES "
+                        + "GROUP BY TILE ORDER BY 1");
+                while (resultSet.next()) {
+                    bounds.add(resultSet.getString(1));
+                }
+            } finally {
+                statement.close();
+            }
+            if (!bounds.isEmpty()) {
+                bounds.remove(bounds.size() - 1); // the last range takes the plates added later too
+            }
+        }
+        return bounds.toArray(new String[bounds.size()]);
+    }
+
+    /* Joins the number of ranges and their bounds, so the value is never
+     * empty, which Oracle would store as null. */
+    private static String join(String[] bounds) {
+        StringBuilder sb = new StringBuilder().append(bounds.length + 1);
+        for (String bound : bounds) {
+            sb.append('\t').append(bound);
+        }
+        return sb.toString();
+    }
+
+    /* Translates the plates after fromPlate up to toPlate; null bounds are
+     * open. */
+    private class Worker extends Thread {
+
+        Worker(int range, String fromPlate, String toPlate) {
+            super("Translator " + range);
+            setDaemon(true);
+            this.rangeStage = stage + " " + range;
+            this.fromPlate = fromPlate;
+            this.toPlate = toPlate;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Connection conn = translatorFrame.getConnectionPool().getConnection();
+                try {
+                    translate(conn);
+                } finally {
+                    conn.close();
+                }
+            } catch (SQLException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new SQLException(getName() + " failed.", e);
+            }
+        }
+
+        private void translate(Connection conn) throws SQLException {
+            CheckpointStore checkpointStore = new CheckpointStore(conn);
+            String lastPlate = checkpointStore.load(rangeStage);
+            if (lastPlate == null) {
+                lastPlate = fromPlate;
+            }
+            SqlDialect dialect = SqlDialect.forConnection(conn);
+            BulkLoader loader = new BulkLoader(conn, "PROB_TABLE", 5);
+            if (fromPlate == null) { // once
+                translatorFrame.appendLogText("PROB_TABLE is loaded through " + loader.getMethod() + ".");
+            }
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false); // the records of a page and the checkpoint after it are committed together
+            try {
+                int pageSize = PAGE_SIZE;
+                boolean more = true;
+                while (more && !stopped) {
+                    String completePlate = null; // the last plate of the page that is known to be complete
+                    String query = "SELECT LICENSE_PLATE, LOCATION_ID, S_TIME, E_TIME FROM APPEAR_TABLE WHERE 1 = 1"
+                            + (lastPlate == null ? "" : " AND LICENSE_PLATE > ?")
+                            + (toPlate == null ? "" : " AND LICENSE_PLATE <= ?")
+                            + " ORDER BY LICENSE_PLATE, S_TIME, E_TIME";
+                    PreparedStatement statement = conn.prepareStatement(dialect.limit(query, pageSize),
+                            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    try {
+                        int parameter = 1;
+                        if (lastPlate != null) {
+                            statement.setString(parameter++, lastPlate);
+                        }
+                        if (toPlate != null) {
+                            statement.setString(parameter, toPlate);
+                        }
+                        statement.setFetchSize(Math.min(pageSize, FETCH_SIZE));
+                        ResultSet resultSet = statement.executeQuery();
+                        int rows = 0;
+                        String plate = null;
+                        while (resultSet.next()) {
+                            rows++;
+                            String licensePlate = resultSet.getString(1);
+                            if (!licensePlate.equals(plate)) { // a plate boundary
+                                if (plate != null) {
+                                    load(loader, plate);
+                                    completePlate = plate;
+                                }
+                                if (stopped) {
+                                    break;
+                                }
+                                plate = licensePlate;
+                            }
+                            plateRecords.add(new Object[]{resultSet.getInt(2), resultSet.getTimestamp(3),
+                                resultSet.getTimestamp(4)});
+                        }
+                        more = rows == pageSize;
+                        if (!more && !stopped && plate != null) { // the range ended, so its last plate is complete
+                            load(loader, plate);
+                            completePlate = plate;
+                        }
+                        plateRecords.clear(); // a plate cut off by the end of the page is read again
+                    } finally {
+                        statement.close();
+                    }
+                    if (completePlate != null) {
+                        loader.flush();
+                        checkpointStore.save(rangeStage, completePlate);
+                        conn.commit();
+                        lastPlate = completePlate;
+                        pageSize = PAGE_SIZE;
+                    } else if (more) {
+                        pageSize *= 2; // one plate has more records than the page
+                    }
+                }
+                loader.close();
+            } catch (SQLException e) {
+                loader.clear();
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+
+        /* Hands the buffered records of a complete plate to the loader. */
+        private void load(BulkLoader loader, String licensePlate) throws SQLException {
+            for (Object[] record : plateRecords) {
+                int reader = (Integer) record[0];
+                String probLoc = locationMap.getProbLoc(reader);
+                if (probLoc == null) {
+                    unknownReaderRecords.incrementAndGet();
+                }
+                loader.add(licensePlate, probLoc, locationMap.getProbVec(reader), record[1], record[2]);
+                if (translatedRecords.incrementAndGet() % PROGRESS_INTERVAL == 0) {
+                    translatorFrame.appendLogText(translatedRecords.get()
+                            + " appearance records were translated into probabilistic records.");
+                }
+            }
+            plateRecords.clear();
+        }
+        private final String rangeStage;
+        private final String fromPlate;
+        private final String toPlate;
+        private final ArrayList<Object[]> plateRecords = new ArrayList<>(); // the records of the current plate
+        private SQLException failure = null;
+    }
+    private static final int PAGE_SIZE = 10000; // records per query and transaction
+    private static final int FETCH_SIZE = 1000;
+    private static final int PROGRESS_INTERVAL = 100000;
+    private final ProbabilisticTranslatorFrame translatorFrame;
+    private final ProbabilisticLocationMap locationMap;
+    private final String stage;
+    private final int workerCount;
+    private final AtomicLong translatedRecords = new AtomicLong();
+    private final AtomicLong unknownReaderRecords = new AtomicLong();
+    private volatile boolean stopped = false;
+}
@@ -0,0 +1,79 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.util.Arrays;
+
+/**
+ * This class is a reusable, typed tuple for one reading of a stream. The
+ * time is in nanoseconds since the epoch, see AppearanceBatch.toEpochNanos,
+ * and the object and reader IDs are also mapped to dense integers when the
+ * tuple is given ID dictionaries. Attributes beyond the three that make up a
+ * reading are kept as strings, in the order of getExtraNames of the stream
+ * source.
+ * Author: Sari Haj Hussein
+ */
+public class Reading {
+
+    public Reading() {
+        this(null, null);
+    }
+
+    public Reading(IdDictionary objIDs, IdDictionary readerIDs) {
+        this.objIDs = objIDs;
+        this.readerIDs = readerIDs;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getObjName() {
+        return objName;
+    }
+
+    public String getReaderName() {
+        return readerName;
+    }
+
+    /** This method returns the dense object ID, or -1 without a
+     * dictionary. */
+    public int getObjID() {
+        return objID;
+    }
+
+    public int getReaderID() {
+        return readerID;
+    }
+
+    public int getExtraCount() {
+        return extraCount;
+    }
+
+    public String getExtra(int i) {
+        return extras[i];
+    }
+
+    void set(long time, String objName, String readerName) {
+        this.time = time;
+        this.objName = objName;
+        this.readerName = readerName;
+        objID = objIDs == null ? -1 : objIDs.getId(objName);
+        readerID = readerIDs == null ? -1 : readerIDs.getId(readerName);
+        extraCount = 0;
+    }
+
+    void addExtra(String value) {
+        if (extraCount == extras.length) {
+            extras = Arrays.copyOf(extras, 2 * extraCount);
+        }
+        extras[extraCount++] = value;
+    }
+    private final IdDictionary objIDs;
+    private final IdDictionary readerIDs;
+    private long time;
+    private String objName;
+    private String readerName;
+    private int objID = -1;
+    private int readerID = -1;
+    private String[] extras = new String[4];
+    private int extraCount = 0;
+}
@@ -0,0 +1,363 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * This class encodes and decodes RFID readings in a compact, length-prefixed
+ * binary frame format. The frame schema is derived from the registered stream
+ * encoding: the object ID, reader ID and time attributes come first, followed
+ * by the additional attributes in alphabetical order, so neither side sends
+ * attribute names over the wire.
+ *
+ * A binary connection starts with a handshake (MAGIC, VERSION, schema
+ * fingerprint). A legacy connection starts with the Java serialization stream
+ * header instead, which lets the server tell the two formats apart.
+ * Author: Sari Haj Hussein
+ */
+public class ReadingCodec {
+
+    public ReadingCodec(StreamSource streamSource) {
+        HashMap<String, String> streamEncodingMap = streamSource.getStreamEncodingMap();
+        ArrayList<String> names = new ArrayList<>();
+        names.add(streamSource.getObjIDAttributeName());
+        names.add(streamSource.getReaderIDAttributeName());
+        names.add(streamSource.getTimeAttributeName());
+        ArrayList<String> additional = new ArrayList<>(streamEncodingMap.keySet());
+        additional.removeAll(names);
+        Collections.sort(additional);
+        names.addAll(additional);
+        names.removeAll(Collections.singleton((String) null)); // the stream is not registered yet
+        attributeNames = names.toArray(new String[names.size()]);
+        attributeKinds = new byte[attributeNames.length];
+        int fingerprint = 17;
+        for (int i = 0; i < attributeNames.length; i++) {
+            String type = streamEncodingMap.get(attributeNames[i]);
+            attributeKinds[i] = getAttributeKind(type);
+            fingerprint = 31 * fingerprint + attributeNames[i].hashCode();
+            fingerprint = 31 * fingerprint + attributeKinds[i];
+        }
+        schemaFingerprint = fingerprint;
+    }
+
+    public int getSchemaFingerprint() {
+        return schemaFingerprint;
+    }
+
+    public String[] getAttributeNames() {
+        return attributeNames;
+    }
+
+    /** This method tells whether the first two bytes of a connection belong to
+     * a Java serialization stream header, i.e. a legacy client. */
+    public static boolean isLegacyHeader(int b1, int b2) {
+        return b1 == 0xAC && b2 == 0xED;
+    }
+
+    public void writeHandshake(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(schemaFingerprint);
+        out.flush();
+    }
+
+    /** This method reads the handshake and returns true only if the peer
+     * encodes its readings with the same schema as this codec. */
+    public boolean readHandshake(DataInputStream in) throws IOException {
+        return checkHandshake(in.readInt(), in.readByte(), in.readInt());
+    }
+
+    /** This method is the non-blocking counterpart of the one above; the
+     * caller makes sure that HANDSHAKE_LENGTH bytes are available. */
+    public boolean readHandshake(ByteBuffer in) throws IOException {
+        return checkHandshake(in.getInt(), in.get(), in.getInt());
+    }
+
+    private boolean checkHandshake(int magic, byte version, int fingerprint) throws IOException {
+        if (magic != MAGIC) {
+            throw new IOException("Unknown RFID wire protocol.");
+        }
+        if (version != VERSION) {
+            throw new IOException("Unsupported RFID wire protocol version.");
+        }
+        return fingerprint == schemaFingerprint;
+    }
+
+    public void writeReading(DataOutputStream out, HashMap<String, String> reading) throws IOException {
+        position = 0;
+        ensureCapacity(1 + attributeNames.length * 16);
+        buffer[position++] = READING_FRAME;
+        for (int i = 0; i < attributeNames.length; i++) {
+            putValue(attributeKinds[i], reading.get(attributeNames[i]));
+        }
+        out.writeInt(position);
+        out.write(buffer, 0, position);
+    }
+
+    public void writeControl(DataOutputStream out, byte frameType) throws IOException {
+        out.writeInt(1);
+        out.writeByte(frameType);
+        out.flush();
+    }
+
+    /** This method reads one frame from a blocking stream. Control frames are
+     * returned as the same marker maps ("END" and "QUIT") that legacy clients
+     * send, so callers handle both formats alike. */
+    public HashMap<String, String> readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Corrupt RFID frame of length " + length + ".");
+        }
+        ensureCapacity(length);
+        in.readFully(buffer, 0, length);
+        HashMap<String, String> reading = new HashMap<>();
+        decode(ByteBuffer.wrap(buffer, 0, length), reading);
+        return reading;
+    }
+
+    /** This method decodes the payload of one frame (without its length
+     * prefix) into the specified reading. */
+    public void decode(ByteBuffer frame, HashMap<String, String> reading) throws IOException {
+        byte frameType = frame.get();
+        switch (frameType) {
+            case READING_FRAME:
+                for (int i = 0; i < attributeNames.length; i++) {
+                    String value = getValue(frame);
+                    if (value != null) {
+                        reading.put(attributeNames[i], value);
+                    }
+                }
+                break;
+            case END_FRAME:
+                reading.put("END", "END");
+                break;
+            case QUIT_FRAME:
+                reading.put("QUIT", "QUIT");
+                break;
+            default:
+                throw new IOException("Unknown RFID frame type " + frameType + ".");
+        }
+    }
+
+    private static byte getAttributeKind(String type) {
+        if (type == null) {
+            return STRING_VALUE;
+        }
+        if (type.startsWith("TIMESTAMP") || type.startsWith("DATE")) {
+            return TIMESTAMP_VALUE;
+        }
+        if (type.startsWith("INT") || type.startsWith("BIGINT") || type.startsWith("SMALLINT")
+                || type.replace(" ", "").matches("NUMBER\\(\\d+,0\\)")) {
+            return LONG_VALUE;
+        }
+        return STRING_VALUE;
+    }
+
+    private void putValue(byte kind, String value) {
+        if (value == null) {
+            ensureCapacity(position + 1);
+            buffer[position++] = NULL_VALUE;
+            return;
+        }
+        if (kind == LONG_VALUE && putLong(value)) {
+            return;
+        }
+        if (kind == TIMESTAMP_VALUE && putTimestamp(value)) {
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8); // fall back to the textual form
+        ensureCapacity(position + 6 + bytes.length);
+        buffer[position++] = STRING_VALUE;
+        putVarLong(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private boolean putLong(String value) {
+        long number;
+        try {
+            number = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (!Long.toString(number).equals(value)) { // e.g. leading zeros must survive
+            return false;
+        }
+        ensureCapacity(position + 11);
+        buffer[position++] = LONG_VALUE;
+        putVarLong((number << 1) ^ (number >> 63));
+        return true;
+    }
+
+    /** Timestamps are sent as wall-clock seconds and nanoseconds, independently
+     * of the time zones of the simulator and the server. */
+    private boolean putTimestamp(String value) {
+        if (value.length() < 19 || value.charAt(4) != '-' || value.charAt(7) != '-'
+                || value.charAt(10) != ' ' || value.charAt(13) != ':' || value.charAt(16) != ':') {
+            return false;
+        }
+        long seconds;
+        int nanos = 0;
+        try {
+            int year = Integer.parseInt(value.substring(0, 4));
+            int month = Integer.parseInt(value.substring(5, 7));
+            int day = Integer.parseInt(value.substring(8, 10));
+            int hour = Integer.parseInt(value.substring(11, 13));
+            int minute = Integer.parseInt(value.substring(14, 16));
+            int second = Integer.parseInt(value.substring(17, 19));
+            if (value.length() > 19) {
+                if (value.charAt(19) != '.' || value.length() == 20 || value.length() > 29) {
+                    return false;
+                }
+                String fraction = value.substring(20);
+                nanos = Integer.parseInt(fraction);
+                for (int i = fraction.length(); i < 9; i++) {
+                    nanos *= 10;
+                }
+            }
+            seconds = daysFromCivil(year, month, day) * 86400L + hour * 3600 + minute * 60 + second;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (!formatTimestamp(seconds, nanos).equals(value)) { // only canonical forms round-trip
+            return false;
+        }
+        ensureCapacity(position + 16);
+        buffer[position++] = TIMESTAMP_VALUE;
+        putVarLong((seconds << 1) ^ (seconds >> 63));
+        putVarLong(nanos);
+        return true;
+    }
+
+    private void putVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private String getValue(ByteBuffer frame) throws IOException {
+        byte kind = frame.get();
+        switch (kind) {
+            case NULL_VALUE:
+                return null;
+            case STRING_VALUE:
+                int length = (int) getVarLong(frame);
+                String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, UTF8);
+                frame.position(frame.position() + length);
+                return value;
+            case LONG_VALUE:
+                long number = getVarLong(frame);
+                return Long.toString((number >>> 1) ^ -(number & 1));
+            case TIMESTAMP_VALUE:
+                long seconds = getVarLong(frame);
+                return formatTimestamp((seconds >>> 1) ^ -(seconds & 1), (int) getVarLong(frame));
+            default:
+                throw new IOException("Unknown RFID value kind " + kind + ".");
+        }
+    }
+
+    private static long getVarLong(ByteBuffer frame) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = frame.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /** This method formats wall-clock seconds exactly like Timestamp.toString,
+     * so that Timestamp.valueOf on the server yields the original value. */
+    private static String formatTimestamp(long seconds, int nanos) {
+        long days = seconds / 86400;
+        long secondOfDay = seconds % 86400;
+        if (secondOfDay < 0) {
+            secondOfDay += 86400;
+            days--;
+        }
+        long[] civil = civilFromDays(days);
+        StringBuilder sb = new StringBuilder(29);
+        pad(sb, civil[0], 4).append('-');
+        pad(sb, civil[1], 2).append('-');
+        pad(sb, civil[2], 2).append(' ');
+        pad(sb, secondOfDay / 3600, 2).append(':');
+        pad(sb, (secondOfDay / 60) % 60, 2).append(':');
+        pad(sb, secondOfDay % 60, 2).append('.');
+        if (nanos == 0) {
+            sb.append('0');
+        } else {
+            StringBuilder fraction = pad(new StringBuilder(9), nanos, 9);
+            int end = fraction.length();
+            while (fraction.charAt(end - 1) == '0') {
+                end--;
+            }
+            sb.append(fraction, 0, end);
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder pad(StringBuilder sb, long value, int width) {
+        String digits = Long.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits);
+    }
+
+    // Proleptic Gregorian conversions (H. Hinnant's days_from_civil algorithm)
+    private static long daysFromCivil(long year, long month, long day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yoe = year - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static long[] civilFromDays(long days) {
+        days += 719468;
+        long era = (days >= 0 ? days : days - 146096) / 146097;
+        long doe = days - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp + (mp < 10 ? 3 : -9);
+        return new long[]{yoe + era * 400 + (month <= 2 ? 1 : 0), month, day};
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            byte[] larger = new byte[Math.max(capacity, 2 * buffer.length)];
+            System.arraycopy(buffer, 0, larger, 0, position);
+            buffer = larger;
+        }
+    }
+    public static final int MAGIC = 0x554D5244; // "UMRD"
+    public static final byte VERSION = 1;
+    public static final int HANDSHAKE_LENGTH = 9;
+    public static final byte READING_FRAME = 1;
+    public static final byte END_FRAME = 2;
+    public static final byte QUIT_FRAME = 3;
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte LONG_VALUE = 2;
+    private static final byte TIMESTAMP_VALUE = 3;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final String[] attributeNames;
+    private final byte[] attributeKinds;
+    private final int schemaFingerprint;
+    private byte[] buffer = new byte[256];
+    private int position = 0;
+}
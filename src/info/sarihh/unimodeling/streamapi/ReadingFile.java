@@ -0,0 +1,275 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * This class reads a dump of a stream from a local file through a
+ * memory-mapped window that slides over the file, so files of any size are
+ * read at disk speed without a DBMS. Two formats are read:
+ * - CSV, whose first line names the attributes of the stream; values may be
+ *   quoted with double quotes, and the time is written as in
+ *   Timestamp.valueOf.
+ * - A compact binary format, written by the write method: the magic number, a 1-byte version, and the
+ *   attribute names, time first, followed by one record per reading that
+ *   holds the time in nanoseconds since the epoch and the other attributes
+ *   as UTF-8 strings prefixed by a 2-byte length. The attribute names are
+ *   written the same way, after a 2-byte count.
+ * The attributes of the file are matched to those of the registered stream
+ * by name, and attributes the stream does not have are skipped.
+ * Author: Sari Haj Hussein
+ */
+public class ReadingFile {
+
+    /** The column names are those of the stream source, time first, then
+     * object ID, reader ID, and extras. */
+    public ReadingFile(File file, String[] columnNames) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+        fileSize = channel.size();
+        map(0);
+        binary = fileSize >= 4 && buffer.getInt(0) == MAGIC;
+        String[] fileColumnNames;
+        if (binary) {
+            buffer.position(4);
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("Unknown reading file version " + version + ".");
+            }
+            fileColumnNames = new String[buffer.getShort() & 0xFFFF];
+            for (int i = 0; i < fileColumnNames.length; i++) {
+                fileColumnNames[i] = getString();
+            }
+        } else {
+            if (!nextLine()) {
+                throw new IOException("The reading file " + file + " is empty.");
+            }
+            fileColumnNames = Arrays.copyOf(values, valueCount);
+        }
+        columns = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            columns[i] = -1;
+            for (int j = 0; j < fileColumnNames.length; j++) {
+                if (fileColumnNames[j].trim().equalsIgnoreCase(columnNames[i])) {
+                    columns[i] = j;
+                }
+            }
+            if (columns[i] < 0 || (binary && (i == 0) != (columns[i] == 0))) {
+                throw new IOException("The reading file " + file + " has no attribute " + columnNames[i] + ".");
+            }
+        }
+        columnCount = fileColumnNames.length;
+        values = new String[columnCount];
+    }
+
+    /** This method moves to the next reading; it returns false at the end of
+     * the file. */
+    public boolean next() throws IOException {
+        if (binary) {
+            if (getOffset() >= fileSize) {
+                return false;
+            }
+            ensure(8);
+            time = buffer.getLong();
+            for (int i = 1; i < columnCount; i++) {
+                values[i] = getString();
+            }
+            return true;
+        }
+        do {
+            if (!nextLine()) {
+                return false;
+            }
+        } while (valueCount == 1 && values[0].isEmpty()); // a blank line
+        if (valueCount < columnCount) { // values may have grown past the header on a longer line
+            throw new IOException("A reading in the reading file has " + valueCount + " attributes.");
+        }
+        time = AppearanceBatch.toEpochNanos(Timestamp.valueOf(values[columns[0]].trim()));
+        return true;
+    }
+
+    /** This method returns the time of the reading in nanoseconds since the
+     * epoch. */
+    public long getTime() {
+        return time;
+    }
+
+    /** This method returns the value of a column other than the time, by
+     * its index among the column names of the stream source. */
+    public String getValue(int column) {
+        return values[columns[column]];
+    }
+
+    public void close() throws IOException {
+        buffer = null;
+        randomAccessFile.close();
+    }
+
+    /** This method writes the rest of a started stream to a file in the
+     * binary format and returns the number of readings written. */
+    public static long write(StreamSource streamSource, File file) throws IOException {
+        String[] extraNames = streamSource.getExtraNames();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeShort(3 + extraNames.length);
+            putString(out, streamSource.getTimeAttributeName());
+            putString(out, streamSource.getObjIDAttributeName());
+            putString(out, streamSource.getReaderIDAttributeName());
+            for (String extraName : extraNames) {
+                putString(out, extraName);
+            }
+            Reading reading = new Reading();
+            long count = 0;
+            while (streamSource.getNext(reading)) {
+                out.writeLong(reading.getTime());
+                putString(out, reading.getObjName());
+                putString(out, reading.getReaderName());
+                for (int i = 0; i < reading.getExtraCount(); i++) {
+                    putString(out, reading.getExtra(i));
+                }
+                count++;
+            }
+            return count;
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(UTF8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("A value of " + bytes.length + " bytes does not fit a reading file.");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private String getString() throws IOException {
+        ensure(2);
+        int length = buffer.getShort() & 0xFFFF;
+        ensure(length);
+        byte[] bytes = getScratch(length);
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, UTF8);
+    }
+
+    /* Splits the next line into values, honouring double quotes; returns
+     * false at the end of the file. */
+    private boolean nextLine() throws IOException {
+        if (getOffset() >= fileSize) {
+            return false;
+        }
+        int end = findLineEnd();
+        if (end < 0) { // the line runs past the window
+            map(getOffset());
+            end = findLineEnd();
+            if (end < 0) {
+                if (windowStart + buffer.limit() < fileSize) {
+                    throw new IOException("A line of the reading file is longer than " + WINDOW_SIZE + " bytes.");
+                }
+                end = buffer.limit(); // the last line has no line break
+            }
+        }
+        valueCount = 0;
+        int length = 0;
+        boolean quoted = false;
+        byte[] bytes = getScratch(end - buffer.position());
+        while (buffer.position() < end) {
+            byte b = buffer.get();
+            if (b == '"') {
+                if (quoted && buffer.position() < end && buffer.get(buffer.position()) == '"') {
+                    buffer.get(); // an escaped quote
+                    bytes[length++] = b;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (b == ',' && !quoted) {
+                addValue(bytes, length);
+                length = 0;
+            } else if (b != '\r' || quoted) {
+                bytes[length++] = b;
+            }
+        }
+        addValue(bytes, length);
+        if (buffer.position() < buffer.limit()) {
+            buffer.get(); // the line break
+        }
+        return true;
+    }
+
+    /* Returns the position of the next line break that is not quoted, or -1
+     * if the window ends first. */
+    private int findLineEnd() {
+        boolean quoted = false;
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addValue(byte[] bytes, int length) {
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, 2 * valueCount);
+        }
+        values[valueCount++] = new String(bytes, 0, length, UTF8);
+    }
+
+    private byte[] getScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, 2 * scratch.length)];
+        }
+        return scratch;
+    }
+
+    /* Slides the window when fewer than the given number of bytes are left
+     * in it. */
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            if (getOffset() + bytes > fileSize) {
+                throw new IOException("The reading file is truncated.");
+            }
+            map(getOffset());
+        }
+    }
+
+    private long getOffset() {
+        return windowStart + buffer.position();
+    }
+
+    private void map(long offset) throws IOException {
+        windowStart = offset;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, fileSize - offset));
+    }
+    public static final int MAGIC = 0x554D5246; // "UMRF"
+    public static final byte VERSION = 1;
+    private static final int WINDOW_SIZE = 64 << 20;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final boolean binary;
+    private final int[] columns; // the column of the file for each column of the stream
+    private final int columnCount; // the attributes named by the file
+    private MappedByteBuffer buffer;
+    private long windowStart;
+    private String[] values = new String[8];
+    private int valueCount = 0;
+    private byte[] scratch = new byte[256];
+    private long time;
+}
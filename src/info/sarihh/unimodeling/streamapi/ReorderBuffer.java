@@ -0,0 +1,94 @@
+package info.sarihh.unimodeling.streamapi;
+
+/**
+ * This class is a bounded buffer that puts readings back into event-time
+ * order. Readings are held until the watermark passes their time and then
+ * released earliest first. The buffer is a binary min-heap over primitive
+ * key and time columns, so buffering a reading allocates nothing. The buffer
+ * is not thread-safe.
+ * Author: Sari Haj Hussein
+ */
+public class ReorderBuffer {
+
+    public ReorderBuffer(int capacity) {
+        keys = new long[capacity];
+        times = new long[capacity];
+    }
+
+    public boolean isFull() {
+        return size == keys.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    /** This method buffers a reading; the buffer must not be full. */
+    public void offer(long key, long time) {
+        int child = size++;
+        while (child > 0) { // sift up
+            int parent = (child - 1) >>> 1;
+            if (times[parent] <= time) {
+                break;
+            }
+            keys[child] = keys[parent];
+            times[child] = times[parent];
+            child = parent;
+        }
+        keys[child] = key;
+        times[child] = time;
+    }
+
+    /** This method returns the time of the earliest buffered reading. */
+    public long peekTime() {
+        return times[0];
+    }
+
+    /** This method returns the key of the earliest buffered reading. */
+    public long peekKey() {
+        return keys[0];
+    }
+
+    /** This method returns the key of the i-th buffered reading, in no
+     * particular order. */
+    public long getKey(int i) {
+        return keys[i];
+    }
+
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    /** This method removes the earliest buffered reading. */
+    public void remove() {
+        long key = keys[--size];
+        long time = times[size];
+        int parent = 0;
+        int child;
+        while ((child = 2 * parent + 1) < size) { // sift down
+            if (child + 1 < size && times[child + 1] < times[child]) {
+                child++;
+            }
+            if (time <= times[child]) {
+                break;
+            }
+            keys[parent] = keys[child];
+            times[parent] = times[child];
+            parent = child;
+        }
+        keys[parent] = key;
+        times[parent] = time;
+    }
+    public static final int BYTES_PER_SLOT = 16; // the key and the time
+    private final long[] keys;
+    private final long[] times;
+    private int size = 0;
+}
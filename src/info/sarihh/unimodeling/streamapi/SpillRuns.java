@@ -0,0 +1,265 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/**
+ * This class keeps the open appearance records that a condenser spilled to
+ * disk to stay within its memory budget. Every spill is written as a run of
+ * records sorted by key, i.e. by object ID and then reader ID, into a
+ * temporary file. At the end, the runs and the records that are still in
+ * memory are merged by key, and the records of the same key are combined into
+ * one that spans them all, as the appearance table would have done had it
+ * held them all. Once there are MAX_RUNS runs, they are merged into one, so
+ * the merge never has more than MAX_RUNS files open.
+ * Author: Sari Haj Hussein
+ */
+public class SpillRuns {
+
+    /** The runs are written into the directory, or into the temporary
+     * directory if it is null. */
+    public SpillRuns(File directory) {
+        this.directory = directory;
+    }
+
+    /** This method writes the records of the batch, which must be sorted by
+     * key and hold every key once, as a new run. */
+    public void write(AppearanceBatch batch) throws IOException {
+        if (batch.size() == 0) {
+            return;
+        }
+        if (runs.size() == MAX_RUNS) {
+            compact();
+        }
+        File run = File.createTempFile("appear-run", ".bin", directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                out.writeInt(batch.getObjID(i));
+                out.writeInt(batch.getReaderID(i));
+                out.writeLong(batch.getStartTime(i));
+                out.writeLong(batch.getEndTime(i));
+            }
+        } finally {
+            out.close();
+        }
+        runs.add(run);
+        spilledRecords += batch.size();
+    }
+
+    public boolean isEmpty() {
+        return runs.isEmpty();
+    }
+
+    /** This method returns how many records were spilled so far. */
+    public long getSpilledRecords() {
+        return spilledRecords;
+    }
+
+    /** This method starts merging the runs with the records left in memory,
+     * which must be sorted by key; nextMerged then returns the result. */
+    public void startMerge(AppearanceBatch memoryRun) throws IOException {
+        merge = open(memoryRun);
+    }
+
+    /** This method appends up to max merged records to the batch; it
+     * returns false once every record was returned. The runs are deleted at
+     * the end of the merge. */
+    public boolean nextMerged(AppearanceBatch batch, int max) throws IOException {
+        if (merge == null) {
+            return false;
+        }
+        for (int i = 0; i < max; i++) {
+            if (!merge.next()) {
+                close();
+                break;
+            }
+            batch.add(AppearanceTable.getObjID(merge.key), AppearanceTable.getReaderID(merge.key),
+                    merge.startTime, merge.endTime);
+        }
+        return true;
+    }
+
+    /** This method deletes the runs. */
+    public void close() throws IOException {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        for (File run : runs) {
+            if (!run.delete()) {
+                run.deleteOnExit();
+            }
+        }
+        runs.clear();
+    }
+
+    /* Merges every run into one. */
+    private void compact() throws IOException {
+        Merge compaction = open(null);
+        File run = File.createTempFile("appear-run", ".bin", directory);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+            try {
+                while (compaction.next()) {
+                    out.writeInt(AppearanceTable.getObjID(compaction.key));
+                    out.writeInt(AppearanceTable.getReaderID(compaction.key));
+                    out.writeLong(compaction.startTime);
+                    out.writeLong(compaction.endTime);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            compaction.close();
+        }
+        for (File oldRun : runs) {
+            if (!oldRun.delete()) {
+                oldRun.deleteOnExit();
+            }
+        }
+        runs.clear();
+        runs.add(run);
+    }
+
+    private Merge open(AppearanceBatch memoryRun) throws IOException {
+        Merge merge = new Merge();
+        try {
+            for (File run : runs) {
+                merge.add(new FileCursor(run));
+            }
+            if (memoryRun != null) {
+                merge.add(new BatchCursor(memoryRun));
+            }
+        } catch (IOException e) {
+            merge.close();
+            throw e;
+        }
+        return merge;
+    }
+
+    /* The records of one run, in the order of their keys. */
+    private abstract static class Cursor implements Comparable<Cursor> {
+
+        /* Moves to the next record; returns false at the end of the run. */
+        abstract boolean next() throws IOException;
+
+        void close() throws IOException {
+        }
+
+        @Override
+        public int compareTo(Cursor cursor) {
+            return key < cursor.key ? -1 : (key == cursor.key ? 0 : 1);
+        }
+        long key;
+        long startTime;
+        long endTime;
+    }
+
+    private static class FileCursor extends Cursor {
+
+        FileCursor(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+        }
+
+        @Override
+        boolean next() throws IOException {
+            try {
+                key = AppearanceTable.getKey(in.readInt(), in.readInt());
+                startTime = in.readLong();
+                endTime = in.readLong();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        void close() throws IOException {
+            in.close();
+        }
+        private final DataInputStream in;
+    }
+
+    private static class BatchCursor extends Cursor {
+
+        BatchCursor(AppearanceBatch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        boolean next() {
+            if (i == batch.size()) {
+                return false;
+            }
+            key = AppearanceTable.getKey(batch.getObjID(i), batch.getReaderID(i));
+            startTime = batch.getStartTime(i);
+            endTime = batch.getEndTime(i);
+            i++;
+            return true;
+        }
+        private final AppearanceBatch batch;
+        private int i = 0;
+    }
+
+    /* Merges the cursors by key, combining the records of the same key. */
+    private static class Merge {
+
+        void add(Cursor cursor) throws IOException {
+            cursors.add(cursor);
+            if (cursor.next()) {
+                queue.add(cursor);
+            }
+        }
+
+        boolean next() throws IOException {
+            Cursor cursor = queue.poll();
+            if (cursor == null) {
+                return false;
+            }
+            key = cursor.key;
+            startTime = cursor.startTime;
+            endTime = cursor.endTime;
+            advance(cursor);
+            while (!queue.isEmpty() && queue.peek().key == key) {
+                cursor = queue.poll();
+                startTime = Math.min(startTime, cursor.startTime);
+                endTime = Math.max(endTime, cursor.endTime);
+                advance(cursor);
+            }
+            return true;
+        }
+
+        void close() throws IOException {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+
+        private void advance(Cursor cursor) throws IOException {
+            if (cursor.next()) {
+                queue.add(cursor);
+            }
+        }
+        private final ArrayList<Cursor> cursors = new ArrayList<>();
+        private final PriorityQueue<Cursor> queue = new PriorityQueue<>();
+        long key;
+        long startTime;
+        long endTime;
+    }
+    private static final int MAX_RUNS = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final File directory;
+    private final ArrayList<File> runs = new ArrayList<>();
+    private Merge merge = null;
+    private long spilledRecords = 0;
+}
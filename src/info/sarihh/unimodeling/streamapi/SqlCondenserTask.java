@@ -0,0 +1,66 @@
+package info.sarihh.unimodeling.streamapi;
+
+import info.sarihh.unimodeling.gui.OfflineCondenserFrame;
+import info.sarihh.unimodeling.utility.SqlDialect;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/*
+ * This task condenses a stored stream inside the DBMS, so the readings never
+ * leave it. An appearance is an island of consecutive readings of an object
+ * at one reader: ordered by time and reader, a reading of an object is
+ * flagged when its reader differs from the one of the reading before it, and
+ * the running sum of the flags numbers the islands. Duplicate readings are
+ * peers in that order, so they share the sum and never split an island. The
+ * islands are grouped and inserted into APPEAR_TABLE with one
+ * INSERT ... SELECT.
+ * Author: Sari Haj Hussein
+ */
+public class SqlCondenserTask {
+
+    public SqlCondenserTask(OfflineCondenserFrame offlineCondenserFrame) {
+        this.offlineCondenserFrame = offlineCondenserFrame;
+    }
+
+    /** This method condenses the stream and returns the number of
+     * appearances it inserted. */
+    public int condense() throws SQLException {
+        SqlDialect dialect = SqlDialect.forConnection(offlineCondenserFrame.getConnection());
+        String query = getQuery(dialect, offlineCondenserFrame.getStreamSource());
+        offlineCondenserFrame.appendLogText("Condensing the stream in the DBMS: " + query);
+        Statement statement = offlineCondenserFrame.getConnection().createStatement();
+        this.statement = statement;
+        try {
+            return statement.executeUpdate(query);
+        } finally {
+            this.statement = null; // Statement.isClosed is not in the JDBC 2 driver of Oracle
+            statement.close();
+        }
+    }
+
+    /** This method asks the DBMS to stop the condensing, if it is running. */
+    public void cancel() throws SQLException {
+        Statement statement = this.statement;
+        if (statement != null) {
+            statement.cancel();
+        }
+    }
+
+    static String getQuery(SqlDialect dialect, StreamSource streamSource) {
+        String objID = streamSource.getObjIDAttributeName();
+        String readerID = streamSource.getReaderIDAttributeName();
+        String time = streamSource.getTimeAttributeName();
+        // the default RANGE frame of SUM takes in every peer of a reading
+        return dialect.insertInto("APPEAR_TABLE")
+                + " SELECT OBJ_ID, READER_ID, MIN(READING_TIME), MAX(READING_TIME) FROM ("
+                + "SELECT OBJ_ID, READER_ID, READING_TIME,"
+                + " SUM(CHANGED) OVER (PARTITION BY OBJ_ID ORDER BY READING_TIME, READER_ID) AS ISLAND FROM ("
+                + "SELECT " + objID + " AS OBJ_ID, " + readerID + " AS READER_ID, " + time + " AS READING_TIME,"
+                + " CASE WHEN LAG(" + readerID + ") OVER (PARTITION BY " + objID + " ORDER BY " + time + ", "
+                + readerID + ") = " + readerID + " THEN 0 ELSE 1 END AS CHANGED"
+                + " FROM " + streamSource.getStreamName() + ") FLAGGED) READINGS"
+                + " GROUP BY OBJ_ID, READER_ID, ISLAND";
+    }
+    private OfflineCondenserFrame offlineCondenserFrame = null;
+    private volatile Statement statement = null;
+}
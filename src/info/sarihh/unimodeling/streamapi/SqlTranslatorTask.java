@@ -0,0 +1,137 @@
+package info.sarihh.unimodeling.streamapi;
+
+import info.sarihh.unimodeling.gui.ProbabilisticTranslatorFrame;
+import info.sarihh.unimodeling.utility.BulkLoader;
+import info.sarihh.unimodeling.utility.CheckpointStore;
+import info.sarihh.unimodeling.utility.ProbabilisticLocationMap;
+import info.sarihh.unimodeling.utility.SchemaManager;
+import info.sarihh.unimodeling.utility.SqlDialect;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/*
+ * This task translates APPEAR_TABLE into PROB_TABLE inside the DBMS, so the
+ * appearance records never leave it. The probabilistic location map is
+ * written into PROB_LOC_MAP, one row per reader, and APPEAR_TABLE is joined
+ * with it into PROB_TABLE with one INSERT ... SELECT per time slice of
+ * S_TIME, e.g. per day. Every slice is committed together with its end as
+ * the checkpoint of the stage, so a cancelled or failed translation resumes
+ * with the first slice that is not in PROB_TABLE.
+ * Author: Sari Haj Hussein
+ */
+public class SqlTranslatorTask {
+
+    public SqlTranslatorTask(ProbabilisticTranslatorFrame translatorFrame, ProbabilisticLocationMap locationMap,
+            String stage) {
+        this.translatorFrame = translatorFrame;
+        this.locationMap = locationMap;
+        this.stage = stage;
+    }
+
+    /** This method translates the slices that are left and returns the
+     * number of probabilistic records it inserted. */
+    public long translate() throws SQLException {
+        Connection conn = translatorFrame.getConnection();
+        SqlDialect dialect = SqlDialect.forConnection(conn);
+        loadMappingTable(conn, dialect, locationMap);
+        Timestamp[] timeRange = new SchemaManager(conn).getTimeRange("APPEAR_TABLE", "S_TIME");
+        if (timeRange[0] == null) {
+            return 0;
+        }
+        CheckpointStore checkpointStore = new CheckpointStore(conn);
+        checkpointStore.createTable();
+        String saved = checkpointStore.load(stage);
+        Timestamp sliceStart = saved == null ? timeRange[0] : Timestamp.valueOf(saved);
+        if (saved != null) {
+            translatorFrame.appendLogText("Resuming the translation in the DBMS at " + saved + ".");
+        }
+        String query = getQuery(dialect, "A.S_TIME >= ? AND A.S_TIME < ?");
+        translatorFrame.appendLogText("Translating APPEAR_TABLE in the DBMS: " + query);
+        long translatedRecords = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false); // a slice and the checkpoint after it are committed together
+        PreparedStatement statement = conn.prepareStatement(query);
+        this.statement = statement;
+        try {
+            while (!cancelled && !sliceStart.after(timeRange[1])) {
+                Timestamp sliceEnd = new Timestamp(sliceStart.getTime() + SLICE_LENGTH);
+                statement.setTimestamp(1, sliceStart);
+                statement.setTimestamp(2, sliceEnd);
+                translatedRecords += statement.executeUpdate();
+                checkpointStore.save(stage, sliceEnd.toString());
+                conn.commit();
+                sliceStart = sliceEnd;
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            if (!cancelled) {
+                throw e;
+            }
+        } finally {
+            this.statement = null;
+            statement.close();
+            conn.setAutoCommit(autoCommit);
+        }
+        return translatedRecords;
+    }
+
+    /** This method asks the DBMS to stop the slice it is translating, and
+     * makes the translation stop there. */
+    public void cancel() throws SQLException {
+        cancelled = true;
+        Statement statement = this.statement;
+        if (statement != null) { // nulled once closed; Statement.isClosed is not in JDBC 2
+            statement.cancel();
+        }
+    }
+
+    /* Creates PROB_LOC_MAP afresh with the rows of the location map, whose
+     * vectors must be compiled. */
+    static void loadMappingTable(Connection conn, SqlDialect dialect, ProbabilisticLocationMap locationMap)
+            throws SQLException {
+        Statement statement = conn.createStatement();
+        try {
+            if (new SchemaManager(conn).tableExists(MAP_TABLE_NAME)) {
+                statement.execute("DROP TABLE " + MAP_TABLE_NAME);
+            }
+            statement.execute("CREATE TABLE " + MAP_TABLE_NAME + " (\n"
+                    + "LOCATION_ID INTEGER PRIMARY KEY,\n"
+                    + "PROB_LOC " + dialect.varchar(100) + ",\n"
+                    + "PROB_VEC " + dialect.binary(100) + ")");
+        } finally {
+            statement.close();
+        }
+        BulkLoader loader = new BulkLoader(conn, MAP_TABLE_NAME, 3);
+        try {
+            for (int reader : locationMap.getReaders()) {
+                loader.add(reader, locationMap.getProbLoc(reader), locationMap.getProbVec(reader));
+            }
+            loader.close();
+        } catch (SQLException e) {
+            loader.clear();
+            throw e;
+        }
+        if (!conn.getAutoCommit()) {
+            conn.commit();
+        }
+    }
+
+    /* Returns the INSERT ... SELECT that translates the appearance records,
+     * aliased A, that meet the condition. */
+    static String getQuery(SqlDialect dialect, String condition) {
+        return dialect.insertInto("PROB_TABLE")
+                + " SELECT A.LICENSE_PLATE, M.PROB_LOC, M.PROB_VEC, A.S_TIME, A.E_TIME"
+                + " FROM APPEAR_TABLE A LEFT JOIN " + MAP_TABLE_NAME + " M ON M.LOCATION_ID = A.LOCATION_ID"
+                + " WHERE " + condition;
+    }
+    public static final String MAP_TABLE_NAME = "PROB_LOC_MAP";
+    private static final long SLICE_LENGTH = 24L * 60L * 60L * 1000L; // one day, in milliseconds
+    private final ProbabilisticTranslatorFrame translatorFrame;
+    private final ProbabilisticLocationMap locationMap;
+    private final String stage;
+    private volatile Statement statement = null;
+    private volatile boolean cancelled = false;
+}
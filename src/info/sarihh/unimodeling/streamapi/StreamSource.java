@@ -1,9 +1,16 @@
 package info.sarihh.unimodeling.streamapi;
 
+import info.sarihh.unimodeling.utility.SqlDialect;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.StringTokenizer;
 
@@ -19,18 +26,23 @@ public class StreamSource {
         tokenizeStreamEncoding(streamEncoding);
     }
 
+    /** This method starts reading the stream in the order of its time, object
+     * ID, and reader ID attributes, after the position set by resumeAfter for
+     * this run if there is one, otherwise from the beginning. The readings
+     * come through a forward-only, read-only cursor. Note that MySQL still
+     * reads the whole result unless the URL sets useCursorFetch=true, and that
+     * PostgreSQL streams only outside auto-commit; with a page size, the
+     * stream is read in pages of that many readings instead, one query per
+     * page, so memory stays bounded with any driver. */
     public void start(Connection conn) {
         this.conn = conn;
-        StringBuilder attributes = new StringBuilder();
-        for (String attributeName : streamEncodingMap.keySet()) {
-            attributes.append(attributeName).append(",");
+        if (!resuming) { // the position of an earlier run must not carry over
+            setPosition(null, null, null);
         }
-        attributes.deleteCharAt(attributes.length() - 1);
-        String query = "SELECT " + attributes.toString() + " FROM " + streamName + " ORDER BY ?";
+        resuming = false;
         try {
-            PreparedStatement statement = conn.prepareStatement(query, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            statement.setString(1, timeAttributeName);
-            resultSet = statement.executeQuery();
+            dialect = SqlDialect.forConnection(conn);
+            openQuery();
         } catch (SQLException e) {
             for (Throwable t : e) {
                 t.printStackTrace();
@@ -38,11 +50,70 @@ public class StreamSource {
         }
     }
 
+    /** This method starts reading the stream from a CSV or binary dump in a
+     * local file instead of the DBMS, see ReadingFile. */
+    public void start(File file) throws IOException {
+        setPosition(null, null, null);
+        resuming = false;
+        readingFile = new ReadingFile(file, columnNames);
+    }
+
+    /** This method puts the attributes of the next reading in the map; it
+     * returns false at the end of the stream. */
     public boolean getNext(HashMap<String, String> reading) {
+        if (readingFile != null) {
+            if (!nextInFile()) {
+                return false;
+            }
+            reading.put(columnNames[0], AppearanceBatch.toTimestamp(readingFile.getTime()).toString());
+            for (int i = 1; i < columnNames.length; i++) {
+                reading.put(columnNames[i], readingFile.getValue(i));
+            }
+            return true;
+        }
         try {
-            if (resultSet.next()) {
-                for (String attributeName : streamEncodingMap.keySet()) {
-                    reading.put(attributeName, resultSet.getObject(attributeName).toString());
+            if (next()) {
+                setPosition(resultSet.getObject(1), resultSet.getObject(2), resultSet.getObject(3));
+                reading.put(columnNames[0], positionTime.toString());
+                reading.put(columnNames[1], positionObjID.toString());
+                reading.put(columnNames[2], positionReaderID.toString());
+                for (int i = 3; i < columnNames.length; i++) {
+                    reading.put(columnNames[i], resultSet.getObject(i + 1).toString());
+                }
+                return true;
+            }
+        } catch (SQLException e) {
+            for (Throwable t : e) {
+                t.printStackTrace();
+            }
+        }
+        return false;
+    }
+
+    /** This method fills the tuple with the next reading; it returns false at
+     * the end of the stream. Columns are read by their index in the query,
+     * which is fixed when the stream is registered, and the time is read as
+     * a timestamp rather than parsed from a string. */
+    public boolean getNext(Reading reading) {
+        if (readingFile != null) {
+            if (!nextInFile()) {
+                return false;
+            }
+            reading.set(readingFile.getTime(), readingFile.getValue(1), readingFile.getValue(2));
+            for (int i = 3; i < columnNames.length; i++) {
+                reading.addExtra(readingFile.getValue(i));
+            }
+            return true;
+        }
+        try {
+            if (next()) {
+                Timestamp time = resultSet.getTimestamp(1);
+                String objID = resultSet.getString(2);
+                Object readerID = resultSet.getObject(3);
+                setPosition(time, objID, readerID);
+                reading.set(AppearanceBatch.toEpochNanos(time), objID, readerID.toString());
+                for (int i = 3; i < columnNames.length; i++) {
+                    reading.addExtra(resultSet.getString(i + 1));
                 }
                 return true;
             }
@@ -54,9 +125,49 @@ public class StreamSource {
         return false;
     }
 
+    /* Moves to the next row, opening the next page when a full one ends. */
+    private boolean next() throws SQLException {
+        while (resultSet != null) {
+            if (resultSet.next()) {
+                pageReadings++;
+                return true;
+            }
+            if (pageSize == 0 || pageReadings < pageSize) { // the last page
+                break;
+            }
+            closeQuery();
+            openQuery();
+        }
+        return false;
+    }
+
+    private boolean nextInFile() {
+        try {
+            return readingFile.next();
+        } catch (IOException | IllegalArgumentException e) { // a malformed time is an IllegalArgumentException
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void setPosition(Object time, Object objID, Object readerID) {
+        positionTime = time;
+        positionObjID = objID;
+        positionReaderID = readerID;
+    }
+
     public void end() {
+        if (readingFile != null) {
+            try {
+                readingFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            readingFile = null;
+            return;
+        }
         try {
-            resultSet.close();
+            closeQuery();
         } catch (SQLException e) {
             for (Throwable t : e) {
                 t.printStackTrace();
@@ -64,6 +175,92 @@ public class StreamSource {
         }
     }
 
+    /** This method makes the stream be read in pages of pageSize readings;
+     * zero reads it with one query. Each page seeks past the last reading of
+     * the previous one, so duplicate readings at a page boundary are read
+     * once; they would not change an appearance anyway. */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /** This method returns the time, object ID, and reader ID of the last
+     * reading read as a string to be saved in a checkpoint, or null if no
+     * reading was read. */
+    public String getCheckpoint() {
+        if (positionTime == null) {
+            return null;
+        }
+        return positionTime + "\t" + positionObjID + "\t" + positionReaderID;
+    }
+
+    /** This method makes the next start continue after the reading at the
+     * position of a checkpoint, as returned by getCheckpoint; null starts
+     * from the beginning. The values are converted back to the types of
+     * their attributes. */
+    public void resumeAfter(String checkpoint) {
+        resuming = true;
+        if (checkpoint == null) {
+            setPosition(null, null, null);
+            return;
+        }
+        String[] values = checkpoint.split("\t", 3);
+        setPosition(Timestamp.valueOf(values[0]), toAttributeValue(objIDAttributeName, values[1]),
+                toAttributeValue(readerIDAttributeName, values[2]));
+    }
+
+    private Object toAttributeValue(String attributeName, String value) {
+        String type = streamEncodingMap.get(attributeName);
+        if (type != null && (type.startsWith("NUMBER") || type.startsWith("NUMERIC") || type.startsWith("DECIMAL")
+                || type.startsWith("INT") || type.startsWith("BIGINT") || type.startsWith("SMALLINT"))) {
+            return new BigDecimal(value);
+        }
+        return value;
+    }
+
+    /** This method returns the names of the attributes beyond the time,
+     * object ID, and reader ID, in the order of the extras of a reading. */
+    public String[] getExtraNames() {
+        return Arrays.copyOfRange(columnNames, 3, columnNames.length);
+    }
+
+    private void openQuery() throws SQLException {
+        StringBuilder query = new StringBuilder("SELECT ");
+        for (String columnName : columnNames) {
+            query.append(columnName).append(",");
+        }
+        query.deleteCharAt(query.length() - 1);
+        query.append(" FROM ").append(streamName);
+        if (positionTime != null) { // seek past the position; the first term lets an index on the time be used
+            query.append(" WHERE ").append(timeAttributeName).append(" >= ? AND (")
+                    .append(timeAttributeName).append(" > ? OR (").append(timeAttributeName).append(" = ? AND (")
+                    .append(objIDAttributeName).append(" > ? OR (").append(objIDAttributeName).append(" = ? AND ")
+                    .append(readerIDAttributeName).append(" > ?))))");
+        }
+        query.append(" ORDER BY ").append(timeAttributeName).append(", ").append(objIDAttributeName)
+                .append(", ").append(readerIDAttributeName);
+        statement = conn.prepareStatement(pageSize > 0 ? dialect.limit(query.toString(), pageSize) : query.toString(),
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(pageSize > 0 ? Math.min(pageSize, FETCH_SIZE) : FETCH_SIZE);
+        if (positionTime != null) {
+            statement.setObject(1, positionTime);
+            statement.setObject(2, positionTime);
+            statement.setObject(3, positionTime);
+            statement.setObject(4, positionObjID);
+            statement.setObject(5, positionObjID);
+            statement.setObject(6, positionReaderID);
+        }
+        resultSet = statement.executeQuery();
+        pageReadings = 0;
+    }
+
+    private void closeQuery() throws SQLException {
+        if (statement != null) {
+            statement.close(); // closes the result set too
+            statement = null;
+            resultSet = null;
+        }
+    }
+
     private void tokenizeStreamEncoding(String streamEncoding) {
         StringTokenizer st = new StringTokenizer(streamEncoding);
         st.nextToken();
@@ -78,6 +275,16 @@ public class StreamSource {
             String token = st.nextToken().trim();
             streamEncodingMap.put(getAttributeName(token), getAttributeType(token));
         }
+        ArrayList<String> names = new ArrayList<>(); // the columns of the query: time, object ID, reader ID, extras
+        names.add(timeAttributeName);
+        names.add(objIDAttributeName);
+        names.add(readerIDAttributeName);
+        for (String attributeName : streamEncodingMap.keySet()) {
+            if (!names.contains(attributeName)) {
+                names.add(attributeName);
+            }
+        }
+        columnNames = names.toArray(new String[names.size()]);
     }
 
     private String getAttributeName(String s) {
@@ -88,6 +295,10 @@ public class StreamSource {
         return s.substring(s.indexOf(' ') + 1).toUpperCase();
     }
 
+    public String getStreamName() {
+        return streamName;
+    }
+
     public String getObjIDAttributeName() {
         return objIDAttributeName;
     }
@@ -103,11 +314,22 @@ public class StreamSource {
     public HashMap<String, String> getStreamEncodingMap() {
         return streamEncodingMap;
     }
+    private static final int FETCH_SIZE = 1000;
     private String streamName = null;
     private String objIDAttributeName = null;
     private String readerIDAttributeName = null;
     private String timeAttributeName = null;
     private HashMap<String, String> streamEncodingMap = new HashMap<>();
     private Connection conn = null;
+    private SqlDialect dialect = null;
+    private PreparedStatement statement = null;
     private ResultSet resultSet = null;
+    private ReadingFile readingFile = null;
+    private int pageSize = 0;
+    private int pageReadings = 0;
+    private String[] columnNames = null;
+    private Object positionTime = null; // the key of the last reading read
+    private Object positionObjID = null;
+    private Object positionReaderID = null;
+    private boolean resuming = false; // set by resumeAfter for the next start
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+package info.sarihh.unimodeling.streamapi;
+
+import java.util.Arrays;
+
+/**
+ * This class is a hashed timing wheel of appearance keys. A key is scheduled
+ * into the bucket of the tick at which it may expire; advancing the wheel
+ * hands out the keys of every bucket whose tick has passed. The wheel spans
+ * more than the longest delay it is used for, so a bucket never holds keys
+ * of two different rounds. Scheduling is O(1) and does not allocate once the
+ * buckets have grown to their working size.
+ * Author: Sari Haj Hussein
+ */
+public class TimingWheel {
+
+    public TimingWheel(long tickDuration, long span, long now) {
+        this.tickDuration = tickDuration;
+        int size = 1;
+        while (size < span / tickDuration + 2) {
+            size <<= 1;
+        }
+        bucketKeys = new long[size][];
+        bucketSizes = new int[size];
+        for (int i = 0; i < size; i++) {
+            bucketKeys[i] = new long[8];
+        }
+        currentTick = now / tickDuration;
+    }
+
+    /** This method returns the first tick at or after the deadline that has
+     * not passed yet. */
+    public long getTick(long deadline) {
+        long tick = (deadline + tickDuration - 1) / tickDuration;
+        return Math.max(tick, currentTick + 1);
+    }
+
+    public void schedule(long key, long tick) {
+        int bucket = (int) (tick & (bucketKeys.length - 1));
+        int size = bucketSizes[bucket];
+        if (size == bucketKeys[bucket].length) {
+            bucketKeys[bucket] = Arrays.copyOf(bucketKeys[bucket], 2 * size);
+        }
+        bucketKeys[bucket][size] = key;
+        bucketSizes[bucket] = size + 1;
+    }
+
+    /** This method advances the wheel to now and returns how many due keys
+     * getDueKey and getDueTick can be asked for. */
+    public int advance(long now) {
+        dueCount = 0;
+        long targetTick = now / tickDuration;
+        if (targetTick - currentTick > bucketKeys.length) { // everything is due
+            currentTick = targetTick - bucketKeys.length;
+        }
+        while (currentTick < targetTick) {
+            currentTick++;
+            int bucket = (int) (currentTick & (bucketKeys.length - 1));
+            int size = bucketSizes[bucket];
+            if (dueCount + size > dueKeys.length) {
+                int capacity = Math.max(dueCount + size, 2 * dueKeys.length);
+                dueKeys = Arrays.copyOf(dueKeys, capacity);
+                dueTicks = Arrays.copyOf(dueTicks, capacity);
+            }
+            System.arraycopy(bucketKeys[bucket], 0, dueKeys, dueCount, size);
+            Arrays.fill(dueTicks, dueCount, dueCount + size, currentTick);
+            dueCount += size;
+            bucketSizes[bucket] = 0;
+        }
+        return dueCount;
+    }
+
+    public long getDueKey(int i) {
+        return dueKeys[i];
+    }
+
+    /** This method tells whether the due key was handed out by the bucket
+     * it is currently scheduled into, and not by one it was scheduled into
+     * before. */
+    public boolean isScheduledAt(long scheduledTick, int i) {
+        return scheduledTick <= dueTicks[i] && ((scheduledTick ^ dueTicks[i]) & (bucketKeys.length - 1)) == 0;
+    }
+    private final long tickDuration;
+    private final long[][] bucketKeys;
+    private final int[] bucketSizes;
+    private long currentTick;
+    private long[] dueKeys = new long[64];
+    private long[] dueTicks = new long[64];
+    private int dueCount = 0;
+}
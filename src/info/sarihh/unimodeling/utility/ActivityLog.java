@@ -0,0 +1,140 @@
+package info.sarihh.unimodeling.utility;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseEvent;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import javax.swing.AbstractListModel;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.Timer;
+import javax.swing.ToolTipManager;
+
+/**
+ * This class is the activity log of a frame. Appending a message only stores
+ * it in a fixed-size ring buffer, from any thread; the oldest messages are
+ * overwritten once the buffer is full. The view is refreshed at a fixed frame
+ * rate on the event dispatch thread, and it is a list with a fixed cell
+ * height, so only the visible messages are ever formatted and painted. The
+ * cost of logging therefore does not grow with the message rate or with the
+ * length of the log.
+ * Author: Sari Haj Hussein
+ */
+public class ActivityLog extends AbstractListModel<String> {
+
+    public ActivityLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ActivityLog(int capacity) {
+        times = new long[capacity];
+        messages = new String[capacity];
+    }
+
+    /** This method shows the log in the scroll pane in place of its current
+     * view. */
+    public void install(JScrollPane scrollPane) {
+        final JList<String> list = new JList<String>(this) {
+
+            @Override
+            public void addNotify() {
+                super.addNotify();
+                refreshTimer.start();
+            }
+
+            @Override
+            public void removeNotify() {
+                refreshTimer.stop();
+                super.removeNotify();
+            }
+
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                return true;
+            }
+
+            @Override
+            public String getToolTipText(MouseEvent e) { // shows messages that are cut off
+                int index = locationToIndex(e.getPoint());
+                return index < 0 ? null : getModel().getElementAt(index);
+            }
+        };
+        list.setPrototypeCellValue(dateFormat.format(new Date()) + " -> " + PROTOTYPE_MESSAGE); // fixes the cell size
+        list.setVisibleRowCount(12);
+        ToolTipManager.sharedInstance().registerComponent(list);
+        refreshTimer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                if (refresh()) {
+                    list.ensureIndexIsVisible(viewSize - 1);
+                }
+            }
+        });
+        scrollPane.setViewportView(list);
+    }
+
+    /** This method adds a message to the log; empty messages are ignored. */
+    public synchronized void append(String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        int slot = (int) (total % messages.length);
+        times[slot] = System.currentTimeMillis();
+        messages[slot] = text;
+        total++;
+    }
+
+    public synchronized void clear() {
+        cleared = total;
+    }
+
+    public int getSize() {
+        return viewSize;
+    }
+
+    public synchronized String getElementAt(int index) {
+        long position = viewTotal - viewSize + index;
+        if (position < total - messages.length) { // overwritten since the last refresh
+            return "";
+        }
+        int slot = (int) (position % messages.length);
+        return dateFormat.format(new Date(times[slot])) + " -> " + messages[slot];
+    }
+
+    /* Takes over the messages appended since the last refresh and tells
+     * whether there were any. */
+    private boolean refresh() {
+        long total;
+        int size;
+        synchronized (this) {
+            total = this.total;
+            size = (int) Math.min(total - cleared, messages.length);
+        }
+        if (total == viewTotal && size == viewSize) {
+            return false;
+        }
+        int oldSize = viewSize;
+        viewTotal = total;
+        viewSize = size;
+        if (size < oldSize) {
+            fireIntervalRemoved(this, size, oldSize - 1);
+        }
+        if (size > oldSize) {
+            fireIntervalAdded(this, oldSize, size - 1);
+        }
+        fireContentsChanged(this, 0, Math.max(0, Math.min(size, oldSize) - 1));
+        return size > 0;
+    }
+    private static final int DEFAULT_CAPACITY = 10000;
+    private static final int REFRESH_INTERVAL = 100; // milliseconds
+    private static final String PROTOTYPE_MESSAGE = "A connection from Socket[addr=/127.0.0.1,port=50000].";
+    private final long[] times;
+    private final String[] messages;
+    private long total = 0; // messages appended so far
+    private long cleared = 0; // the value of total when the log was last cleared
+    private long viewTotal = 0; // the value of total that the view shows
+    private int viewSize = 0;
+    private Timer refreshTimer;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+}
@@ -0,0 +1,266 @@
+package info.sarihh.unimodeling.utility;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * This class loads rows into a result table, e.g. APPEAR_TABLE, PROB_TABLE,
+ * or INFER_TABLE, along the fastest path the connected DBMS offers:
+ * - PostgreSQL: COPY ... FROM STDIN through the CopyManager of the driver;
+ *   when the driver does not offer it, multi-row inserts are used.
+ * - MySQL: multi-row INSERT ... VALUES (...), (...) statements.
+ * - Oracle: one INSERT sent with JDBC batching, which the driver binds as
+ *   arrays, so all the rows go in one round trip.
+ * Rows are buffered and loaded once rowsPerLoad rows are buffered, and on
+ * flush. Values are Strings, Integers, Longs, Timestamps, byte arrays, or
+ * null. The loader does not commit; the rows are committed as the connection
+ * is.
+ * Author: Sari Haj Hussein
+ */
+public class BulkLoader {
+
+    public BulkLoader(Connection conn, String tableName, int columnCount) throws SQLException {
+        this(conn, tableName, columnCount, ROWS_PER_LOAD);
+    }
+
+    public BulkLoader(Connection conn, String tableName, int columnCount, int rowsPerLoad) throws SQLException {
+        this.conn = conn;
+        this.tableName = tableName;
+        this.columnCount = columnCount;
+        this.rowsPerLoad = Math.max(1, Math.min(rowsPerLoad, MAX_PARAMETERS / columnCount));
+        this.values = new Object[this.rowsPerLoad * columnCount];
+        SqlDialect dialect = SqlDialect.forConnection(conn);
+        if (dialect == SqlDialect.POSTGRESQL && initCopy()) {
+            method = COPY;
+        } else if (dialect == SqlDialect.ORACLE) {
+            method = BATCH;
+        } else {
+            method = MULTI_ROW_INSERT;
+        }
+    }
+
+    /** This method buffers a row, and loads the buffered rows once there are
+     * rowsPerLoad of them. */
+    public void add(Object... row) throws SQLException {
+        if (row.length != columnCount) {
+            throw new IllegalArgumentException("A row of " + tableName + " has " + columnCount + " values.");
+        }
+        System.arraycopy(row, 0, values, rowCount * columnCount, columnCount);
+        if (++rowCount == rowsPerLoad) {
+            flush();
+        }
+    }
+
+    /** This method loads the buffered rows and returns how many rows were
+     * loaded. */
+    public int flush() throws SQLException {
+        int rows = rowCount;
+        if (rows == 0) {
+            return 0;
+        }
+        try {
+            switch (method) {
+                case COPY:
+                    copy(rows);
+                    break;
+                case BATCH:
+                    batch(rows);
+                    break;
+                default:
+                    insert(rows);
+                    break;
+            }
+        } finally {
+            rowCount = 0;
+            Arrays.fill(values, null);
+        }
+        loadedRows += rows;
+        return rows;
+    }
+
+    /** This method loads the buffered rows and releases the statements of the
+     * loader; the connection stays open. */
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            if (fullStatement != null) {
+                fullStatement.close();
+                fullStatement = null;
+            }
+        }
+    }
+
+    /** This method forgets the buffered rows without loading them. */
+    public void clear() {
+        rowCount = 0;
+        Arrays.fill(values, null);
+    }
+
+    /** This method returns how many rows were loaded so far. */
+    public long getLoadedRows() {
+        return loadedRows;
+    }
+
+    /** This method returns the way the rows are loaded, for the log. */
+    public String getMethod() {
+        return method;
+    }
+
+    /* Streams the rows in the text format of COPY. */
+    private void copy(int rows) throws SQLException {
+        StringBuilder data = new StringBuilder(rows * columnCount * 16);
+        for (int i = 0; i < rows * columnCount; i++) {
+            Object value = values[i];
+            if (value == null) {
+                data.append("\\N");
+            } else if (value instanceof byte[]) { // the hex format of bytea, with its backslash escaped
+                data.append("\\\\x");
+                for (byte b : (byte[]) value) {
+                    data.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+                }
+            } else {
+                String text = value.toString();
+                for (int j = 0; j < text.length(); j++) {
+                    char c = text.charAt(j);
+                    switch (c) {
+                        case '\\':
+                            data.append("\\\\");
+                            break;
+                        case '\t':
+                            data.append("\\t");
+                            break;
+                        case '\n':
+                            data.append("\\n");
+                            break;
+                        case '\r':
+                            data.append("\\r");
+                            break;
+                        default:
+                            data.append(c);
+                            break;
+                    }
+                }
+            }
+            data.append((i + 1) % columnCount == 0 ? '\n' : '\t');
+        }
+        try {
+            copyIn.invoke(copyManager, "COPY " + tableName + " FROM STDIN", new StringReader(data.toString()));
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("COPY into " + tableName + " failed.", e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private void batch(int rows) throws SQLException {
+        if (fullStatement == null) {
+            fullStatement = conn.prepareStatement(getInsert(1));
+        }
+        for (int row = 0; row < rows; row++) {
+            bind(fullStatement, row * columnCount, columnCount);
+            fullStatement.addBatch();
+        }
+        try {
+            fullStatement.executeBatch();
+        } finally {
+            fullStatement.clearBatch();
+        }
+    }
+
+    private void insert(int rows) throws SQLException {
+        if (rows == rowsPerLoad) {
+            if (fullStatement == null) {
+                fullStatement = conn.prepareStatement(getInsert(rowsPerLoad));
+            }
+            bind(fullStatement, 0, rows * columnCount);
+            fullStatement.executeUpdate();
+        } else { // the rest of the rows, on flush
+            PreparedStatement statement = conn.prepareStatement(getInsert(rows));
+            try {
+                bind(statement, 0, rows * columnCount);
+                statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    private void bind(PreparedStatement statement, int from, int count) throws SQLException {
+        for (int i = 0; i < count; i++) {
+            Object value = values[from + i];
+            if (value instanceof String) {
+                statement.setString(i + 1, (String) value);
+            } else if (value instanceof Integer) {
+                statement.setInt(i + 1, (Integer) value);
+            } else if (value instanceof Long) {
+                statement.setLong(i + 1, (Long) value);
+            } else if (value instanceof Timestamp) {
+                statement.setTimestamp(i + 1, (Timestamp) value);
+            } else if (value instanceof byte[]) {
+                statement.setBytes(i + 1, (byte[]) value);
+            } else if (value == null) {
+                statement.setNull(i + 1, Types.VARCHAR);
+            } else {
+                statement.setObject(i + 1, value);
+            }
+        }
+    }
+
+    private String getInsert(int rows) {
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columnCount; i++) {
+            row.append(i == 0 ? "?" : ", ?");
+        }
+        row.append(')');
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(tableName).append(" VALUES ");
+        for (int i = 0; i < rows; i++) {
+            insert.append(i == 0 ? "" : ", ").append(row);
+        }
+        return insert.toString();
+    }
+
+    /* Looks up the CopyManager of the PostgreSQL driver by reflection, so
+     * the driver is not needed to build; returns false if it is missing. */
+    private boolean initCopy() {
+        try {
+            Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+            if (!conn.isWrapperFor(pgConnection)) {
+                return false;
+            }
+            copyManager = pgConnection.getMethod("getCopyAPI").invoke(conn.unwrap(pgConnection));
+            copyIn = copyManager.getClass().getMethod("copyIn", String.class, Reader.class);
+            return true;
+        } catch (ReflectiveOperationException | SQLException e) {
+            return false;
+        }
+    }
+    public static final String COPY = "COPY FROM STDIN";
+    public static final String BATCH = "batched array inserts";
+    public static final String MULTI_ROW_INSERT = "multi-row inserts";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int ROWS_PER_LOAD = 1000;
+    private static final int MAX_PARAMETERS = 32767; // bind variables per statement in every supported DBMS
+    private final Connection conn;
+    private final String tableName;
+    private final int columnCount;
+    private final int rowsPerLoad;
+    private final String method;
+    private final Object[] values;
+    private int rowCount = 0;
+    private long loadedRows = 0;
+    private PreparedStatement fullStatement = null;
+    private Object copyManager = null;
+    private Method copyIn = null;
+}
@@ -0,0 +1,110 @@
+package info.sarihh.unimodeling.utility;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/**
+ * This class keeps the progress of the batch stages of the pipeline in
+ * CHECKPOINT_TABLE, one row per stage, so a stopped or failed run resumes
+ * where the last one stopped. A stage saves its position on the connection it
+ * writes its results on, before it commits them, so the results and the
+ * position are committed together and a resumed run neither skips nor
+ * repeats any of them. The store does not commit.
+ * Author: Sari Haj Hussein
+ */
+public class CheckpointStore {
+
+    public CheckpointStore(Connection conn) {
+        this.conn = conn;
+    }
+
+    /** This method creates CHECKPOINT_TABLE unless it exists. */
+    public void createTable() throws SQLException {
+        SchemaManager schemaManager = new SchemaManager(conn);
+        if (schemaManager.tableExists(TABLE_NAME)) {
+            return;
+        }
+        SqlDialect dialect = SqlDialect.forConnection(conn);
+        Statement statement = conn.createStatement();
+        try {
+            statement.execute("CREATE TABLE " + TABLE_NAME + " (\n"
+                    + "STAGE " + dialect.varchar(100) + " PRIMARY KEY,\n"
+                    + "POSITION " + dialect.varchar(1000) + ",\n"
+                    + "SAVE_TIME " + dialect.timestamp(3) + ")");
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** This method returns the position the stage saved last, or null if it
+     * has none. */
+    public String load(String stage) throws SQLException {
+        PreparedStatement statement = conn.prepareStatement("SELECT POSITION FROM " + TABLE_NAME + " WHERE STAGE = ?");
+        try {
+            statement.setString(1, stage);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getString(1) : null;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** This method saves the position of the stage, replacing the one it
+     * saved before. */
+    public void save(String stage, String position) throws SQLException {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        PreparedStatement statement = conn.prepareStatement("UPDATE " + TABLE_NAME
+                + " SET POSITION = ?, SAVE_TIME = ? WHERE STAGE = ?");
+        try {
+            statement.setString(1, position);
+            statement.setTimestamp(2, now);
+            statement.setString(3, stage);
+            if (statement.executeUpdate() > 0) {
+                return;
+            }
+        } finally {
+            statement.close();
+        }
+        statement = conn.prepareStatement("INSERT INTO " + TABLE_NAME + " VALUES (?, ?, ?)");
+        try {
+            statement.setString(1, stage);
+            statement.setString(2, position);
+            statement.setTimestamp(3, now);
+            statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** This method forgets the position of the stage, so its next run starts
+     * from the beginning. */
+    public void clear(String stage) throws SQLException {
+        PreparedStatement statement = conn.prepareStatement("DELETE FROM " + TABLE_NAME + " WHERE STAGE = ?");
+        try {
+            statement.setString(1, stage);
+            statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** This method forgets the position of the stage and those of its
+     * parts, i.e. of the stages named after it followed by a space. */
+    public void clearAll(String stage) throws SQLException {
+        PreparedStatement statement = conn.prepareStatement("DELETE FROM " + TABLE_NAME
+                + " WHERE STAGE = ? OR STAGE LIKE ?");
+        try {
+            statement.setString(1, stage);
+            statement.setString(2, stage + " %");
+            statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+    public static final String TABLE_NAME = "CHECKPOINT_TABLE";
+    private final Connection conn;
+}
@@ -1,65 +1,92 @@
 package info.sarihh.unimodeling.utility;
 
 import info.sarihh.unimodeling.gui.RFIDServerFrame;
-import info.sarihh.unimodeling.streamapi.OnlineCondenserTask;
+import info.sarihh.unimodeling.streamapi.ReadingCodec;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
 import java.io.ObjectInputStream;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.concurrent.ConcurrentHashMap;
 
 /*
+ * This thread serves one blocking client connection. The ingest server hands
+ * legacy (Java serialization) clients over to it together with the bytes it
+ * has already read from them.
  * Author: Sari Haj Hussein
  */
 public class ClientHandler extends Thread {
 
-    public ClientHandler(RFIDServerFrame rfidServerFrame, Socket client) {
+    public ClientHandler(RFIDServerFrame rfidServerFrame, Socket client,
+            InputStream clientInputStream, RFIDIngestServer ingestServer) {
         this.rfidServerFrame = rfidServerFrame;
         this.client = client;
+        this.clientInputStream = clientInputStream;
+        this.ingestServer = ingestServer;
     }
 
     @Override
     public void run() {
-        ConcurrentHashMap<String, HashMap<String, String>> memoryMap = new ConcurrentHashMap<>();
-        Timer timer = new Timer();
-        OnlineCondenserTask translatorTask = new OnlineCondenserTask(rfidServerFrame, memoryMap);
-        timer.schedule(translatorTask, rfidServerFrame.getCondensingStarts(), rfidServerFrame.getCondensingRepeats());
         try {
-            ObjectInputStream clientInputStream = new ObjectInputStream(client.getInputStream());
+            openInputStream();
             while (true) {
-                HashMap<String, String> reading = (HashMap<String, String>) clientInputStream.readObject();
+                HashMap<String, String> reading = readReading();
                 if (reading.containsKey("QUIT")) { // client disconnected
                     rfidServerFrame.removeConnection(client);
-                    translatorTask.run();
-                    translatorTask.cancel();
-                    timer.cancel();
                     break;
                 } else if (reading.containsKey("END")) { // client simulation ended
-                    translatorTask.run();
+                    rfidServerFrame.appendLogText("[" + client.getInetAddress().getHostAddress()
+                            + "] ended its simulation after " + readings + " readings.");
+                    rfidServerFrame.appendLogText(ingestServer.getQueueStatistics());
+                    ingestServer.condense();
                 } else {
-                    rfidServerFrame.appendLogText("[" + client.getInetAddress().getHostAddress() + "] -> " + reading);
-                    String objID = reading.get(rfidServerFrame.getStreamSource().getObjIDAttributeName());
-                    String readerID = reading.get(rfidServerFrame.getStreamSource().getReaderIDAttributeName());
-                    String searchKey = objID + "," + readerID;
-                    if (memoryMap.containsKey(searchKey + ",START")) { // if the appearance record has started
-                        memoryMap.put(objID + "," + readerID + ",END", reading); // end it
-                    } else if (memoryMap.containsKey(searchKey + ",END")) { // if it has endedn
-                        memoryMap.put(objID + "," + readerID + ",END", reading); // end it again
-                    } else { // if it neither started not ended, then start it
-                        memoryMap.put(objID + "," + readerID + ",START", reading);
-                    }
-                    translatorTask.setSearchKey(searchKey);
+                    ingestServer.submit(reading);
+                    readings++;
                 }
             }
         } catch (Exception e) {
             e.printStackTrace();
             rfidServerFrame.appendLogText(e.toString().contains("SocketException") ? "" : e.toString());
-            translatorTask.run();
-            translatorTask.cancel();
-            timer.cancel();
+            rfidServerFrame.removeConnection(client);
             Thread.currentThread().interrupt();
         }
     }
+
+    /** This method sniffs the first bytes of the connection to choose between
+     * the binary wire protocol and the legacy Java serialization format. */
+    private void openInputStream() throws IOException {
+        BufferedInputStream in = new BufferedInputStream(clientInputStream);
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        if (ReadingCodec.isLegacyHeader(b1, b2)) {
+            legacyInputStream = new ObjectInputStream(in);
+            rfidServerFrame.appendLogText("[" + client.getInetAddress().getHostAddress() + "] uses the legacy serialization format.");
+        } else {
+            codec = new ReadingCodec(rfidServerFrame.getStreamSource());
+            binaryInputStream = new DataInputStream(in);
+            if (!codec.readHandshake(binaryInputStream)) {
+                throw new IOException("The stream encoding of [" + client.getInetAddress().getHostAddress()
+                        + "] does not match the registered stream.");
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private HashMap<String, String> readReading() throws IOException, ClassNotFoundException {
+        if (codec != null) {
+            return codec.readFrame(binaryInputStream);
+        }
+        return (HashMap<String, String>) legacyInputStream.readObject();
+    }
     private RFIDServerFrame rfidServerFrame;
     private Socket client;
+    private InputStream clientInputStream;
+    private RFIDIngestServer ingestServer;
+    private ReadingCodec codec = null;
+    private DataInputStream binaryInputStream = null;
+    private ObjectInputStream legacyInputStream = null;
+    private long readings = 0;
 }
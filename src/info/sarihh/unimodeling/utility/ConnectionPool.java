@@ -0,0 +1,327 @@
+package info.sarihh.unimodeling.utility;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is a pool of connections to one database for one pipeline
+ * stage. Closing a connection of the pool returns it to the pool, and a
+ * connection that was idle for a while is validated before it is handed out
+ * again. Every pooled connection also caches its prepared statements by SQL,
+ * so preparing a statement that was prepared and closed before on the same
+ * connection reuses it.
+ * Author: Sari Haj Hussein
+ */
+public class ConnectionPool {
+
+    public ConnectionPool(String driverClassName, String url, String user, String password, int maxSize) {
+        this.driverClassName = driverClassName;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+    }
+
+    /** This method hands out an idle connection, opens a new one while the
+     * pool is not full, or waits for one to be returned. */
+    public Connection getConnection() throws SQLException {
+        PooledConnection pooled = null;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + BORROW_TIMEOUT;
+            while (idle.isEmpty() && size == maxSize && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SQLException("No connection to " + url + " was returned in time.");
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection to " + url + ".");
+                }
+            }
+            if (closed) {
+                throw new SQLException("The connection pool for " + url + " is closed.");
+            }
+            if (!idle.isEmpty()) {
+                pooled = idle.pop();
+            } else {
+                size++;
+            }
+        }
+        try {
+            if (pooled != null && System.currentTimeMillis() - pooled.returnTime > VALIDATION_INTERVAL
+                    && !isValid(pooled.physical)) {
+                pooled.discard();
+                pooled = null;
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(connect());
+            }
+        } catch (SQLException | RuntimeException | Error e) {
+            synchronized (this) {
+                size--;
+                notifyAll();
+            }
+            throw e;
+        }
+        return pooled.open();
+    }
+
+    /** This method closes the idle connections of the pool; those that are
+     * handed out are closed when they are returned, so work that runs on them
+     * can finish. */
+    public void close() {
+        PooledConnection[] connections;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            connections = idle.toArray(new PooledConnection[idle.size()]);
+            size -= idle.size();
+            idle.clear();
+        }
+        for (PooledConnection pooled : connections) {
+            pooled.discard();
+        }
+    }
+
+    /** This method opens a new physical connection. */
+    protected Connection connect() throws SQLException {
+        try {
+            Class.forName(driverClassName);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException(e);
+        }
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    /* Runs a query that every DBMS answers at once; Connection.isValid is not
+     * in the JDBC 2 driver of Oracle. */
+    private static boolean isValid(Connection physical) {
+        try {
+            Statement statement = physical.createStatement();
+            try {
+                statement.setQueryTimeout(VALIDATION_TIMEOUT);
+                statement.executeQuery(SqlDialect.forConnection(physical) == SqlDialect.ORACLE
+                        ? "SELECT 1 FROM DUAL" : "SELECT 1").close();
+                return true;
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /* Takes back a connection whose logical connection was closed. */
+    private void release(PooledConnection pooled) {
+        boolean discard;
+        synchronized (this) {
+            discard = closed;
+            if (!discard) {
+                pooled.returnTime = System.currentTimeMillis();
+                idle.push(pooled);
+            } else {
+                size--;
+            }
+            notifyAll();
+        }
+        if (discard) {
+            pooled.discard();
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* A physical connection of the pool and its statement cache. */
+    private class PooledConnection {
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        /* Returns a new logical connection over the physical one. */
+        Connection open() {
+            final boolean[] closed = {false};
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new InvocationHandler() {
+
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "close":
+                            if (!closed[0]) {
+                                closed[0] = true;
+                                reset();
+                            }
+                            return null;
+                        case "isClosed":
+                            return closed[0] || physical.isClosed();
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "Pooled " + physical;
+                        default:
+                            break;
+                    }
+                    if (closed[0]) {
+                        throw new SQLException("The connection is closed.");
+                    }
+                    if (method.getName().equals("prepareStatement") && (args.length == 1
+                            || (args.length == 3 && args[1] instanceof Integer))) {
+                        int type = args.length == 1 ? ResultSet.TYPE_FORWARD_ONLY : (Integer) args[1];
+                        int concurrency = args.length == 1 ? ResultSet.CONCUR_READ_ONLY : (Integer) args[2];
+                        return prepare((Connection) proxy, (String) args[0], type, concurrency);
+                    }
+                    return ConnectionPool.invoke(physical, method, args);
+                }
+            });
+        }
+
+        /* Takes a cached statement or prepares a new one. */
+        synchronized PreparedStatement prepare(final Connection logical, String sql, int type, int concurrency)
+                throws SQLException {
+            final String key = type + ":" + concurrency + ":" + sql;
+            PreparedStatement cached = statementCache.remove(key);
+            final PreparedStatement physicalStatement = cached != null ? cached
+                    : physical.prepareStatement(sql, type, concurrency);
+            final ResultSet[] resultSet = {null};
+            final boolean[] closed = {false};
+            return (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new InvocationHandler() {
+
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "close":
+                            if (!closed[0]) {
+                                closed[0] = true;
+                                recycle(key, physicalStatement, resultSet[0]);
+                            }
+                            return null;
+                        case "isClosed":
+                            return closed[0];
+                        case "getConnection":
+                            return logical;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            break;
+                    }
+                    if (closed[0]) {
+                        throw new SQLException("The statement is closed.");
+                    }
+                    Object result = ConnectionPool.invoke(physicalStatement, method, args);
+                    if (result instanceof ResultSet) {
+                        resultSet[0] = (ResultSet) result;
+                    }
+                    return result;
+                }
+            });
+        }
+
+        /* Puts a closed statement back into the cache, evicting the least
+         * recently used one when the cache is full. */
+        synchronized void recycle(String key, PreparedStatement statement, ResultSet resultSet) {
+            try {
+                if (resultSet != null) {
+                    resultSet.close();
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+                PreparedStatement replaced = statementCache.put(key, statement);
+                if (replaced != null) { // the same SQL was open twice
+                    replaced.close();
+                }
+                if (statementCache.size() > STATEMENT_CACHE_SIZE) {
+                    Iterator<PreparedStatement> eldest = statementCache.values().iterator();
+                    eldest.next().close();
+                    eldest.remove();
+                }
+            } catch (SQLException e) {
+                closeQuietly(statement);
+            }
+        }
+
+        /* Returns the connection to the pool in the state it was handed out
+         * in, or discards it if that fails. */
+        void reset() {
+            try {
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                physical.clearWarnings();
+            } catch (SQLException e) {
+                discardBorrowed();
+                return;
+            }
+            release(this);
+        }
+
+        void discardBorrowed() {
+            synchronized (ConnectionPool.this) {
+                size--;
+                ConnectionPool.this.notifyAll();
+            }
+            discard();
+        }
+
+        synchronized void discard() {
+            for (PreparedStatement statement : statementCache.values()) {
+                closeQuietly(statement);
+            }
+            statementCache.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                for (Throwable t : e) {
+                    t.printStackTrace();
+                }
+            }
+        }
+
+        private void closeQuietly(PreparedStatement statement) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // the statement is dropped anyway
+            }
+        }
+        private final Connection physical;
+        private final Map<String, PreparedStatement> statementCache = new LinkedHashMap<>(16, 0.75f, true);
+        private long returnTime = System.currentTimeMillis();
+    }
+    private static final long BORROW_TIMEOUT = 30000; // milliseconds
+    private static final long VALIDATION_INTERVAL = 5000; // milliseconds
+    private static final int VALIDATION_TIMEOUT = 2; // seconds
+    private static final int STATEMENT_CACHE_SIZE = 64;
+    private final String driverClassName;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private int size = 0; // the connections that are idle or handed out
+    private boolean closed = false;
+}
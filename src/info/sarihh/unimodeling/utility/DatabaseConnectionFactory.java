@@ -1,44 +1,65 @@
 package info.sarihh.unimodeling.utility;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This factory class establishes a connection with a MySQL, PostgreSQL, or
- * Oracle DBMS.
+ * Oracle DBMS. Connections come from one pool per pipeline stage, so stages
+ * that work against the same database at the same time, e.g. condensing and
+ * translation, do not share a connection, and a stage can take further
+ * connections from its pool for work that runs concurrently.
  * Author: Sari Haj Hussein
  */
 public class DatabaseConnectionFactory {
 
     /** This method connects to the DBMS, specified by driverName and located at
-     * url, using the specified user and password. The method ensures that there
-     * is only one instance of the Connection class. */
+     * url, using the specified user and password, through the pool of the
+     * default stage. */
     public static Connection getDatabaseConnection(String driverName, String url, String user, String password) {
+        return getDatabaseConnection(DEFAULT_STAGE, driverName, url, user, password);
+    }
+
+    /** This method replaces the connection pool of the stage with one for the
+     * specified DBMS and returns a connection from it, or null if the DBMS
+     * cannot be reached. The previous pool is closed; its connections that
+     * are handed out are closed when they are returned. */
+    public static Connection getDatabaseConnection(String stage, String driverName, String url, String user,
+            String password) {
+        String className;
         switch (driverName) {
             case "MySQL Driver":
-                conn = getConnection("com.mysql.jdbc.Driver", url, user, password);
+                className = "com.mysql.jdbc.Driver";
                 break;
             case "Oracle Thin Driver":
-                conn = getConnection("oracle.jdbc.driver.OracleDriver", url, user, password);
+                className = "oracle.jdbc.driver.OracleDriver";
                 break;
             case "PostgreSQL Driver":
-                conn = getConnection("org.postgresql.Driver", url, user, password);
+                className = "org.postgresql.Driver";
                 break;
             default:
-                conn = getConnection("oracle.jdbc.driver.OracleDriver", url, user, password);
+                className = "oracle.jdbc.driver.OracleDriver";
                 break;
         }
-        return conn;
-    }
-
-    private static Connection getConnection(String className, String url, String user, String password) {
+        ConnectionPool pool = new ConnectionPool(className, url, user, password, POOL_SIZE);
+        ConnectionPool previous = pools.put(stage, pool);
+        if (previous != null) {
+            previous.close();
+        }
         try {
-            Class.forName(className);
-            return DriverManager.getConnection(url, user, password);
-        } catch (ClassNotFoundException | SQLException e) {
+            return pool.getConnection();
+        } catch (SQLException e) {
             return null;
         }
     }
-    private static Connection conn;
-}
\ No newline at end of file
+
+    /** This method returns the connection pool of the stage, or null if the
+     * stage has not connected yet. */
+    public static ConnectionPool getConnectionPool(String stage) {
+        return pools.get(stage);
+    }
+    public static final String DEFAULT_STAGE = "Default";
+    private static final int POOL_SIZE = 24; // the frame's own connection and up to 16 workers, with room to spare
+    private static final ConcurrentHashMap<String, ConnectionPool> pools = new ConcurrentHashMap<>();
+}
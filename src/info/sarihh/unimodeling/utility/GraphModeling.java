@@ -378,6 +378,29 @@ public class GraphModeling {
         }
     }
 
+    /** This method compiles the coverage weights c_r of the readers in the
+     * vertices of the specified RFID readers deployment pseudograph into a
+     * probabilistic location map; the readers in c_l that have no coverage
+     * weight count as fully covering their vertex. */
+    public static ProbabilisticLocationMap compileLocationMap(OrientGraph rfidGraph) {
+        ProbabilisticLocationMap locationMap = new ProbabilisticLocationMap();
+        for (Vertex v : rfidGraph.getVertices()) {
+            String location = v.getProperty("name").toString();
+            Object c_r = v.getProperty("c_r");
+            if (c_r instanceof Iterable) {
+                locationMap.addLocation(location, (Iterable<?>) c_r);
+            }
+            Object c_l = v.getProperty("c_l");
+            if (c_l instanceof Iterable) {
+                for (Object r : (Iterable<?>) c_l) {
+                    locationMap.addReader(location, r.toString().trim());
+                }
+            }
+        }
+        locationMap.compile();
+        return locationMap;
+    }
+
     /** This method adds a customized property to the vertices or edges of the
      * specified RFID readers deployment pseudograph. */
     public static void addCustomizedProperty(OrientGraph rfidGraph, String propertyName,
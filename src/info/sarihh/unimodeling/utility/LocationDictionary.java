@@ -0,0 +1,151 @@
+package info.sarihh.unimodeling.utility;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class maps semantic locations, e.g. SMC, to the dense IDs that
+ * probability vectors are keyed by, and back. The IDs are kept in
+ * LOCATION_TABLE, so every stage and every run reads a vector with the IDs it
+ * was written with. A new location is inserted on a connection of the pool
+ * of its own and committed at once, so its ID is never rolled back along with
+ * the records that use it.
+ * Author: Sari Haj Hussein
+ */
+public class LocationDictionary {
+
+    /** This constructor creates LOCATION_TABLE unless it exists, and reads
+     * the locations in it. */
+    public LocationDictionary(ConnectionPool connectionPool) throws SQLException {
+        this.connectionPool = connectionPool;
+        Connection conn = connectionPool.getConnection();
+        try {
+            if (!new SchemaManager(conn).tableExists(TABLE_NAME)) {
+                Statement statement = conn.createStatement();
+                try {
+                    statement.execute("CREATE TABLE " + TABLE_NAME + " (\n"
+                            + "LOCATION_ID INTEGER PRIMARY KEY,\n"
+                            + "LOCATION_NAME " + SqlDialect.forConnection(conn).varchar(100) + " NOT NULL UNIQUE)");
+                } finally {
+                    statement.close();
+                }
+                if (!conn.getAutoCommit()) {
+                    conn.commit();
+                }
+            }
+            reload(conn);
+        } finally {
+            conn.close();
+        }
+    }
+
+    /* A read-only dictionary; it has no pool to add locations with. */
+    private LocationDictionary() {
+        this.connectionPool = null;
+    }
+
+    /** This method reads the locations in LOCATION_TABLE without creating
+     * it, so a missing table reads as empty; the dictionary it returns finds
+     * IDs but cannot add locations. */
+    public static LocationDictionary read(Connection conn) throws SQLException {
+        LocationDictionary dictionary = new LocationDictionary();
+        if (new SchemaManager(conn).tableExists(TABLE_NAME)) {
+            dictionary.reload(conn);
+        }
+        return dictionary;
+    }
+
+    /** This method returns the ID of the location, adding it if it is
+     * new. */
+    public int getId(String name) throws SQLException {
+        Integer id = ids.get(name);
+        return id != null ? id : add(name);
+    }
+
+    /** This method returns the ID of the location, or -1 if it is not in
+     * the dictionary. */
+    public int findId(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    public synchronized String getName(int id) {
+        return names.get(id);
+    }
+
+    /** This method returns how many locations there are, i.e. the length of
+     * an array indexed by their IDs. */
+    public synchronized int size() {
+        return names.size();
+    }
+
+    private synchronized int add(String name) throws SQLException {
+        if (connectionPool == null) {
+            throw new SQLException("The location " + name + " is not in " + TABLE_NAME
+                    + ", and this dictionary is read-only.");
+        }
+        Connection conn = connectionPool.getConnection();
+        try {
+            for (int attempt = 1; !ids.containsKey(name); attempt++) {
+                if (names.size() == MAX_LOCATIONS) {
+                    throw new SQLException(TABLE_NAME + " is full; a probability vector has room for "
+                            + MAX_LOCATIONS + " locations.");
+                }
+                PreparedStatement statement = conn.prepareStatement("INSERT INTO " + TABLE_NAME + " VALUES (?, ?)");
+                try {
+                    statement.setInt(1, names.size());
+                    statement.setString(2, name);
+                    statement.executeUpdate();
+                    if (!conn.getAutoCommit()) {
+                        conn.commit();
+                    }
+                    ids.put(name, names.size());
+                    names.add(name);
+                } catch (SQLException e) { // another run added a location first
+                    if (!conn.getAutoCommit()) {
+                        conn.rollback();
+                    }
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    reload(conn);
+                } finally {
+                    statement.close();
+                }
+            }
+        } finally {
+            conn.close();
+        }
+        return ids.get(name);
+    }
+
+    /* Reads every location in LOCATION_TABLE; the IDs are dense. */
+    private synchronized void reload(Connection conn) throws SQLException {
+        Statement statement = conn.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery("SELECT LOCATION_ID, LOCATION_NAME FROM " + TABLE_NAME
+                    + " ORDER BY LOCATION_ID");
+            ArrayList<String> locations = new ArrayList<>();
+            while (resultSet.next()) {
+                locations.add(resultSet.getString(2));
+            }
+            for (int id = names.size(); id < locations.size(); id++) {
+                names.add(locations.get(id));
+                ids.put(locations.get(id), id);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+    public static final String TABLE_NAME = "LOCATION_TABLE";
+    public static final int MAX_LOCATIONS = 65536; // an ID is an unsigned short in a vector
+    private static final int MAX_ATTEMPTS = 3;
+    private final ConnectionPool connectionPool;
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ArrayList<String> names = new ArrayList<>();
+}
@@ -0,0 +1,261 @@
+package info.sarihh.unimodeling.utility;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class maps every reader of an RFID readers deployment to the
+ * probabilities of the semantic locations an object read by it is in. It is
+ * compiled from the coverage weights of the readers in the locations, i.e.
+ * the c_r property of the vertices of the deployment pseudograph, whose values
+ * look like r2->0.8: the probability of a location given a reader is the
+ * coverage weight of the reader in it divided by the sum of its coverage
+ * weights in all locations. Readers are numbered by the digits of their
+ * names, e.g. r2 is reader 2, which is the LOCATION_ID it reports, so no two
+ * readers may share a number. The compiled map is a dense array indexed by
+ * that number, so a lookup is O(1); when the numbers are too sparse for
+ * that, the numbers are mapped to array slots by a hash map instead.
+ * Author: Sari Haj Hussein
+ */
+public class ProbabilisticLocationMap {
+
+    /** This method adds the coverage weights of the readers in a location,
+     * given as reader->weight strings. */
+    public void addLocation(String location, Iterable<?> coverageWeights) {
+        for (Object coverageWeight : coverageWeights) {
+            String text = coverageWeight.toString().trim();
+            int arrow = text.indexOf("->");
+            if (arrow < 0) {
+                continue;
+            }
+            int reader = claimReaderNumber(text.substring(0, arrow).trim());
+            double weight = Double.parseDouble(text.substring(arrow + 2).trim());
+            if (reader < 0 || weight <= 0) {
+                continue;
+            }
+            Map<String, Double> weights = readerWeights.get(reader);
+            if (weights == null) {
+                weights = new LinkedHashMap<>();
+                readerWeights.put(reader, weights);
+            }
+            Double previous = weights.get(location);
+            weights.put(location, previous == null ? weight : Math.max(previous, weight));
+        }
+    }
+
+    /** This method adds a reader that is positioned in a location away from
+     * any connection point, i.e. one in its c_l property, with a coverage
+     * weight of 1 unless the location gives it one. */
+    public void addReader(String location, String reader) {
+        int number = claimReaderNumber(reader);
+        if (number < 0) {
+            return;
+        }
+        Map<String, Double> weights = readerWeights.get(number);
+        if (weights == null) {
+            weights = new LinkedHashMap<>();
+            readerWeights.put(number, weights);
+        }
+        if (!weights.containsKey(location)) {
+            weights.put(location, 1.0);
+        }
+    }
+
+    /** This method compiles the coverage weights added so far into the
+     * lookup arrays. */
+    public void compile() {
+        readers = new int[readerWeights.size()];
+        int count = 0;
+        for (int reader : readerWeights.keySet()) {
+            readers[count++] = reader;
+        }
+        Arrays.sort(readers);
+        int maxReader = readers.length == 0 ? -1 : readers[readers.length - 1];
+        if (maxReader < Math.max(MIN_DENSE_SIZE, DENSITY * readers.length)) {
+            denseSlots = new int[maxReader + 1];
+            Arrays.fill(denseSlots, -1);
+            sparseSlots = null;
+        } else {
+            denseSlots = null;
+            sparseSlots = new HashMap<>();
+        }
+        ArrayList<String> locationList = new ArrayList<>();
+        HashMap<String, Integer> locationIndexes = new HashMap<>();
+        probLocs = new String[readers.length];
+        locations = new int[readers.length][];
+        probabilities = new double[readers.length][];
+        for (int slot = 0; slot < readers.length; slot++) {
+            if (denseSlots != null) {
+                denseSlots[readers[slot]] = slot;
+            } else {
+                sparseSlots.put(readers[slot], slot);
+            }
+            ArrayList<Map.Entry<String, Double>> weights
+                    = new ArrayList<>(readerWeights.get(readers[slot]).entrySet());
+            Collections.sort(weights, BY_WEIGHT);
+            double sum = 0;
+            for (Map.Entry<String, Double> weight : weights) {
+                sum += weight.getValue();
+            }
+            locations[slot] = new int[weights.size()];
+            probabilities[slot] = new double[weights.size()];
+            StringBuilder probLoc = new StringBuilder();
+            for (int i = 0; i < weights.size(); i++) {
+                String location = weights.get(i).getKey();
+                Integer index = locationIndexes.get(location);
+                if (index == null) {
+                    index = locationList.size();
+                    locationList.add(location);
+                    locationIndexes.put(location, index);
+                }
+                double probability = weights.get(i).getValue() / sum;
+                locations[slot][i] = index;
+                probabilities[slot][i] = probability;
+                probLoc.append(i == 0 ? "" : ",").append(location).append(':').append(format(probability));
+            }
+            probLocs[slot] = probLoc.toString();
+        }
+        locationNames = locationList.toArray(new String[locationList.size()]);
+    }
+
+    /** This method returns the PROB_LOC value of the reader, e.g.
+     * SMC:0.8,TTS:0.2, or null if the deployment has no such reader. */
+    public String getProbLoc(int reader) {
+        int slot = getSlot(reader);
+        return slot >= 0 ? probLocs[slot] : null;
+    }
+
+    /** This method encodes the probabilities of every reader as a
+     * ProbabilityVector keyed by the IDs of the dictionary, which gets the
+     * locations it lacks; getProbVec then returns them. */
+    public void compileVectors(LocationDictionary dictionary) throws SQLException {
+        int[] ids = new int[locationNames.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dictionary.getId(locationNames[i]);
+        }
+        probVecs = new byte[locations.length][];
+        for (int slot = 0; slot < locations.length; slot++) {
+            if (locations[slot] != null) {
+                int[] readerIds = new int[locations[slot].length];
+                for (int i = 0; i < readerIds.length; i++) {
+                    readerIds[i] = ids[locations[slot][i]];
+                }
+                probVecs[slot] = ProbabilityVector.encode(readerIds, probabilities[slot]);
+            }
+        }
+    }
+
+    /** This method returns the PROB_VEC value of the reader, or an empty
+     * vector if the deployment has no such reader or the vectors are not
+     * compiled. */
+    public byte[] getProbVec(int reader) {
+        int slot = getSlot(reader);
+        return slot >= 0 && slot < probVecs.length ? probVecs[slot] : ProbabilityVector.EMPTY;
+    }
+
+    /** This method returns the indexes of the locations of the reader into
+     * getLocationNames, most probable first, or null if the deployment has
+     * no such reader. */
+    public int[] getLocations(int reader) {
+        int slot = getSlot(reader);
+        return slot >= 0 ? locations[slot] : null;
+    }
+
+    /** This method returns the probabilities of the locations of the reader,
+     * in the order of getLocations. */
+    public double[] getProbabilities(int reader) {
+        int slot = getSlot(reader);
+        return slot >= 0 ? probabilities[slot] : null;
+    }
+
+    public String[] getLocationNames() {
+        return locationNames;
+    }
+
+    /** This method returns the numbers of the readers in the map, in
+     * ascending order. */
+    public int[] getReaders() {
+        return readers;
+    }
+
+    /** This method returns how many readers the map covers. */
+    public int getReaderCount() {
+        return readerWeights.size();
+    }
+
+    /** This method returns the number in the name of a reader, e.g. 12 for
+     * r12, or -1 if the name has none. */
+    public static int getReaderNumber(String reader) {
+        int end = reader.length();
+        while (end > 0 && !Character.isDigit(reader.charAt(end - 1))) {
+            end--;
+        }
+        int start = end;
+        while (start > 0 && Character.isDigit(reader.charAt(start - 1))) {
+            start--;
+        }
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        return Integer.parseInt(reader.substring(start, end));
+    }
+
+    /* Returns the number of the reader, or -1 if its name has none. Two
+     * readers whose names have the same number, e.g. A1 and B1, would report
+     * the same LOCATION_ID, so they are rejected. */
+    private int claimReaderNumber(String reader) {
+        int number = getReaderNumber(reader);
+        if (number >= 0) {
+            String claimed = readerNames.get(number);
+            if (claimed == null) {
+                readerNames.put(number, reader);
+            } else if (!claimed.equalsIgnoreCase(reader)) {
+                throw new IllegalArgumentException("The readers " + claimed + " and " + reader
+                        + " have the same number " + number + ".");
+            }
+        }
+        return number;
+    }
+
+    /* Returns the slot of the reader in the compiled arrays, or -1 if the
+     * map has no such reader. */
+    private int getSlot(int reader) {
+        if (denseSlots != null) {
+            return reader >= 0 && reader < denseSlots.length ? denseSlots[reader] : -1;
+        }
+        Integer slot = sparseSlots.get(reader);
+        return slot != null ? slot : -1;
+    }
+
+    private static String format(double probability) {
+        return new BigDecimal(probability).setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+    }
+    private static final Comparator<Map.Entry<String, Double>> BY_WEIGHT = new Comparator<Map.Entry<String, Double>>() {
+
+        @Override
+        public int compare(Map.Entry<String, Double> weight1, Map.Entry<String, Double> weight2) {
+            int byWeight = Double.compare(weight2.getValue(), weight1.getValue());
+            return byWeight != 0 ? byWeight : weight1.getKey().compareTo(weight2.getKey());
+        }
+    };
+    private static final int MIN_DENSE_SIZE = 1024;
+    private static final int DENSITY = 4; // the most array slots per reader before a hash map is used
+    private final HashMap<Integer, Map<String, Double>> readerWeights = new HashMap<>();
+    private final HashMap<Integer, String> readerNames = new HashMap<>();
+    private int[] readers = new int[0];
+    private int[] denseSlots = new int[0];
+    private HashMap<Integer, Integer> sparseSlots = null;
+    private String[] probLocs = new String[0];
+    private byte[][] probVecs = new byte[0][];
+    private int[][] locations = new int[0][];
+    private double[][] probabilities = new double[0][];
+    private String[] locationNames = new String[0];
+}
@@ -0,0 +1,120 @@
+package info.sarihh.unimodeling.utility;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * This class encodes the probabilities of the semantic locations of an
+ * object, which PROB_LOC and INFER_LOC hold as text, e.g.
+ * CH:0.25,OC:0.25,CGS:0.5, into a sparse binary vector, and decodes it into
+ * an array indexed by location ID. A vector is a sequence of four-byte
+ * entries, one per location: the ID of the location in a LocationDictionary
+ * and its probability in steps of 1/65535, which is finer than the four
+ * decimals of the text, both as unsigned shorts. A vector without entries
+ * has no location.
+ * Author: Sari Haj Hussein
+ */
+public class ProbabilityVector {
+
+    /** This method encodes the text of a probabilistic location, adding the
+     * locations the dictionary lacks; null or empty text makes an empty
+     * vector. */
+    public static byte[] encode(String probLocs, LocationDictionary dictionary) throws SQLException {
+        if (probLocs == null) {
+            return EMPTY;
+        }
+        String[] tokens = probLocs.split(",");
+        int[] ids = new int[tokens.length];
+        double[] probabilities = new double[tokens.length];
+        int size = 0;
+        for (String token : tokens) {
+            double probability = parseProbability(token);
+            if (probability >= 0) {
+                ids[size] = dictionary.getId(token.substring(0, token.lastIndexOf(':')).trim());
+                probabilities[size] = probability;
+                size++;
+            }
+        }
+        return encode(Arrays.copyOf(ids, size), Arrays.copyOf(probabilities, size));
+    }
+
+    /** This method encodes the probabilities of the locations with the given
+     * IDs. */
+    public static byte[] encode(int[] ids, double[] probabilities) {
+        byte[] vector = new byte[ids.length * ENTRY_SIZE];
+        for (int i = 0; i < ids.length; i++) {
+            int probability = (int) Math.round(Math.max(0, Math.min(1, probabilities[i])) * MAX_PROBABILITY);
+            vector[i * ENTRY_SIZE] = (byte) (ids[i] >>> 8);
+            vector[i * ENTRY_SIZE + 1] = (byte) ids[i];
+            vector[i * ENTRY_SIZE + 2] = (byte) (probability >>> 8);
+            vector[i * ENTRY_SIZE + 3] = (byte) probability;
+        }
+        return vector;
+    }
+
+    /** This method returns how many locations the vector has; null is
+     * empty. */
+    public static int size(byte[] vector) {
+        return vector == null ? 0 : vector.length / ENTRY_SIZE;
+    }
+
+    /** This method returns the location ID of the i-th entry. */
+    public static int getId(byte[] vector, int i) {
+        return (vector[i * ENTRY_SIZE] & 0xFF) << 8 | vector[i * ENTRY_SIZE + 1] & 0xFF;
+    }
+
+    /** This method returns the probability of the i-th entry. */
+    public static double getProbability(byte[] vector, int i) {
+        return ((vector[i * ENTRY_SIZE + 2] & 0xFF) << 8 | vector[i * ENTRY_SIZE + 3] & 0xFF) / MAX_PROBABILITY;
+    }
+
+    /** This method writes the probabilities of the vector into the array,
+     * at the IDs of their locations, and zero everywhere else; IDs past the
+     * end of the array are skipped. */
+    public static void decode(byte[] vector, double[] probabilities) {
+        Arrays.fill(probabilities, 0.0);
+        for (int i = 0; i < size(vector); i++) {
+            int id = getId(vector, i);
+            if (id < probabilities.length) {
+                probabilities[id] = getProbability(vector, i);
+            }
+        }
+    }
+
+    /** This method writes the probabilities of the text into the array like
+     * decode does for a vector, for records stored without one; locations
+     * the dictionary lacks are skipped. */
+    public static void decode(String probLocs, LocationDictionary dictionary, double[] probabilities) {
+        Arrays.fill(probabilities, 0.0);
+        if (probLocs == null) {
+            return;
+        }
+        for (String token : probLocs.split(",")) {
+            double probability = parseProbability(token);
+            int id = probability < 0 ? -1 : dictionary.findId(token.substring(0, token.lastIndexOf(':')).trim());
+            if (id >= 0 && id < probabilities.length) {
+                probabilities[id] = probability;
+            }
+        }
+    }
+
+    /* Returns the probability of a location:probability token, or -1 if the
+     * token is not one. */
+    private static double parseProbability(String token) {
+        int colon = token.lastIndexOf(':');
+        if (colon <= 0) {
+            return -1;
+        }
+        try {
+            return Double.parseDouble(token.substring(colon + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private ProbabilityVector() {
+    }
+    public static final byte[] EMPTY = new byte[0];
+    private static final int ENTRY_SIZE = 4; // bytes
+    private static final double MAX_PROBABILITY = 65535.0;
+}
@@ -0,0 +1,590 @@
+package info.sarihh.unimodeling.utility;
+
+import info.sarihh.unimodeling.gui.RFIDServerFrame;
+import info.sarihh.unimodeling.streamapi.AppearanceBatch;
+import info.sarihh.unimodeling.streamapi.AppearanceLog;
+import info.sarihh.unimodeling.streamapi.AppearanceStore;
+import info.sarihh.unimodeling.streamapi.AppearanceWriter;
+import info.sarihh.unimodeling.streamapi.IngestQueue;
+import info.sarihh.unimodeling.streamapi.OnlineCondenserTask;
+import info.sarihh.unimodeling.streamapi.ReadingCodec;
+import info.sarihh.unimodeling.streamapi.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is the ingest engine of the RFID server. One acceptor thread
+ * hands every accepted reader connection to one of a fixed number of reactor
+ * threads, each of which multiplexes its connections with a non-blocking
+ * selector. Reactors do not condense readings themselves: they put them on
+ * bounded ingest queues, one per condensing worker, and a full queue either
+ * pauses the connections that feed it, which are not read until it drains
+ * and so push back on the readers over TCP, drops its oldest readings, or
+ * spills to disk. Idle appearances
+ * are closed on one scheduler shared by all connections, and closed
+ * appearances go to APPEAR_TABLE through one batching writer. Legacy clients
+ * that speak Java serialization are handed over to a blocking ClientHandler
+ * thread.
+ * Author: Sari Haj Hussein
+ */
+public class RFIDIngestServer {
+
+    public RFIDIngestServer(RFIDServerFrame rfidServerFrame, int portNumber) {
+        this.rfidServerFrame = rfidServerFrame;
+        this.portNumber = portNumber;
+    }
+
+    public void start() throws IOException, SQLException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        condensingScheduler = Executors.newScheduledThreadPool(threads);
+        long idleTimeout = rfidServerFrame.getCondensingRepeats();
+        long tickDuration = Math.max(MIN_TICK_DURATION, idleTimeout / TICKS_PER_TIMEOUT);
+        appearanceStore = new AppearanceStore(rfidServerFrame.getStreamSource(), SHARDS_PER_THREAD * threads,
+                idleTimeout, tickDuration, rfidServerFrame.getAllowedLateness());
+        appearanceLog = new AppearanceLog(new File(System.getProperty("user.dir")), "rfid-server-" + portNumber);
+        AppearanceBatch recovered = new AppearanceBatch();
+        if (appearanceLog.exists()) {
+            recovered = appearanceLog.recover(appearanceStore);
+            rfidServerFrame.appendLogText("Recovered " + appearanceStore.size() + " open appearances and "
+                    + recovered.size() + " closed ones from the write-ahead log.");
+        }
+        appearanceLog.open(appearanceStore);
+        appearanceWriter = new AppearanceWriter(rfidServerFrame.getConnectionPool().getConnection(),
+                appearanceStore.getObjIDs(), appearanceStore.getReaderIDs(), WRITE_BATCH_SIZE, WRITE_LINGER_TIME);
+        appearanceWriter.setLog(appearanceLog);
+        appearanceWriter.start();
+        condenserTasks = new OnlineCondenserTask[appearanceStore.getShards().length];
+        for (int i = 0; i < condenserTasks.length; i++) {
+            condenserTasks[i] = new OnlineCondenserTask(rfidServerFrame, appearanceStore, appearanceStore.getShards()[i],
+                    appearanceWriter);
+            condensingScheduler.scheduleAtFixedRate(condenserTasks[i],
+                    rfidServerFrame.getCondensingStarts(), tickDuration, TimeUnit.MILLISECONDS);
+        }
+        if (recovered.size() > 0) {
+            condenserTasks[0].recover(recovered);
+        }
+        condensingScheduler.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    if (appearanceLog.needsCompaction()) {
+                        appearanceLog.compact();
+                    }
+                } catch (IOException e) {
+                    rfidServerFrame.appendLogText(e.toString());
+                }
+            }
+        }, COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+        ingestQueues = new IngestQueue[threads];
+        condensingWorkers = new CondensingWorker[threads];
+        for (int i = 0; i < condensingWorkers.length; i++) {
+            ingestQueues[i] = new IngestQueue(QUEUE_CAPACITY, rfidServerFrame.getQueueOverflowPolicy());
+            condensingWorkers[i] = new CondensingWorker(i);
+            condensingWorkers[i].start();
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(portNumber), ACCEPT_BACKLOG);
+        reactors = new Reactor[threads];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+            reactors[i].start();
+        }
+        Thread acceptor = new Thread("RFID acceptor") {
+
+            @Override
+            public void run() {
+                int next = 0;
+                try {
+                    while (true) {
+                        SocketChannel channel = serverChannel.accept();
+                        rfidServerFrame.appendLogText("A connection from " + channel.socket() + ".");
+                        reactors[next].register(channel);
+                        next = (next + 1) % reactors.length;
+                    }
+                } catch (IOException e) {
+                    rfidServerFrame.appendLogText(e.toString().contains("ClosedChannelException")
+                            || e.toString().contains("AsynchronousCloseException") ? "" : e.toString());
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void stop() throws IOException {
+        serverChannel.close();
+        for (Reactor reactor : reactors) {
+            reactor.shutdown();
+        }
+        try {
+            for (Reactor reactor : reactors) {
+                reactor.join();
+            }
+            for (IngestQueue ingestQueue : ingestQueues) {
+                ingestQueue.close(); // the workers condense what is left and quit
+            }
+            for (CondensingWorker condensingWorker : condensingWorkers) {
+                condensingWorker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        condensingScheduler.shutdown();
+        try {
+            condensingScheduler.awaitTermination(COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (OnlineCondenserTask condenserTask : condenserTasks) {
+            condenserTask.flush();
+        }
+        appearanceWriter.close();
+        appearanceLog.close();
+        rfidServerFrame.appendLogText(getQueueStatistics());
+        for (IngestQueue ingestQueue : ingestQueues) {
+            ingestQueue.dispose();
+        }
+        if (appearanceStore.getLateReadings() > 0) {
+            rfidServerFrame.appendLogText(appearanceStore.getLateReadings()
+                    + " readings came later than the allowed lateness.");
+        }
+    }
+
+    /** This method closes the idle appearances of every shard right away,
+     * e.g. when a client ends its simulation. */
+    public void condense() {
+        for (OnlineCondenserTask condenserTask : condenserTasks) {
+            condensingScheduler.execute(condenserTask);
+        }
+    }
+
+    /** This method puts a reading on the ingest queue of the worker that
+     * condenses its object, waiting for room if the overflow policy says
+     * so. */
+    public void submit(HashMap<String, String> reading) throws IOException {
+        StreamSource streamSource = appearanceStore.getStreamSource();
+        int objID = appearanceStore.getObjIDs().getId(reading.get(streamSource.getObjIDAttributeName()));
+        int readerID = appearanceStore.getReaderIDs().getId(reading.get(streamSource.getReaderIDAttributeName()));
+        long time = AppearanceBatch.toEpochNanos(Timestamp.valueOf(reading.get(streamSource.getTimeAttributeName())));
+        try {
+            getIngestQueue(objID).put(objID, readerID, time);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.toString());
+        }
+    }
+
+    /** This method is submit for the reactors, which must never wait: if the
+     * overflow policy would wait, it returns false and runs the listener
+     * once the queue has room again. */
+    private boolean offer(HashMap<String, String> reading, Runnable roomListener) throws IOException {
+        StreamSource streamSource = appearanceStore.getStreamSource();
+        int objID = appearanceStore.getObjIDs().getId(reading.get(streamSource.getObjIDAttributeName()));
+        int readerID = appearanceStore.getReaderIDs().getId(reading.get(streamSource.getReaderIDAttributeName()));
+        long time = AppearanceBatch.toEpochNanos(Timestamp.valueOf(reading.get(streamSource.getTimeAttributeName())));
+        return getIngestQueue(objID).offer(objID, readerID, time, roomListener);
+    }
+
+    private IngestQueue getIngestQueue(int objID) {
+        return ingestQueues[appearanceStore.getShardIndex(objID) % ingestQueues.length];
+    }
+
+    public long getQueueDepth() {
+        long depth = 0;
+        for (IngestQueue ingestQueue : ingestQueues) {
+            depth += ingestQueue.getDepth();
+        }
+        return depth;
+    }
+
+    public long getDroppedReadings() {
+        long dropped = 0;
+        for (IngestQueue ingestQueue : ingestQueues) {
+            dropped += ingestQueue.getDropped();
+        }
+        return dropped;
+    }
+
+    public long getSpilledReadings() {
+        long spilled = 0;
+        for (IngestQueue ingestQueue : ingestQueues) {
+            spilled += ingestQueue.getSpilled();
+        }
+        return spilled;
+    }
+
+    public String getQueueStatistics() {
+        return "Ingest queues: " + getQueueDepth() + " readings waiting, "
+                + getDroppedReadings() + " dropped, " + getSpilledReadings() + " spilled to disk.";
+    }
+
+    public String getAddress() {
+        return serverChannel.socket().toString();
+    }
+
+    public AppearanceStore getAppearanceStore() {
+        return appearanceStore;
+    }
+
+    /* The per-connection state owned by a reactor thread. */
+    private class ReaderConnection {
+
+        ReaderConnection(SocketChannel channel, final Reactor reactor) {
+            this.channel = channel;
+            roomListener = new Runnable() {
+
+                public void run() {
+                    reactor.resume(ReaderConnection.this);
+                }
+            };
+        }
+
+        /** This method consumes every complete frame in the read buffer and
+         * returns false once the connection is finished with. A frame whose
+         * ingest queue is full stays in the buffer and pauses the
+         * connection until the queue calls it back. */
+        boolean process() throws IOException {
+            readBuffer.flip();
+            try {
+                if (codec == null) {
+                    if (readBuffer.remaining() < 2) {
+                        return true;
+                    }
+                    if (ReadingCodec.isLegacyHeader(readBuffer.get(0) & 0xFF, readBuffer.get(1) & 0xFF)) {
+                        consumed = new byte[readBuffer.remaining()];
+                        readBuffer.get(consumed);
+                        return false;
+                    }
+                    if (readBuffer.remaining() < ReadingCodec.HANDSHAKE_LENGTH) {
+                        return true;
+                    }
+                    codec = new ReadingCodec(rfidServerFrame.getStreamSource());
+                    if (!codec.readHandshake(readBuffer)) {
+                        throw new IOException("The stream encoding of [" + getHostAddress()
+                                + "] does not match the registered stream.");
+                    }
+                }
+                while (readBuffer.remaining() >= 4) {
+                    int start = readBuffer.position();
+                    int length = readBuffer.getInt(start);
+                    if (length <= 0 || length > ReadingCodec.MAX_FRAME_LENGTH) {
+                        throw new IOException("Corrupt RFID frame of length " + length + ".");
+                    }
+                    if (readBuffer.remaining() < 4 + length) {
+                        ensureCapacity(4 + length);
+                        return true;
+                    }
+                    readBuffer.position(readBuffer.position() + 4);
+                    ByteBuffer frame = readBuffer.slice();
+                    frame.limit(length);
+                    readBuffer.position(readBuffer.position() + length);
+                    reading.clear();
+                    codec.decode(frame, reading);
+                    if (reading.containsKey("QUIT")) { // client disconnected
+                        close();
+                        return false;
+                    } else if (reading.containsKey("END")) { // client simulation ended
+                        rfidServerFrame.appendLogText("[" + getHostAddress() + "] ended its simulation after "
+                                + readings + " readings.");
+                        rfidServerFrame.appendLogText(getQueueStatistics());
+                        condense();
+                    } else if (offer(reading, roomListener)) {
+                        readings++;
+                    } else {
+                        readBuffer.position(start);
+                        paused = true;
+                        return true;
+                    }
+                }
+                return true;
+            } finally {
+                readBuffer.compact();
+            }
+        }
+
+        /** This method hands a legacy client over to a blocking ClientHandler,
+         * replaying the bytes that were already read from it. The channel
+         * must have been deregistered from its selector. */
+        void handOver() throws IOException {
+            channel.configureBlocking(true);
+            rfidServerFrame.appendLogText("[" + getHostAddress() + "] is handed over to a legacy client handler.");
+            new ClientHandler(rfidServerFrame, channel.socket(),
+                    new SequenceInputStream(new ByteArrayInputStream(consumed), channel.socket().getInputStream()),
+                    RFIDIngestServer.this).start();
+        }
+
+        void close() {
+            rfidServerFrame.removeConnection(channel.socket());
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > readBuffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(capacity, 2 * readBuffer.capacity()));
+                larger.put(readBuffer);
+                readBuffer = larger;
+                readBuffer.flip();
+            }
+        }
+
+        String getHostAddress() {
+            return channel.socket().getInetAddress().getHostAddress();
+        }
+        final SocketChannel channel;
+        final Runnable roomListener;
+        SelectionKey key;
+        boolean paused = false;
+        ReadingCodec codec = null;
+        byte[] consumed = null; // set once the client turns out to be a legacy one
+        ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final HashMap<String, String> reading = new HashMap<>();
+        long readings = 0;
+    }
+
+    /* A reactor thread serving many connections through one selector. */
+    private class Reactor extends Thread {
+
+        Reactor(int index) throws IOException {
+            super("RFID reactor " + index);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        /* Called by a condensing worker once the ingest queue that paused the
+         * connection has room again. */
+        void resume(ReaderConnection connection) {
+            resumed.add(connection);
+            selector.wakeup();
+        }
+
+        /* The selector is closed by the reactor thread itself, so that it is
+         * never closed while its selected keys are being iterated. */
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerPending();
+                    resumePaused();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                    }
+                    if (!handOvers.isEmpty()) {
+                        selector.selectNow(); // flush the cancelled keys before switching to blocking mode
+                        for (ReaderConnection connection : handOvers) {
+                            handOver(connection);
+                        }
+                        handOvers.clear();
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // the server is stopped
+            } catch (IOException e) {
+                rfidServerFrame.appendLogText(e.toString());
+            } finally {
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    rfidServerFrame.appendLogText(e.toString());
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    ObjectOutputStream clientOutputStream = new ObjectOutputStream(new ChannelOutputStream(channel));
+                    rfidServerFrame.addConnection(channel.socket(), clientOutputStream);
+                    ReaderConnection connection = new ReaderConnection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    rfidServerFrame.appendLogText(e.toString());
+                    rfidServerFrame.removeConnection(channel.socket());
+                }
+            }
+        }
+
+        /* A resumed connection first processes the frames it has buffered,
+         * as they will not make its channel readable again. */
+        private void resumePaused() {
+            ReaderConnection connection;
+            while ((connection = resumed.poll()) != null) {
+                if (connection.key.isValid()) {
+                    connection.paused = false;
+                    try {
+                        process(connection);
+                    } catch (IOException e) {
+                        fail(connection, e);
+                    }
+                }
+            }
+        }
+
+        private void read(SelectionKey key) {
+            ReaderConnection connection = (ReaderConnection) key.attachment();
+            try {
+                int count = connection.channel.read(connection.readBuffer);
+                if (count < 0) {
+                    key.cancel();
+                    connection.close();
+                } else if (count > 0) {
+                    process(connection);
+                }
+            } catch (IOException e) {
+                fail(connection, e);
+            }
+        }
+
+        private void process(ReaderConnection connection) throws IOException {
+            if (!connection.process()) {
+                connection.key.cancel();
+                if (connection.consumed != null) {
+                    handOvers.add(connection);
+                }
+            } else {
+                connection.key.interestOps(connection.paused ? 0 : SelectionKey.OP_READ);
+            }
+        }
+
+        private void fail(ReaderConnection connection, IOException e) {
+            rfidServerFrame.appendLogText(e.toString().contains("SocketException") ? "" : e.toString());
+            connection.key.cancel();
+            connection.close();
+        }
+
+        private void handOver(ReaderConnection connection) {
+            try {
+                connection.handOver();
+            } catch (IOException e) {
+                rfidServerFrame.appendLogText(e.toString());
+                connection.close();
+            }
+        }
+        private final Selector selector;
+        private volatile boolean running = true;
+        private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<ReaderConnection> resumed = new ConcurrentLinkedQueue<>();
+        private final ArrayList<ReaderConnection> handOvers = new ArrayList<>();
+    }
+
+    /* A thread that condenses the readings of one ingest queue. */
+    private class CondensingWorker extends Thread {
+
+        CondensingWorker(int index) {
+            super("RFID condensing worker " + index);
+            setDaemon(true);
+            ingestQueue = ingestQueues[index];
+        }
+
+        @Override
+        public void run() {
+            int[] objIDs = new int[DRAIN_SIZE];
+            int[] readerIDs = new int[DRAIN_SIZE];
+            long[] times = new long[DRAIN_SIZE];
+            try {
+                int count;
+                while ((count = ingestQueue.drainTo(objIDs, readerIDs, times)) >= 0) {
+                    for (int i = 0; i < count; i++) {
+                        appearanceStore.add(objIDs[i], readerIDs[i], times[i]);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // the server is stopped
+            } catch (IOException e) {
+                rfidServerFrame.appendLogText(e.toString());
+            }
+        }
+        private final IngestQueue ingestQueue;
+    }
+
+    /* Server-to-client messages are rare and tiny, so they are written
+     * synchronously even on non-blocking channels. */
+    private static class ChannelOutputStream extends OutputStream {
+
+        ChannelOutputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+        private final SocketChannel channel;
+    }
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int SHARDS_PER_THREAD = 4;
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final int DRAIN_SIZE = 1024;
+    private static final int TICKS_PER_TIMEOUT = 8;
+    private static final long MIN_TICK_DURATION = 10;
+    private static final long COMPACTION_INTERVAL = 1000;
+    private static final int WRITE_BATCH_SIZE = 500;
+    private static final long WRITE_LINGER_TIME = 100; // milliseconds
+    private RFIDServerFrame rfidServerFrame;
+    private int portNumber;
+    private ServerSocketChannel serverChannel;
+    private Reactor[] reactors;
+    private ScheduledExecutorService condensingScheduler;
+    private AppearanceStore appearanceStore;
+    private AppearanceLog appearanceLog;
+    private AppearanceWriter appearanceWriter;
+    private OnlineCondenserTask[] condenserTasks;
+    private IngestQueue[] ingestQueues;
+    private CondensingWorker[] condensingWorkers;
+}
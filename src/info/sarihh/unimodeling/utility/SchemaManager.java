@@ -0,0 +1,261 @@
+package info.sarihh.unimodeling.utility;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class creates the result tables of the pipeline, i.e. APPEAR_TABLE,
+ * PROB_TABLE, and INFER_TABLE, in the types of the connected DBMS. Every
+ * result table gets the columns it is given, followed by S_TIME and E_TIME,
+ * and two indexes: one on the object ID, S_TIME, and E_TIME, which the
+ * per-object scans of translation and inference read in order, and one on
+ * S_TIME and E_TIME for time-range queries. A table can also be partitioned
+ * by ranges of S_TIME, per day or per month:
+ * - Oracle creates the partitions itself as rows arrive (interval
+ *   partitioning).
+ * - PostgreSQL and MySQL get one partition per day or month of the given
+ *   time range, e.g. that of the stream, and one partition for the rest.
+ * Author: Sari Haj Hussein
+ */
+public class SchemaManager {
+
+    public enum Partitioning {
+
+        NONE, DAILY, MONTHLY
+    }
+
+    public SchemaManager(Connection conn) throws SQLException {
+        this.conn = conn;
+        this.dialect = SqlDialect.forConnection(conn);
+    }
+
+    /** This method makes the tables that are created next partitioned; the
+     * time range may be null for Oracle, or if it is unknown. */
+    public void setPartitioning(Partitioning partitioning, Timestamp from, Timestamp to) {
+        this.partitioning = partitioning;
+        this.from = from;
+        this.to = to;
+    }
+
+    /** This method tells whether the table exists in the schema of the
+     * connection; it looks the table up by its name instead of listing every
+     * table of every schema. */
+    public boolean tableExists(String tableName) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        ResultSet resultSet = meta.getTables(conn.getCatalog(), getSchemaPattern(meta),
+                getNamePattern(meta, tableName), new String[]{"TABLE", "PARTITIONED TABLE"});
+        try {
+            while (resultSet.next()) {
+                if (resultSet.getString(3).equalsIgnoreCase(tableName)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /** This method creates the result table with the given columns, whose
+     * types are those of stream encodings, unless it exists, and creates the
+     * indexes of the table that are missing. It returns true if the table was
+     * created. */
+    public boolean createResultTable(String tableName, String objIDColumnName, Map<String, String> columns)
+            throws SQLException {
+        boolean exists = tableExists(tableName);
+        Statement statement = conn.createStatement();
+        try {
+            if (!exists) {
+                StringBuilder sb = new StringBuilder("CREATE TABLE ").append(tableName).append(" (\n");
+                for (Map.Entry<String, String> column : columns.entrySet()) {
+                    sb.append(column.getKey()).append(" ").append(dialect.columnType(column.getValue())).append(",\n");
+                }
+                sb.append("S_TIME ").append(dialect.timestamp(6)).append(",\n");
+                sb.append("E_TIME ").append(dialect.timestamp(6)).append(")");
+                if (partitioning != Partitioning.NONE) {
+                    sb.append(getPartitionClause());
+                }
+                statement.execute(sb.toString());
+                if (partitioning != Partitioning.NONE && dialect == SqlDialect.POSTGRESQL) {
+                    for (String partition : getPostgreSQLPartitions(tableName)) {
+                        statement.execute(partition);
+                    }
+                }
+            }
+            LinkedHashMap<String, String> indexes = new LinkedHashMap<>();
+            indexes.put(tableName + "_OBJ_IDX", objIDColumnName + ", S_TIME, E_TIME");
+            indexes.put(tableName + "_TIME_IDX", "S_TIME, E_TIME");
+            HashSet<String> existingIndexes = exists ? getIndexNames(tableName) : new HashSet<String>();
+            boolean local = !exists && partitioning != Partitioning.NONE && dialect == SqlDialect.ORACLE;
+            for (Map.Entry<String, String> index : indexes.entrySet()) {
+                if (!existingIndexes.contains(index.getKey())) {
+                    statement.execute("CREATE INDEX " + index.getKey() + " ON " + tableName + " ("
+                            + index.getValue() + ")" + (local ? " LOCAL" : ""));
+                }
+            }
+        } finally {
+            statement.close();
+        }
+        return !exists;
+    }
+
+    /** This method creates an index on the columns of the table unless the
+     * table has an index of that name; it returns true if it was created. */
+    public boolean createIndex(String tableName, String indexName, String columns) throws SQLException {
+        if (getIndexNames(tableName).contains(indexName.toUpperCase())) {
+            return false;
+        }
+        Statement statement = conn.createStatement();
+        try {
+            statement.execute("CREATE INDEX " + indexName + " ON " + tableName + " (" + columns + ")");
+        } finally {
+            statement.close();
+        }
+        return true;
+    }
+
+    /** This method returns the first and the last value of a time column,
+     * e.g. to partition a result table by the time range of the stream; both
+     * are null if the table is empty. */
+    public Timestamp[] getTimeRange(String tableName, String timeColumnName) throws SQLException {
+        Statement statement = conn.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery("SELECT MIN(" + timeColumnName + "), MAX("
+                    + timeColumnName + ") FROM " + tableName);
+            resultSet.next();
+            return new Timestamp[]{resultSet.getTimestamp(1), resultSet.getTimestamp(2)};
+        } finally {
+            statement.close();
+        }
+    }
+
+    private String getPartitionClause() {
+        ArrayList<Calendar> bounds = getPeriodBounds();
+        if (dialect == SqlDialect.ORACLE) {
+            return " PARTITION BY RANGE (S_TIME) INTERVAL ("
+                    + (partitioning == Partitioning.DAILY ? "NUMTODSINTERVAL(1, 'DAY')" : "NUMTOYMINTERVAL(1, 'MONTH')")
+                    + ") (PARTITION P_START VALUES LESS THAN (TIMESTAMP '" + format(bounds.get(0)) + "'))";
+        } else if (dialect == SqlDialect.MYSQL) {
+            StringBuilder sb = new StringBuilder(" PARTITION BY RANGE COLUMNS (S_TIME) (");
+            for (int i = 0; i < bounds.size() - 1; i++) {
+                sb.append("PARTITION ").append(getPartitionName(bounds.get(i))).append(" VALUES LESS THAN ('")
+                        .append(format(bounds.get(i + 1))).append("'), ");
+            }
+            return sb.append("PARTITION P_REST VALUES LESS THAN (MAXVALUE))").toString();
+        } else {
+            return " PARTITION BY RANGE (S_TIME)";
+        }
+    }
+
+    private ArrayList<String> getPostgreSQLPartitions(String tableName) {
+        ArrayList<String> partitions = new ArrayList<>();
+        ArrayList<Calendar> bounds = getPeriodBounds();
+        for (int i = 0; i < bounds.size() - 1; i++) {
+            partitions.add("CREATE TABLE " + tableName + "_" + getPartitionName(bounds.get(i)) + " PARTITION OF "
+                    + tableName + " FOR VALUES FROM ('" + format(bounds.get(i)) + "') TO ('"
+                    + format(bounds.get(i + 1)) + "')");
+        }
+        partitions.add("CREATE TABLE " + tableName + "_P_REST PARTITION OF " + tableName + " DEFAULT");
+        return partitions;
+    }
+
+    /* Returns the starts of the days or months that cover the time range,
+     * followed by the end of the last one; partition i holds the rows from
+     * bound i up to bound i + 1. Without a time range, only the start of the
+     * day or month of the epoch is returned. */
+    private ArrayList<Calendar> getPeriodBounds() {
+        Calendar bound = Calendar.getInstance();
+        bound.setTimeInMillis(from == null ? 0 : from.getTime());
+        bound.set(Calendar.HOUR_OF_DAY, 0);
+        bound.set(Calendar.MINUTE, 0);
+        bound.set(Calendar.SECOND, 0);
+        bound.set(Calendar.MILLISECOND, 0);
+        if (partitioning == Partitioning.MONTHLY) {
+            bound.set(Calendar.DAY_OF_MONTH, 1);
+        }
+        ArrayList<Calendar> bounds = new ArrayList<>();
+        bounds.add(bound);
+        while (from != null && to != null && bound.getTimeInMillis() <= to.getTime()
+                && bounds.size() <= MAX_PARTITIONS) {
+            bound = (Calendar) bound.clone();
+            bound.add(partitioning == Partitioning.DAILY ? Calendar.DAY_OF_MONTH : Calendar.MONTH, 1);
+            bounds.add(bound);
+        }
+        return bounds;
+    }
+
+    private String getPartitionName(Calendar start) {
+        return new SimpleDateFormat(partitioning == Partitioning.DAILY ? "'P'yyyyMMdd" : "'P'yyyyMM")
+                .format(start.getTime());
+    }
+
+    private static String format(Calendar calendar) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(calendar.getTime());
+    }
+
+    private HashSet<String> getIndexNames(String tableName) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        HashSet<String> indexNames = new HashSet<>();
+        ResultSet resultSet = meta.getIndexInfo(conn.getCatalog(), dialect == SqlDialect.ORACLE ? meta.getUserName() : null,
+                getStoredName(meta, tableName), false, true);
+        try {
+            while (resultSet.next()) {
+                String indexName = resultSet.getString("INDEX_NAME");
+                if (indexName != null) {
+                    indexNames.add(indexName.toUpperCase());
+                }
+            }
+        } finally {
+            resultSet.close();
+        }
+        return indexNames;
+    }
+
+    /* Oracle keeps the tables of a user in the schema of the same name; the
+     * other DBMSs look in the catalog of the connection. */
+    private String getSchemaPattern(DatabaseMetaData meta) throws SQLException {
+        if (dialect != SqlDialect.ORACLE) {
+            return null;
+        }
+        return escape(meta, meta.getUserName());
+    }
+
+    private String getNamePattern(DatabaseMetaData meta, String tableName) throws SQLException {
+        return escape(meta, getStoredName(meta, tableName));
+    }
+
+    private static String getStoredName(DatabaseMetaData meta, String name) throws SQLException {
+        if (meta.storesUpperCaseIdentifiers()) {
+            return name.toUpperCase();
+        } else if (meta.storesLowerCaseIdentifiers()) {
+            return name.toLowerCase();
+        }
+        return name;
+    }
+
+    /* Escapes the wildcards of a metadata search pattern, e.g. the _ of
+     * APPEAR_TABLE. */
+    private static String escape(DatabaseMetaData meta, String name) throws SQLException {
+        String escape = meta.getSearchStringEscape();
+        if (escape == null || escape.isEmpty()) {
+            return name;
+        }
+        return name.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+    }
+    private static final int MAX_PARTITIONS = 1000;
+    private final Connection conn;
+    private final SqlDialect dialect;
+    private Partitioning partitioning = Partitioning.NONE;
+    private Timestamp from = null;
+    private Timestamp to = null;
+}
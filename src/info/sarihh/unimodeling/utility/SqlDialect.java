@@ -0,0 +1,107 @@
+package info.sarihh.unimodeling.utility;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This enumeration holds the SQL that differs between the DBMSs that
+ * DatabaseConnectionFactory connects to.
+ * Author: Sari Haj Hussein
+ */
+public enum SqlDialect {
+
+    MYSQL, ORACLE, POSTGRESQL;
+
+    /** This method returns the dialect of the DBMS behind the connection;
+     * like DatabaseConnectionFactory, it falls back to Oracle. */
+    public static SqlDialect forConnection(Connection conn) throws SQLException {
+        String productName = conn.getMetaData().getDatabaseProductName().toUpperCase();
+        if (productName.contains("MYSQL")) {
+            return MYSQL;
+        } else if (productName.contains("POSTGRESQL")) {
+            return POSTGRESQL;
+        } else {
+            return ORACLE;
+        }
+    }
+
+    /** This method starts an INSERT ... SELECT into the table. Oracle is told
+     * to load the rows directly above the high-water mark of the table. */
+    public String insertInto(String tableName) {
+        return (this == ORACLE ? "INSERT /*+ APPEND */ INTO " : "INSERT INTO ") + tableName;
+    }
+
+    /** This method makes the query return its first rows only. Oracle has
+     * no row limiting clause before 12c, so the query is wrapped in one that
+     * stops at ROWNUM; the ordered rows of the inner query keep their order. */
+    public String limit(String query, int rows) {
+        return this == ORACLE ? "SELECT * FROM (" + query + ") WHERE ROWNUM <= " + rows : query + " LIMIT " + rows;
+    }
+
+    /** This method translates a column type of a stream encoding, which are
+     * written in Oracle types, e.g. VARCHAR2(10 BYTE), NUMBER(20,0),
+     * TIMESTAMP(3), or RAW(100), into the type of this DBMS. */
+    public String columnType(String type) {
+        type = type.trim().toUpperCase();
+        if (this == ORACLE) {
+            return type;
+        }
+        Matcher matcher = VARCHAR2_TYPE.matcher(type);
+        if (matcher.matches()) {
+            return "VARCHAR(" + matcher.group(1) + ")";
+        }
+        matcher = NUMBER_TYPE.matcher(type);
+        if (matcher.matches()) {
+            String scale = matcher.group(2) == null ? "0" : matcher.group(2);
+            return (this == MYSQL ? "DECIMAL(" : "NUMERIC(") + matcher.group(1) + ", " + scale + ")";
+        }
+        matcher = RAW_TYPE.matcher(type);
+        if (matcher.matches()) {
+            return binary(Integer.parseInt(matcher.group(1)));
+        }
+        matcher = TIMESTAMP_TYPE.matcher(type);
+        if (matcher.matches()) {
+            return timestamp(matcher.group(1) == null ? 6 : Math.min(6, Integer.parseInt(matcher.group(1))));
+        }
+        switch (type) {
+            case "NUMBER":
+            case "FLOAT":
+                return "DOUBLE PRECISION";
+            case "DATE":
+                return timestamp(0);
+            case "CLOB":
+                return "TEXT";
+            default:
+                return type;
+        }
+    }
+
+    /** This method returns the type of a timestamp with the given digits of
+     * fractional seconds. */
+    public String timestamp(int digits) {
+        return (this == MYSQL ? "DATETIME(" : "TIMESTAMP(") + digits + ")";
+    }
+
+    /** This method returns the type of a variable-length string. */
+    public String varchar(int length) {
+        return this == ORACLE ? "VARCHAR2(" + length + " BYTE)" : "VARCHAR(" + length + ")";
+    }
+
+    /** This method returns the type of a variable-length byte string. */
+    public String binary(int length) {
+        switch (this) {
+            case ORACLE:
+                return "RAW(" + length + ")";
+            case POSTGRESQL:
+                return "BYTEA";
+            default:
+                return "VARBINARY(" + length + ")";
+        }
+    }
+    private static final Pattern VARCHAR2_TYPE = Pattern.compile("N?VARCHAR2?\\s*\\(\\s*(\\d+)\\s*(?:BYTE|CHAR)?\\s*\\)");
+    private static final Pattern NUMBER_TYPE = Pattern.compile("NUMBER\\s*\\(\\s*(\\d+)\\s*(?:,\\s*(\\d+)\\s*)?\\)");
+    private static final Pattern RAW_TYPE = Pattern.compile("RAW\\s*\\(\\s*(\\d+)\\s*\\)");
+    private static final Pattern TIMESTAMP_TYPE = Pattern.compile("TIMESTAMP\\s*(?:\\(\\s*(\\d)\\s*\\))?");
+}